@@ -0,0 +1,34 @@
+package beans.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferRequest implements Serializable {
+    private static final long serialVersionUID = 3190546382731504571L;
+
+    private Mode mode;
+    private List<TransferRequestBean> transfers;
+
+    public enum Mode {
+        // every transfer is applied, or none of them
+        ALL_OR_NOTHING,
+        // every transfer is tried on its own, failures do not affect the others
+        BEST_EFFORT;
+
+        @Override
+        public String toString() {
+            return this.name();
+        }
+    }
+}
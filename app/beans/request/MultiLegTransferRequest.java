@@ -0,0 +1,25 @@
+package beans.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One payment made of several transfers, e.g. a debit split across several receivers, applied all together or
+ * not at all.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MultiLegTransferRequest implements Serializable {
+    private static final long serialVersionUID = -6012387412960117342L;
+
+    private List<TransferRequestBean> legs;
+}
@@ -0,0 +1,33 @@
+package beans.request;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import models.Account.CurrencyEnum;
+import models.ScheduledTransfer.Recurrence;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScheduledTransferRequest implements Serializable {
+    private static final long serialVersionUID = 5528043918463360917L;
+
+    private Long fromAccountId;
+    private Long toAccountId;
+    private BigDecimal amount;
+    private CurrencyEnum currency;
+    private Recurrence recurrence;
+
+    // first run, straight away when missing
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'")
+    private Date startAt;
+}
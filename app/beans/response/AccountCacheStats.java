@@ -0,0 +1,30 @@
+package beans.response;
+
+import com.google.common.cache.CacheStats;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountCacheStats implements Serializable {
+    private static final long serialVersionUID = 7315862450918273364L;
+
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long loadCount;
+    private double averageLoadMillis;
+    private long evictionCount;
+
+    public static AccountCacheStats of(long size, CacheStats stats) {
+        return new AccountCacheStats(size, stats.hitCount(), stats.missCount(), stats.hitRate(), stats.loadCount(),
+                stats.averageLoadPenalty() / 1_000_000d, stats.evictionCount());
+    }
+}
@@ -0,0 +1,67 @@
+package beans.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import models.AccountDailyRollup;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Daily totals of an account over a date range, one entry per day with transfers. Days without any carry the
+ * closing balance of the day before.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountStatement implements Serializable {
+    private static final long serialVersionUID = -6140285273645198745L;
+
+    private Long accountId;
+    private String from;
+    private String to;
+    private BigDecimal openingBalance;
+    private BigDecimal closingBalance;
+    private List<Day> days;
+
+    /**
+     * Builds the statement from the rollups of the range, oldest first, led by the last rollup before it if any.
+     */
+    public static AccountStatement of(Long accountId, LocalDate from, LocalDate to, List<AccountDailyRollup> rollups) {
+        BigDecimal opening = BigDecimal.ZERO;
+        BigDecimal balance = BigDecimal.ZERO;
+        List<Day> days = new ArrayList<>();
+
+        for (AccountDailyRollup rollup : rollups) {
+            balance = rollup.getClosingBalance();
+
+            if (rollup.getDate().isBefore(from))
+                opening = balance;
+            else if (rollup.getTransferCount() > 0)
+                days.add(new Day(rollup.getDate().toString(), rollup.getInflow(), rollup.getOutflow(),
+                        rollup.getTransferCount(), balance));
+        }
+
+        return new AccountStatement(accountId, from.toString(), to.toString(), opening, balance, days);
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Day implements Serializable {
+        private static final long serialVersionUID = 2931740585937428410L;
+
+        private String date;
+        private BigDecimal inflow;
+        private BigDecimal outflow;
+        private long transferCount;
+        private BigDecimal closingBalance;
+    }
+}
@@ -0,0 +1,37 @@
+package beans.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk onboarding. Every record that was not onboarded is counted as failed; the first ones are listed
+ * with their line in the request body, the rest are only counted.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkOnboardResult implements Serializable {
+    private static final long serialVersionUID = -3871520943187236512L;
+
+    private long onboarded;
+    private long failed;
+    private List<RecordError> errors = new ArrayList<>();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RecordError implements Serializable {
+        private static final long serialVersionUID = 6120394857123904671L;
+
+        private long line;
+        private String message;
+    }
+}
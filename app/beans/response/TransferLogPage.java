@@ -0,0 +1,24 @@
+package beans.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import models.TransferLog;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * One page of the transfer log history, newest first. The next cursor is only set when older logs remain.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferLogPage implements Serializable {
+    private static final long serialVersionUID = 4512309871265501873L;
+
+    private List<TransferLog> logs;
+    private String nextCursor;
+}
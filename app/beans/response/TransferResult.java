@@ -0,0 +1,29 @@
+package beans.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import models.TransferLog;
+
+import java.io.Serializable;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferResult implements Serializable {
+    private static final long serialVersionUID = -2217914310587003417L;
+
+    private int index;
+    private TransferLog.Status status;
+    private String message;
+
+    public static TransferResult completed(int index) {
+        return new TransferResult(index, TransferLog.Status.COMPLETED, null);
+    }
+
+    public static TransferResult failed(int index, Exception cause) {
+        return new TransferResult(index, TransferLog.Status.FAILED, cause.toString());
+    }
+}
@@ -0,0 +1,36 @@
+package controllers;
+
+import com.google.inject.Inject;
+import dao.AccountDao;
+import play.mvc.Controller;
+import play.mvc.Result;
+import utils.DatabaseExecutionContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static play.libs.Json.toJson;
+
+public class AccountController extends Controller {
+    private final AccountDao accountDao;
+    private final DatabaseExecutionContext databaseContext;
+
+    @Inject
+    public AccountController(AccountDao accountDao, DatabaseExecutionContext databaseContext) {
+        this.accountDao = accountDao;
+        this.databaseContext = databaseContext;
+    }
+
+    public CompletionStage<Result> getAccount(Long accountId) {
+        // no transaction, cached accounts are answered without the database and misses load in their own
+        return CompletableFuture.supplyAsync(() -> accountDao.getAccount(accountId)
+                .map(account -> ok(toJson(account)))
+                .orElseGet(() -> internalServerError("account not found")), databaseContext);
+    }
+
+    public Result getCacheStats() {
+        return accountDao.getCacheStats()
+                .map(stats -> ok(toJson(stats)))
+                .orElseGet(() -> notFound("account cache is disabled"));
+    }
+}
@@ -1,53 +1,243 @@
 package controllers;
 
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
 import beans.request.CustomerOnboardRequest;
+import beans.response.AccountStatement;
+import beans.response.TransferLogPage;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
+import dao.AccountRollupDao;
 import dao.CustomerDao;
+import models.AccountDailyRollup;
 import models.Customer;
-import play.db.jpa.Transactional;
+import models.TransferLog;
+import play.Logger;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.Results;
+import services.CustomerOnboardingService;
+import services.impl.CustomerAccountsCache;
+import utils.BlockingIoExecutionContext;
+import utils.DatabaseExecutionContext;
+import utils.ExportExecutionContext;
+import utils.InputStreamBodyParser;
 import utils.JsonUtil;
+import utils.TransferLogCursor;
+import utils.TransferLogExportFormat;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static play.libs.Json.toJson;
 
 public class CustomerController extends Controller {
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int EXPORT_BUFFER_SIZE = 1 << 16;
+    private static final int DEFAULT_STATEMENT_DAYS = 30;
+
     private final CustomerDao customerDao;
+    private final AccountRollupDao rollupDao;
+    private final CustomerAccountsCache accountsCache;
+    private final CustomerOnboardingService onboardingService;
+    private final DatabaseExecutionContext databaseContext;
+    private final ExportExecutionContext exportContext;
+    private final BlockingIoExecutionContext blockingIoContext;
 
     @Inject
-    public CustomerController(CustomerDao customerDao) {
+    public CustomerController(CustomerDao customerDao, AccountRollupDao rollupDao, CustomerAccountsCache accountsCache,
+                              CustomerOnboardingService onboardingService, DatabaseExecutionContext databaseContext,
+                              ExportExecutionContext exportContext, BlockingIoExecutionContext blockingIoContext) {
         this.customerDao = customerDao;
+        this.rollupDao = rollupDao;
+        this.accountsCache = accountsCache;
+        this.onboardingService = onboardingService;
+        this.databaseContext = databaseContext;
+        this.exportContext = exportContext;
+        this.blockingIoContext = blockingIoContext;
     }
 
-    @Transactional(readOnly = true)
-    public Result getTransferLogs(Long customerId, Long accountId) {
-        return ok(toJson(customerDao.getTransferLogs(customerId, accountId)));
+    public CompletionStage<Result> getTransferLogs(Long customerId, Long accountId, Integer limit, String after) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE)
+            return completedFuture(badRequest("limit must be between 1 and " + MAX_PAGE_SIZE));
+
+        TransferLogCursor cursor;
+        try {
+            cursor = after.isEmpty() ? null : TransferLogCursor.decode(after);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(badRequest(e.getMessage()));
+        }
+
+        return databaseContext.withTransaction(true, () -> {
+            // one extra row tells whether another page follows
+            List<TransferLog> logs = customerDao.getTransferLogs(customerId, accountId, cursor, limit + 1);
+            if (logs.size() <= limit)
+                return ok(toJson(new TransferLogPage(logs, null)));
+
+            List<TransferLog> page = logs.subList(0, limit);
+            return ok(toJson(new TransferLogPage(page, TransferLogCursor.of(page.get(limit - 1)).encode())));
+        });
+    }
+
+    public CompletionStage<Result> exportTransferLogs(Long customerId, Long accountId, String format) {
+        Optional<TransferLogExportFormat> exportFormat = TransferLogExportFormat.of(format);
+        if (!exportFormat.isPresent())
+            return completedFuture(badRequest("format must be ndjson or csv"));
+
+        // read up front, the request context is not around on the database threads
+        String acceptEncoding = request().getHeader(ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        return databaseContext.withTransaction(true, () -> customerDao.ownsAccount(customerId, accountId))
+                .thenApply(owned -> {
+                    if (!owned)
+                        return internalServerError("account not found");
+
+                    // a thread is taken now, once the body is streaming a busy pool could only cut it short
+                    Optional<ExportExecutionContext.Reservation> reservation = exportContext.reserve();
+                    if (!reservation.isPresent())
+                        return status(SERVICE_UNAVAILABLE, "Server busy, please retry");
+
+                    // rows are written as the client reads them, a slow client holds up the export rather than the heap
+                    Source<ByteString, ?> body = StreamConverters.asOutputStream().mapMaterializedValue(out -> {
+                        export(out, gzip, accountId, exportFormat.get(), reservation.get());
+                        return out;
+                    });
+
+                    Result result = ok().chunked(body).as(exportFormat.get().getContentType());
+                    return gzip ? result.withHeader(CONTENT_ENCODING, "gzip") : result;
+                });
+    }
+
+    public CompletionStage<Result> getStatement(Long customerId, Long accountId, String from, String to) {
+        LocalDate toDate;
+        LocalDate fromDate;
+        try {
+            toDate = to.isEmpty() ? LocalDate.now(ZoneOffset.UTC) : LocalDate.parse(to);
+            fromDate = from.isEmpty() ? toDate.minusDays(DEFAULT_STATEMENT_DAYS - 1) : LocalDate.parse(from);
+        } catch (DateTimeParseException e) {
+            return completedFuture(badRequest("from and to must be dates like 2020-01-31"));
+        }
+
+        if (fromDate.isAfter(toDate))
+            return completedFuture(badRequest("from must not be after to"));
+
+        // read from the daily rollups only, the cost follows the days covered rather than the transfers made or the
+        // age of the account
+        return databaseContext.withTransaction(true, () -> {
+            if (!customerDao.ownsAccount(customerId, accountId))
+                return internalServerError("account not found");
+
+            List<AccountDailyRollup> rollups = rollupDao.getRollups(accountId, fromDate, toDate);
+            return ok(toJson(AccountStatement.of(accountId, fromDate, toDate, rollups)));
+        });
     }
 
-    @Transactional(readOnly = true)
-    public Result getAccounts(Long customerId) {
-        Optional<Customer> customer = customerDao.getCustomerById(customerId);
-        return customer.map(c -> ok(toJson(c))).orElseGet(() -> internalServerError("customer not found"));
+    public CompletionStage<Result> getAccounts(Long customerId) {
+        // read up front, the request context is not around on the database threads
+        String ifNoneMatch = request().getHeader(IF_NONE_MATCH);
+
+        Optional<CustomerAccountsCache.Entry> cached = accountsCache.get(customerId);
+        if (cached.isPresent())
+            return completedFuture(accountsResult(cached.get(), ifNoneMatch));
+
+        // serialised inside the transaction, the accounts are loaded lazily
+        return databaseContext.withTransaction(true, () -> accountsCache
+                .load(customerId, () -> customerDao.getCustomerById(customerId))
+                .map(entry -> accountsResult(entry, ifNoneMatch))
+                .orElseGet(() -> internalServerError("customer not found")));
     }
 
-    @Transactional
-    public Result onboard() {
+    public CompletionStage<Result> onboard() {
         final JsonNode requestBodyJson = request().body().asJson();
 
         if (requestBodyJson == null)
-            return Results.badRequest("onboard request cannot be empty");
+            return completedFuture(Results.badRequest("onboard request cannot be empty"));
 
         CustomerOnboardRequest customerOnboardRequest = JsonUtil.parseJson(requestBodyJson, CustomerOnboardRequest.class);
 
+        return databaseContext.withTransaction(() -> {
+            try {
+                Customer customer = customerOnboardRequest.buildRequest();
+                customerDao.onboardCustomer(customer);
+                accountsCache.invalidateCustomerOnCompletion(customer.getId());
+                return ok(toJson("customer account created"));
+            } catch (Exception e) {
+                return internalServerError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Newline delimited onboard requests, read from the body as it arrives. Reading and parsing wait on the client,
+     * so they run on the blocking io pool; only the chunk commits go to the database threads.
+     */
+    @BodyParser.Of(InputStreamBodyParser.class)
+    public CompletionStage<Result> onboardBulk() {
+        InputStream body = request().body().as(InputStream.class);
+
         try {
-            customerDao.onboardCustomer(customerOnboardRequest.buildRequest());
-            return ok(toJson("customer account created"));
-        } catch (Exception e) {
-            return internalServerError(e.getMessage());
+            return CompletableFuture.supplyAsync(() -> onboardingService.onboardAll(body), blockingIoContext)
+                    .thenApply(result -> ok(toJson(result)));
+        } catch (RejectedExecutionException e) {
+            // never to be read, closing it cancels the upload instead of leaving it stalled
+            closeQuietly(body);
+            return completedFuture(status(SERVICE_UNAVAILABLE, "Server busy, please retry"));
         }
     }
+
+    private static Result accountsResult(CustomerAccountsCache.Entry entry, String ifNoneMatch) {
+        if (entry.matches(ifNoneMatch))
+            return status(NOT_MODIFIED).withHeader(ETAG, entry.getEtag());
+        return ok(entry.getJson()).as("application/json").withHeader(ETAG, entry.getEtag());
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            Logger.warn("Failed to close the request body", e);
+        }
+    }
+
+    private void export(OutputStream out, boolean gzip, Long accountId, TransferLogExportFormat format,
+                        ExportExecutionContext.Reservation reservation) {
+        reservation.withTransaction(() -> {
+            try (OutputStream stream = new BufferedOutputStream(
+                    gzip ? new GZIPOutputStream(out, EXPORT_BUFFER_SIZE) : out, EXPORT_BUFFER_SIZE)) {
+                format.writeHeader(stream);
+                return customerDao.exportTransferLogs(accountId, log -> format.write(stream, log));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((count, error) -> {
+            if (error == null) {
+                Logger.info("Exported {} transfer logs of account={}", count, accountId);
+                return;
+            }
+
+            // the response is already under way, all that is left is to cut it short
+            Logger.error("Export of transfer logs of account=" + accountId + " failed", error);
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // best effort
+            }
+        });
+    }
 }
@@ -0,0 +1,56 @@
+package controllers;
+
+import beans.request.ScheduledTransferRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.TransferScheduler;
+import utils.DatabaseExecutionContext;
+import utils.JsonUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static play.libs.Json.toJson;
+
+public class ScheduledTransferController extends Controller {
+    private final TransferScheduler transferScheduler;
+    private final DatabaseExecutionContext databaseContext;
+
+    @Inject
+    public ScheduledTransferController(TransferScheduler transferScheduler, DatabaseExecutionContext databaseContext) {
+        this.transferScheduler = transferScheduler;
+        this.databaseContext = databaseContext;
+    }
+
+    public CompletionStage<Result> schedule() {
+        final JsonNode requestBodyJson = request().body().asJson();
+
+        if (requestBodyJson == null)
+            return completedFuture(Results.badRequest("Scheduled transfer request cannot be empty"));
+
+        ScheduledTransferRequest scheduledTransferRequest =
+                JsonUtil.parseJson(requestBodyJson, ScheduledTransferRequest.class);
+
+        // the scheduler runs its own transaction, it has to commit before the schedule is armed
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return ok(toJson(transferScheduler.schedule(scheduledTransferRequest)));
+            } catch (Exception e) {
+                return internalServerError("Scheduling failed - " + e);
+            }
+        }, databaseContext);
+    }
+
+    public CompletionStage<Result> cancel(Long scheduledTransferId) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!transferScheduler.cancel(scheduledTransferId))
+                return internalServerError("scheduled transfer not found");
+
+            return ok(toJson("scheduled transfer cancelled"));
+        }, databaseContext);
+    }
+}
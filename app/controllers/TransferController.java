@@ -1,37 +1,138 @@
 package controllers;
 
+import beans.request.BatchTransferRequest;
+import beans.request.MultiLegTransferRequest;
 import beans.request.TransferRequestBean;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
-import play.db.jpa.Transactional;
+import exception.IdempotencyKeyInProgress;
+import exception.IdempotencyKeyMismatch;
+import play.Configuration;
+import play.http.HttpErrorHandler;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.Results;
+import services.IdempotencyStore;
 import services.TransferService;
+import utils.DatabaseExecutionContext;
 import utils.JsonUtil;
+import utils.RequestHash;
+
+import java.util.concurrent.CompletionStage;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static play.libs.Json.toJson;
 
 public class TransferController extends Controller {
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final TransferService transferService;
+    private final DatabaseExecutionContext databaseContext;
+    private final IdempotencyStore idempotencyStore;
 
     @Inject
-    public TransferController(TransferService transferService) {
+    public TransferController(TransferService transferService, DatabaseExecutionContext databaseContext,
+                              IdempotencyStore idempotencyStore) {
         this.transferService = transferService;
+        this.databaseContext = databaseContext;
+        this.idempotencyStore = idempotencyStore;
     }
 
-    @Transactional
-    public Result transfer() {
+    public CompletionStage<Result> transfer() {
         final JsonNode requestBodyJson = request().body().asJson();
 
         if (requestBodyJson == null)
-            return Results.badRequest("Transfer request cannot be empty");
+            return completedFuture(Results.badRequest("Transfer request cannot be empty"));
 
         TransferRequestBean transferRequestBean = JsonUtil.parseJson(requestBodyJson, TransferRequestBean.class);
+        String idempotencyKey = request().getHeader(IDEMPOTENCY_KEY_HEADER);
+
+        if (idempotencyKey == null)
+            return doTransfer(transferRequestBean, null);
 
+        // a retry of a known key gets the first outcome without touching the database
         try {
-            transferService.transfer(transferRequestBean);
-            return ok("Transfer success");
-        } catch (Exception e) {
-            return internalServerError("Transfer failed - " + e);
+            return idempotencyStore.execute(idempotencyKey, RequestHash.of(transferRequestBean),
+                    () -> doTransfer(transferRequestBean, idempotencyKey),
+                    TransferController::isRepeatable);
+        } catch (IdempotencyKeyMismatch e) {
+            return completedFuture(status(UNPROCESSABLE_ENTITY, "Transfer failed - " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Whether a retry would get the same answer: successes and client errors, but not failures that may clear, such
+     * as busy accounts, server errors or a key still held by the first attempt. A key sent with another request is
+     * not kept either, the key belongs to the first request.
+     */
+    private static boolean isRepeatable(Result result) {
+        int status = result.status();
+        return status < 300 || status >= 400 && status < 500 && status != CONFLICT && status != UNPROCESSABLE_ENTITY;
+    }
+
+    @BodyParser.Of(BatchJson.class)
+    public CompletionStage<Result> batchTransfer() {
+        final JsonNode requestBodyJson = request().body().asJson();
+
+        if (requestBodyJson == null)
+            return completedFuture(Results.badRequest("Batch transfer request cannot be empty"));
+
+        BatchTransferRequest batchTransferRequest = JsonUtil.parseJson(requestBodyJson, BatchTransferRequest.class);
+
+        return databaseContext.withTransaction(() -> {
+            try {
+                return ok(toJson(transferService.transferBatch(batchTransferRequest)));
+            } catch (Exception e) {
+                return internalServerError("Batch transfer failed - " + e);
+            }
+        });
+    }
+
+    public CompletionStage<Result> multiLegTransfer() {
+        final JsonNode requestBodyJson = request().body().asJson();
+
+        if (requestBodyJson == null)
+            return completedFuture(Results.badRequest("Multi-leg transfer request cannot be empty"));
+
+        MultiLegTransferRequest multiLegTransferRequest = JsonUtil.parseJson(requestBodyJson, MultiLegTransferRequest.class);
+
+        return databaseContext.withTransaction(() -> {
+            try {
+                if (!transferService.transferMultiLeg(multiLegTransferRequest))
+                    return status(SERVICE_UNAVAILABLE, "Transfer failed - accounts are busy, please retry");
+
+                return ok("Transfer success");
+            } catch (Exception e) {
+                return internalServerError("Transfer failed - " + e);
+            }
+        });
+    }
+
+    private CompletionStage<Result> doTransfer(TransferRequestBean transferRequestBean, String idempotencyKey) {
+        return databaseContext.withTransaction(() -> {
+            try {
+                if (!transferService.transfer(transferRequestBean, idempotencyKey))
+                    return status(SERVICE_UNAVAILABLE, "Transfer failed - accounts are busy, please retry");
+
+                return ok("Transfer success");
+            } catch (IdempotencyKeyMismatch e) {
+                return status(UNPROCESSABLE_ENTITY, "Transfer failed - " + e.getMessage());
+            } catch (IdempotencyKeyInProgress e) {
+                return status(CONFLICT, "Transfer failed - " + e.getMessage());
+            } catch (Exception e) {
+                return internalServerError("Transfer failed - " + e);
+            }
+        });
+    }
+
+    /**
+     * Json parser allowing batch bodies larger than the default memory buffer.
+     */
+    public static class BatchJson extends BodyParser.Json {
+        @Inject
+        public BatchJson(Configuration configuration, HttpErrorHandler errorHandler) {
+            super(configuration.getBytes("transfer.batch.max-body-size", 16L * 1024 * 1024), errorHandler);
         }
     }
 }
@@ -1,16 +1,71 @@
 package dao;
 
+import beans.response.AccountCacheStats;
 import com.google.inject.ImplementedBy;
-import dao.impl.AccountDaoImpl;
+import dao.impl.CachingAccountDao;
 import models.Account;
 import play.db.jpa.JPAApi;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-@ImplementedBy(AccountDaoImpl.class)
+@ImplementedBy(CachingAccountDao.class)
 public interface AccountDao {
 
     JPAApi jpaApi();
 
+    /**
+     * May be answered from a cache, the account returned is a detached copy and needs no transaction.
+     */
     Optional<Account> getAccount(Long accountId);
+
+    /**
+     * Reads the account from the database on the caller's transaction, never from a cache.
+     */
+    Optional<Account> readAccount(Long accountId);
+
+    List<Account> getAccounts(Collection<Long> accountIds);
+
+    /**
+     * Like {@link #getAccounts}, but may be answered from a cache: the accounts are detached copies, fit for checking
+     * ids and currencies, never for changing balances.
+     */
+    default List<Account> lookupAccounts(Collection<Long> accountIds) {
+        return getAccounts(accountIds);
+    }
+
+    List<Account> getAllAccounts();
+
+    /**
+     * Adds delta to the stored balance in place, without reading the row first.
+     */
+    void adjustBalance(Long accountId, BigDecimal delta);
+
+    /**
+     * Takes amount off the stored balance in a single conditional update, returning false when the balance
+     * does not cover it.
+     */
+    boolean debitIfSufficient(Long accountId, BigDecimal amount);
+
+    /**
+     * Hands the state of accounts changed through their entities to the account cache. Called once the transaction
+     * changing them committed, while their locks are still held.
+     */
+    default void committed(Collection<Account> accounts) {
+    }
+
+    /**
+     * Drops cached copies of accounts changed in ways the cache cannot follow.
+     */
+    default void evict(Collection<Long> accountIds) {
+    }
+
+    /**
+     * Statistics of the account cache, none when accounts are not cached.
+     */
+    default Optional<AccountCacheStats> getCacheStats() {
+        return Optional.empty();
+    }
 }
@@ -0,0 +1,28 @@
+package dao;
+
+import com.google.inject.ImplementedBy;
+import dao.impl.AccountRollupDaoImpl;
+import models.AccountDailyRollup;
+import play.db.jpa.JPAApi;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@ImplementedBy(AccountRollupDaoImpl.class)
+public interface AccountRollupDao {
+
+    JPAApi jpaApi();
+
+    /**
+     * Adds the deltas onto the stored rollups in place, creating the missing ones, on the caller's transaction.
+     * Deltas for the same account and day are summed first; the closing balances of the later days move with them.
+     */
+    void add(Collection<AccountDailyRollup> deltas);
+
+    /**
+     * Rollups of the account between the given days, both included, oldest first. The last rollup before the range
+     * comes first when there is one, its closing balance is the balance the range opens with.
+     */
+    List<AccountDailyRollup> getRollups(Long accountId, LocalDate from, LocalDate to);
+}
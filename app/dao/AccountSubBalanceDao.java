@@ -0,0 +1,35 @@
+package dao;
+
+import com.google.inject.ImplementedBy;
+import dao.impl.AccountSubBalanceDaoImpl;
+import play.db.jpa.JPAApi;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@ImplementedBy(AccountSubBalanceDaoImpl.class)
+public interface AccountSubBalanceDao {
+
+    JPAApi jpaApi();
+
+    /**
+     * Ids of the accounts that have sub-balances.
+     */
+    List<Long> getHotAccountIds();
+
+    /**
+     * Creates the missing sub-balances 0 to slots - 1 of the account, each starting at zero.
+     */
+    void createSubBalances(Long accountId, int slots);
+
+    /**
+     * Adds amount to one sub-balance in place, without reading the row first.
+     */
+    void credit(Long accountId, int slot, BigDecimal amount);
+
+    /**
+     * Takes everything currently held in the account's sub-balances off them and returns the total. Credits landing
+     * meanwhile are kept, each sub-balance is only reduced by the amount read from it.
+     */
+    BigDecimal drain(Long accountId);
+}
@@ -5,9 +5,11 @@ import dao.impl.CustomerDaoImpl;
 import models.Customer;
 import models.TransferLog;
 import play.db.jpa.JPAApi;
+import utils.TransferLogCursor;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @ImplementedBy(CustomerDaoImpl.class)
 public interface CustomerDao {
@@ -18,5 +20,23 @@ public interface CustomerDao {
 
     void onboardCustomer(Customer customer);
 
-    List<TransferLog> getTransferLogs(Long customerId, Long accountId);
+    /**
+     * Persists the customers with their accounts on the caller's transaction. The inserts are flushed as JDBC
+     * batches and the persistence context is cleared afterwards, so a chunk leaves nothing behind in memory.
+     */
+    void onboardCustomers(List<Customer> customers);
+
+    /**
+     * Logs of the customer's account newest first, starting past the cursor when one is given.
+     */
+    List<TransferLog> getTransferLogs(Long customerId, Long accountId, TransferLogCursor after, int limit);
+
+    boolean ownsAccount(Long customerId, Long accountId);
+
+    /**
+     * Hands every log of the account to the sink newest first and returns how many there were. Rows are read through
+     * forward-only cursors outside the persistence context, so memory stays flat however long the history is. Runs
+     * on the caller's transaction.
+     */
+    long exportTransferLogs(Long accountId, Consumer<TransferLog> sink);
 }
@@ -0,0 +1,36 @@
+package dao;
+
+import com.google.inject.ImplementedBy;
+import dao.impl.ScheduledTransferDaoImpl;
+import models.ScheduledTransfer;
+import models.TransferLog;
+import play.db.jpa.JPAApi;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+@ImplementedBy(ScheduledTransferDaoImpl.class)
+public interface ScheduledTransferDao {
+
+    JPAApi jpaApi();
+
+    ScheduledTransfer save(ScheduledTransfer scheduledTransfer);
+
+    /**
+     * Active schedules with an id above afterId, in id order, at most limit of them.
+     */
+    List<ScheduledTransfer> getActiveSchedules(Long afterId, int limit);
+
+    /**
+     * Those of the given schedules that are still active and due at the given time.
+     */
+    List<ScheduledTransfer> getDueSchedules(Collection<Long> scheduledTransferIds, Date now);
+
+    /**
+     * Returns false when there is no active schedule with the id.
+     */
+    boolean cancel(Long scheduledTransferId);
+
+    void recordResult(Long scheduledTransferId, TransferLog.Status status);
+}
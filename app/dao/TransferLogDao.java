@@ -0,0 +1,28 @@
+package dao;
+
+import com.google.inject.ImplementedBy;
+import dao.impl.TransferLogDaoImpl;
+import models.IdempotencyKey;
+import models.TransferLog;
+import play.db.jpa.JPAApi;
+
+import java.util.Optional;
+
+@ImplementedBy(TransferLogDaoImpl.class)
+public interface TransferLogDao {
+
+    JPAApi jpaApi();
+
+    /**
+     * Claims the key for a request in a transaction of its own, so a concurrent claim sees it at once: the key is
+     * inserted PENDING, or a FAILED claim of the same request is taken over. A PENDING claim of the same request held
+     * past the claim timeout is settled COMPLETED when its transfer was logged completed, otherwise taken over too.
+     * Returns empty when the caller holds the claim, otherwise the claim already holding the key.
+     */
+    Optional<IdempotencyKey> claimIdempotencyKey(String idempotencyKey, String requestHash);
+
+    /**
+     * Records the outcome of a claim on the caller's transaction, so it commits along with the transfer.
+     */
+    void settleIdempotencyKey(String idempotencyKey, TransferLog.Status status);
+}
@@ -2,11 +2,16 @@ package dao.impl;
 
 import com.google.inject.Inject;
 import dao.AccountDao;
+import exception.NoAccountFoundException;
 import lombok.extern.slf4j.Slf4j;
 import models.Account;
 import play.db.jpa.JPAApi;
 
 import javax.persistence.NoResultException;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 @Slf4j
@@ -25,6 +30,11 @@ public class AccountDaoImpl implements AccountDao {
 
     @Override
     public Optional<Account> getAccount(Long accountId) {
+        return readAccount(accountId);
+    }
+
+    @Override
+    public Optional<Account> readAccount(Long accountId) {
         try {
             Account account = jpaApi.em().createQuery("select a from Account a where a.id = :accountId", Account.class)
                     .setParameter("accountId", accountId)
@@ -36,4 +46,41 @@ public class AccountDaoImpl implements AccountDao {
 
         return Optional.empty();
     }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        if (accountIds.isEmpty())
+            return Collections.emptyList();
+
+        return jpaApi.em().createQuery("select a from Account a where a.id in (:accountIds)", Account.class)
+                .setParameter("accountIds", accountIds)
+                .getResultList();
+    }
+
+    @Override
+    public List<Account> getAllAccounts() {
+        return jpaApi.em().createQuery("select a from Account a", Account.class).getResultList();
+    }
+
+    @Override
+    public void adjustBalance(Long accountId, BigDecimal delta) {
+        int updated = jpaApi.em().createQuery("update Account a set a.balance = a.balance + :delta," +
+                " a.version = a.version + 1, a.updatedAt = current_timestamp where a.id = :accountId")
+                .setParameter("delta", delta)
+                .setParameter("accountId", accountId)
+                .executeUpdate();
+
+        if (updated == 0)
+            throw new NoAccountFoundException("Account number not found = " + accountId);
+    }
+
+    @Override
+    public boolean debitIfSufficient(Long accountId, BigDecimal amount) {
+        return jpaApi.em().createQuery("update Account a set a.balance = a.balance - :amount," +
+                " a.version = a.version + 1, a.updatedAt = current_timestamp" +
+                " where a.id = :accountId and a.balance >= :amount")
+                .setParameter("amount", amount)
+                .setParameter("accountId", accountId)
+                .executeUpdate() == 1;
+    }
 }
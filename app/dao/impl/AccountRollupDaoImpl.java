@@ -0,0 +1,226 @@
+package dao.impl;
+
+import com.google.inject.Inject;
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
+import play.db.jpa.JPAApi;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class AccountRollupDaoImpl implements AccountRollupDao {
+    private static final String ADD = "update account_daily_rollups set inflow = inflow + ?, outflow = outflow + ?," +
+            " transfer_count = transfer_count + ?, adjustment = adjustment + ?," +
+            " closing_balance = closing_balance + ?, updated_at = ? where account_id = ? and rollup_date = ?";
+    // a late delta on an earlier day moves the closing balance of every day after it
+    private static final String CARRY = "update account_daily_rollups set closing_balance = closing_balance + ?," +
+            " updated_at = ? where account_id = ? and rollup_date > ?";
+    private static final String LOCK_PREVIOUS = "select id from account_daily_rollups" +
+            " where account_id = ? and rollup_date < ? order by rollup_date desc limit 1 for update";
+    // a new day opens with the closing balance of the day before it
+    private static final String CREATE = "insert into account_daily_rollups (id, account_id, rollup_date, inflow," +
+            " outflow, transfer_count, adjustment, closing_balance, created_at, updated_at)" +
+            " values (next value for hibernate_sequence, ?, ?, 0, 0, 0, 0, coalesce((select closing_balance" +
+            " from account_daily_rollups where account_id = ? and rollup_date < ? order by rollup_date desc limit 1)," +
+            " 0), ?, ?)";
+
+    private final JPAApi jpaApi;
+
+    @Inject
+    public AccountRollupDaoImpl(JPAApi jpaApi) {
+        this.jpaApi = jpaApi;
+    }
+
+    @Override
+    public JPAApi jpaApi() {
+        return this.jpaApi;
+    }
+
+    @Override
+    public void add(Collection<AccountDailyRollup> deltas) {
+        // summed per row and applied in key order, so concurrent writers lock the rows they share in the same order
+        Map<Pair<Long, LocalDate>, AccountDailyRollup> rows = new TreeMap<>(Comparator
+                .comparing((Pair<Long, LocalDate> key) -> key.getLeft())
+                .thenComparing(Pair::getRight));
+
+        for (AccountDailyRollup delta : deltas)
+            rows.merge(Pair.of(delta.getAccountId(), delta.getDate()), delta, AccountRollupDaoImpl::sum);
+
+        if (rows.isEmpty())
+            return;
+
+        List<AccountDailyRollup> ordered = new ArrayList<>(rows.values());
+
+        // one batch of updates, one of inserts for the rows that did not exist yet and one more update for those,
+        // however many rows there are. The balance carried to later days goes before any new row copies it.
+        jpaApi.em().unwrap(Session.class).doWork(connection -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+
+            try (PreparedStatement add = connection.prepareStatement(ADD);
+                 PreparedStatement carry = connection.prepareStatement(CARRY);
+                 PreparedStatement create = connection.prepareStatement(CREATE)) {
+                int[] updateCounts = apply(add, ordered, now);
+                carry(carry, ordered, updateCounts, now);
+
+                List<AccountDailyRollup> missing = missing(ordered, updateCounts);
+                if (missing.isEmpty())
+                    return;
+
+                SQLException createFailure = create(connection, create, missing, now);
+                int[] createdCounts = apply(add, missing, now);
+                carry(carry, missing, createdCounts, now);
+
+                List<AccountDailyRollup> failed = missing(missing, createdCounts);
+                if (!failed.isEmpty())
+                    throw new IllegalStateException("Failed to create the rollup of account = " +
+                            failed.get(0).getAccountId() + " on " + failed.get(0).getDate(), createFailure);
+            }
+        });
+    }
+
+    @Override
+    public List<AccountDailyRollup> getRollups(Long accountId, LocalDate from, LocalDate to) {
+        // two seeks on the (account_id, rollup_date) key, whatever the age of the account
+        List<AccountDailyRollup> rollups = new ArrayList<>(jpaApi.em().createQuery(
+                "select r from AccountDailyRollup r" +
+                " where r.accountId = :accountId and r.date < :from order by r.date desc", AccountDailyRollup.class)
+                .setParameter("accountId", accountId)
+                .setParameter("from", from)
+                .setMaxResults(1)
+                .getResultList());
+
+        rollups.addAll(jpaApi.em().createQuery("select r from AccountDailyRollup r" +
+                " where r.accountId = :accountId and r.date between :from and :to order by r.date",
+                AccountDailyRollup.class)
+                .setParameter("accountId", accountId)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .getResultList());
+        return rollups;
+    }
+
+    private static int[] apply(PreparedStatement add, List<AccountDailyRollup> rows, Timestamp now)
+            throws SQLException {
+        for (AccountDailyRollup row : rows) {
+            add.setBigDecimal(1, row.getInflow());
+            add.setBigDecimal(2, row.getOutflow());
+            add.setLong(3, row.getTransferCount());
+            add.setBigDecimal(4, row.getAdjustment());
+            add.setBigDecimal(5, row.getNet());
+            add.setTimestamp(6, now);
+            add.setLong(7, row.getAccountId());
+            add.setDate(8, Date.valueOf(row.getDate()));
+            add.addBatch();
+        }
+        return add.executeBatch();
+    }
+
+    /**
+     * Moves the closing balance of the days after the rows that were applied, usually none as deltas land on today.
+     */
+    private static void carry(PreparedStatement carry, List<AccountDailyRollup> rows, int[] updateCounts,
+                              Timestamp now) throws SQLException {
+        boolean batched = false;
+        for (int i = 0; i < rows.size(); i++) {
+            AccountDailyRollup row = rows.get(i);
+            if (updateCounts[i] == 0 || row.getNet().signum() == 0)
+                continue;
+
+            carry.setBigDecimal(1, row.getNet());
+            carry.setTimestamp(2, now);
+            carry.setLong(3, row.getAccountId());
+            carry.setDate(4, Date.valueOf(row.getDate()));
+            carry.addBatch();
+            batched = true;
+        }
+
+        if (batched)
+            carry.executeBatch();
+    }
+
+    private static List<AccountDailyRollup> missing(List<AccountDailyRollup> rows, int[] updateCounts) {
+        List<AccountDailyRollup> missing = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (updateCounts[i] == 0)
+                missing.add(rows.get(i));
+        }
+        return missing;
+    }
+
+    /**
+     * Creates the empty rows and returns the last failure if that did not work, which is fine when another writer
+     * created them first. They go in as one batch; when that fails they are created one at a time to get past the
+     * rows that exist by now. The savepoints keep a duplicate key from failing the whole transaction on databases
+     * that abort on any error.
+     *
+     * The day each new row takes its opening balance from is locked first, so a writer still adding to it either
+     * commits before the copy or waits and then carries its delta onto the new row.
+     */
+    private static SQLException create(Connection connection, PreparedStatement create, List<AccountDailyRollup> rows,
+                                       Timestamp now) throws SQLException {
+        try (PreparedStatement lock = connection.prepareStatement(LOCK_PREVIOUS)) {
+            for (AccountDailyRollup row : rows) {
+                lock.setLong(1, row.getAccountId());
+                lock.setDate(2, Date.valueOf(row.getDate()));
+                lock.executeQuery().close();
+            }
+        }
+
+        SQLException failure = createBatch(connection, create, rows, now);
+        if (failure == null || rows.size() == 1)
+            return failure;
+
+        for (AccountDailyRollup row : rows) {
+            SQLException rowFailure = createBatch(connection, create, Collections.singletonList(row), now);
+            if (rowFailure != null)
+                failure = rowFailure;
+        }
+        return failure;
+    }
+
+    private static SQLException createBatch(Connection connection, PreparedStatement create,
+                                            List<AccountDailyRollup> rows, Timestamp now) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            for (AccountDailyRollup row : rows) {
+                create.setLong(1, row.getAccountId());
+                create.setDate(2, Date.valueOf(row.getDate()));
+                create.setLong(3, row.getAccountId());
+                create.setDate(4, Date.valueOf(row.getDate()));
+                create.setTimestamp(5, now);
+                create.setTimestamp(6, now);
+                create.addBatch();
+            }
+            create.executeBatch();
+            connection.releaseSavepoint(savepoint);
+            return null;
+        } catch (SQLException e) {
+            create.clearBatch();
+            connection.rollback(savepoint);
+            return e;
+        }
+    }
+
+    private static AccountDailyRollup sum(AccountDailyRollup a, AccountDailyRollup b) {
+        return AccountDailyRollup.builder().accountId(a.getAccountId()).date(a.getDate())
+                .inflow(a.getInflow().add(b.getInflow()))
+                .outflow(a.getOutflow().add(b.getOutflow()))
+                .transferCount(a.getTransferCount() + b.getTransferCount())
+                .adjustment(a.getAdjustment().add(b.getAdjustment()))
+                .build();
+    }
+}
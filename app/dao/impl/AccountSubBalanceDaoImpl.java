@@ -0,0 +1,85 @@
+package dao.impl;
+
+import com.google.inject.Inject;
+import dao.AccountSubBalanceDao;
+import exception.NoAccountFoundException;
+import models.AccountSubBalance;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class AccountSubBalanceDaoImpl implements AccountSubBalanceDao {
+    private final JPAApi jpaApi;
+
+    @Inject
+    public AccountSubBalanceDaoImpl(JPAApi jpaApi) {
+        this.jpaApi = jpaApi;
+    }
+
+    @Override
+    public JPAApi jpaApi() {
+        return this.jpaApi;
+    }
+
+    @Override
+    public List<Long> getHotAccountIds() {
+        return jpaApi.em().createQuery("select distinct s.accountId from AccountSubBalance s", Long.class)
+                .getResultList();
+    }
+
+    @Override
+    public void createSubBalances(Long accountId, int slots) {
+        EntityManager em = jpaApi.em();
+        Set<Integer> existing = new HashSet<>(em.createQuery("select s.slot from AccountSubBalance s" +
+                " where s.accountId = :accountId", Integer.class)
+                .setParameter("accountId", accountId)
+                .getResultList());
+
+        for (int slot = 0; slot < slots; slot++) {
+            if (!existing.contains(slot))
+                em.persist(AccountSubBalance.builder().accountId(accountId).slot(slot).balance(BigDecimal.ZERO).build());
+        }
+    }
+
+    @Override
+    public void credit(Long accountId, int slot, BigDecimal amount) {
+        int updated = jpaApi.em().createQuery("update AccountSubBalance s set s.balance = s.balance + :amount" +
+                " where s.accountId = :accountId and s.slot = :slot")
+                .setParameter("amount", amount)
+                .setParameter("accountId", accountId)
+                .setParameter("slot", slot)
+                .executeUpdate();
+
+        if (updated == 0)
+            throw new NoAccountFoundException("Sub-balance " + slot + " not found for account = " + accountId);
+    }
+
+    @Override
+    public BigDecimal drain(Long accountId) {
+        EntityManager em = jpaApi.em();
+
+        // scalar rows, managed entities would hand back the values of an earlier drain in the same transaction
+        List<Object[]> subBalances = em.createQuery("select s.id, s.balance from AccountSubBalance s" +
+                " where s.accountId = :accountId and s.balance > 0", Object[].class)
+                .setParameter("accountId", accountId)
+                .getResultList();
+
+        BigDecimal drained = BigDecimal.ZERO;
+
+        for (Object[] subBalance : subBalances) {
+            BigDecimal amount = (BigDecimal) subBalance[1];
+
+            em.createQuery("update AccountSubBalance s set s.balance = s.balance - :amount where s.id = :id")
+                    .setParameter("amount", amount)
+                    .setParameter("id", subBalance[0])
+                    .executeUpdate();
+            drained = drained.add(amount);
+        }
+
+        return drained;
+    }
+}
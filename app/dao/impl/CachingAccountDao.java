@@ -0,0 +1,231 @@
+package dao.impl;
+
+import beans.response.AccountCacheStats;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import models.Account;
+import org.hibernate.Session;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+
+import javax.transaction.Synchronization;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * {@link AccountDaoImpl} with a bounded read-through cache in front of {@link #getAccount} and
+ * {@link #lookupAccounts}, the lookup of the accounts a transfer is validated against. A miss of getAccount is
+ * loaded in a read-only transaction of its own, and concurrent misses on the same account wait for that one load;
+ * a hit needs no transaction and never reaches the database. The least recently used accounts are evicted past
+ * max-size, and every entry expires ttl after it was stored.
+ *
+ * Transfers keep the cache current: engines changing accounts through their entities hand them over once
+ * committed, and accounts changed by bulk updates here are evicted when their transaction completes. An eviction
+ * does not stop a load already under way, so loads note the generation of the account before reading and an entry
+ * loaded before the latest change of its account is dropped when read. Change listeners hear of every account
+ * changed this way, for caches built on top of the accounts.
+ */
+@Singleton
+public class CachingAccountDao extends AccountDaoImpl {
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final LoadingCache<Long, Loaded> accounts;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final List<Consumer<Collection<Long>>> changeListeners = new CopyOnWriteArrayList<>();
+
+    @Inject
+    public CachingAccountDao(JPAApi jpaApi, Configuration configuration) {
+        this(jpaApi, configuration.getLong("account-cache.max-size", 10_000L),
+                configuration.getMilliseconds("account-cache.ttl", TimeUnit.MINUTES.toMillis(1)));
+    }
+
+    public CachingAccountDao(JPAApi jpaApi, long maxSize) {
+        this(jpaApi, maxSize, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    public CachingAccountDao(JPAApi jpaApi, long maxSize, long ttlMillis) {
+        super(jpaApi);
+
+        this.accounts = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(new CacheLoader<Long, Loaded>() {
+                    @Override
+                    public Loaded load(Long accountId) {
+                        long generation = generationOf(accountId);
+                        return new Loaded(jpaApi.withTransaction("default", true,
+                                em -> readAccount(accountId).map(Account::copy)), generation);
+                    }
+                });
+    }
+
+    @Override
+    public Optional<Account> getAccount(Long accountId) {
+        Loaded loaded;
+        try {
+            loaded = accounts.getUnchecked(accountId);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+
+        // unknown ids are not kept, the account may be onboarded any moment
+        if (!loaded.account.isPresent() || !isCurrent(accountId, loaded)) {
+            accounts.asMap().remove(accountId, loaded);
+
+            if (loaded.account.isPresent())
+                return jpaApi().withTransaction("default", true, em -> readAccount(accountId).map(Account::copy));
+        }
+
+        return loaded.account.map(Account::copy);
+    }
+
+    @Override
+    public List<Account> lookupAccounts(Collection<Long> accountIds) {
+        List<Account> found = new ArrayList<>(accountIds.size());
+        List<Long> missing = new ArrayList<>();
+
+        for (Long accountId : accountIds) {
+            Loaded loaded = accounts.getIfPresent(accountId);
+            if (loaded != null && loaded.account.isPresent() && isCurrent(accountId, loaded))
+                found.add(loaded.account.get().copy());
+            else
+                missing.add(accountId);
+        }
+
+        if (missing.isEmpty())
+            return found;
+
+        // misses are read together on the caller's transaction, and kept unless changed while being read
+        Map<Long, Long> generationsBefore = missing.stream()
+                .collect(Collectors.toMap(Function.identity(), this::generationOf, (a, b) -> a));
+
+        for (Account account : super.getAccounts(missing)) {
+            Account copy = account.copy();
+            store(account.getId(), copy, generationsBefore.get(account.getId()));
+            found.add(copy.copy());
+        }
+
+        return found;
+    }
+
+    @Override
+    public void adjustBalance(Long accountId, BigDecimal delta) {
+        super.adjustBalance(accountId, delta);
+        evictOnCompletion(accountId);
+    }
+
+    @Override
+    public boolean debitIfSufficient(Long accountId, BigDecimal amount) {
+        boolean debited = super.debitIfSufficient(accountId, amount);
+        if (debited)
+            evictOnCompletion(accountId);
+        return debited;
+    }
+
+    @Override
+    public void committed(Collection<Account> committedAccounts) {
+        committedAccounts.forEach(account -> {
+            // loads under way read the state before this one, moving the generation drops them
+            long generation = generations.incrementAndGet(stripeOf(account.getId()));
+            accounts.put(account.getId(), new Loaded(Optional.of(account.copy()), generation));
+        });
+        changed(committedAccounts.stream().map(Account::getId).collect(Collectors.toList()));
+    }
+
+    @Override
+    public void evict(Collection<Long> accountIds) {
+        accountIds.forEach(this::invalidate);
+        changed(accountIds);
+    }
+
+    @Override
+    public Optional<AccountCacheStats> getCacheStats() {
+        return Optional.of(getStats());
+    }
+
+    /**
+     * The listener is handed the ids of accounts whose committed state changed.
+     */
+    public void addChangeListener(Consumer<Collection<Long>> listener) {
+        changeListeners.add(listener);
+    }
+
+    public AccountCacheStats getStats() {
+        return AccountCacheStats.of(accounts.size(), accounts.stats());
+    }
+
+    private void changed(Collection<Long> accountIds) {
+        if (!accountIds.isEmpty())
+            changeListeners.forEach(listener -> listener.accept(accountIds));
+    }
+
+    private void invalidate(Long accountId) {
+        // the generation moves first, a load noting it after this point reads the changed account
+        generations.incrementAndGet(stripeOf(accountId));
+        accounts.invalidate(accountId);
+    }
+
+    private void store(Long accountId, Account account, long generation) {
+        Loaded loaded = new Loaded(Optional.of(account), generation);
+        accounts.put(accountId, loaded);
+
+        if (!isCurrent(accountId, loaded))
+            accounts.asMap().remove(accountId, loaded);
+    }
+
+    private boolean isCurrent(Long accountId, Loaded loaded) {
+        return loaded.generation == generationOf(accountId);
+    }
+
+    private long generationOf(Long accountId) {
+        return generations.get(stripeOf(accountId));
+    }
+
+    private static int stripeOf(Long accountId) {
+        return (int) ((accountId ^ (accountId >>> 32)) & (GENERATION_STRIPES - 1));
+    }
+
+    private void evictOnCompletion(Long accountId) {
+        // a reader may load the old balance until the update is visible, so it is evicted again once it is
+        invalidate(accountId);
+        jpaApi().em().unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidate(accountId);
+                changed(Collections.singletonList(accountId));
+            }
+        });
+    }
+
+    private static final class Loaded {
+        private final Optional<Account> account;
+        private final long generation;
+
+        private Loaded(Optional<Account> account, long generation) {
+            this.account = account;
+            this.generation = generation;
+        }
+    }
+}
@@ -1,26 +1,53 @@
 package dao.impl;
 
 import com.google.inject.Inject;
+import dao.AccountRollupDao;
 import dao.CustomerDao;
 import exception.NoAccountFoundException;
 import lombok.extern.slf4j.Slf4j;
+import models.AccountDailyRollup;
 import models.Customer;
 import models.TransferLog;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.jpa.QueryHints;
 import org.springframework.util.CollectionUtils;
 import play.db.jpa.JPAApi;
+import utils.TransferLogCursor;
 
+import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class CustomerDaoImpl implements CustomerDao {
+    private static final Comparator<TransferLog> NEWEST_FIRST = Comparator.comparing(TransferLog::getCreatedAt)
+            .thenComparing(TransferLog::getId).reversed();
+    private static final int EXPORT_FETCH_SIZE = 500;
+    private static final String SENT = "tl.fromAccountId = :accountId";
+    // a rejected transfer to the same account is logged with it on both sides, only the sent side returns it
+    private static final String RECEIVED = "tl.toAccountId = :accountId" +
+            " and (tl.fromAccountId is null or tl.fromAccountId <> :accountId)";
 
     private final JPAApi jpaApi;
+    private final AccountRollupDao rollupDao;
 
     @Inject
-    public CustomerDaoImpl(JPAApi jpaApi) {
+    public CustomerDaoImpl(JPAApi jpaApi, AccountRollupDao rollupDao) {
         this.jpaApi = jpaApi;
+        this.rollupDao = rollupDao;
     }
 
     @Override
@@ -31,9 +58,12 @@ public class CustomerDaoImpl implements CustomerDao {
     @Override
     public Optional<Customer> getCustomerById(Long customerId) {
         try {
-            Customer customer = jpaApi.em().createQuery("select c from Customer c join Account a on c.id = a.customerId" +
+            // accounts fetched in the same statement, the distinct folds the row per account back into one customer
+            // in memory without sending it to the database
+            Customer customer = jpaApi.em().createQuery("select distinct c from Customer c join fetch c.accounts" +
                     " where c.id = :customerId", Customer.class)
                     .setParameter("customerId", customerId)
+                    .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
                     .getSingleResult();
 
             return Optional.ofNullable(customer);
@@ -46,19 +76,136 @@ public class CustomerDaoImpl implements CustomerDao {
 
     @Override
     public void onboardCustomer(final Customer customer) {
-        if (CollectionUtils.isEmpty(customer.getAccounts()))
-            throw new NoAccountFoundException("Trying to create customer with no account information");
+        onboard(Collections.singletonList(customer));
+    }
+
+    @Override
+    public void onboardCustomers(List<Customer> customers) {
+        onboard(customers);
 
-        jpaApi.em().persist(customer);
+        // hands the batched inserts to the database now, then lets go of the entities
+        EntityManager em = jpaApi.em();
+        em.flush();
+        em.clear();
     }
 
     @Override
-    public List<TransferLog> getTransferLogs(Long customerId, Long accountId) {
-        return jpaApi.em().createQuery("select tl from TransferLog tl" +
-                " join Account a on tl.fromAccountId = a.id or tl.toAccountId = a.id" +
-                " join Customer c on c.id = a.customerId where a.id = :accountId and c.id = :customerId", TransferLog.class)
+    public List<TransferLog> getTransferLogs(Long customerId, Long accountId, TransferLogCursor after, int limit) {
+        // ownership on the primary key, then one seek per side of the transfer instead of an or-join over the table
+        if (!ownsAccount(customerId, accountId))
+            return Collections.emptyList();
+
+        List<TransferLog> sent = seekTransferLogs(SENT, accountId, after, limit);
+        List<TransferLog> received = seekTransferLogs(RECEIVED, accountId, after, limit);
+
+        // both sides come newest first and share no log
+        List<TransferLog> merged = new ArrayList<>(Math.min(limit, sent.size() + received.size()));
+        int i = 0, j = 0;
+        while (merged.size() < limit && (i < sent.size() || j < received.size())) {
+            if (j == received.size() || (i < sent.size() && NEWEST_FIRST.compare(sent.get(i), received.get(j)) <= 0))
+                merged.add(sent.get(i++));
+            else
+                merged.add(received.get(j++));
+        }
+        return merged;
+    }
+
+    @Override
+    public boolean ownsAccount(Long customerId, Long accountId) {
+        return jpaApi.em().createQuery("select count(a) from Account a" +
+                " where a.id = :accountId and a.customerId = :customerId", Long.class)
                 .setParameter("accountId", accountId)
                 .setParameter("customerId", customerId)
-                .getResultList();
+                .getSingleResult() > 0;
+    }
+
+    @Override
+    public long exportTransferLogs(Long accountId, Consumer<TransferLog> sink) {
+        Session session = jpaApi.em().unwrap(Session.class);
+
+        // a stateless session on the transaction's connection keeps no reference to the rows it hands out
+        return session.doReturningWork(connection -> {
+            StatelessSession stateless = session.getSessionFactory().openStatelessSession(connection);
+            ScrollableResults sent = null;
+            ScrollableResults received = null;
+
+            try {
+                sent = scrollTransferLogs(stateless, SENT, accountId);
+                received = scrollTransferLogs(stateless, RECEIVED, accountId);
+
+                TransferLog nextSent = next(sent);
+                TransferLog nextReceived = next(received);
+                long count = 0;
+
+                while (nextSent != null || nextReceived != null) {
+                    boolean sentFirst = nextReceived == null
+                            || (nextSent != null && NEWEST_FIRST.compare(nextSent, nextReceived) <= 0);
+                    if (sentFirst) {
+                        sink.accept(nextSent);
+                        nextSent = next(sent);
+                    } else {
+                        sink.accept(nextReceived);
+                        nextReceived = next(received);
+                    }
+                    count++;
+                }
+                return count;
+            } finally {
+                if (sent != null)
+                    sent.close();
+                if (received != null)
+                    received.close();
+                stateless.close();
+            }
+        });
+    }
+
+    private static ScrollableResults scrollTransferLogs(StatelessSession session, String side, Long accountId) {
+        return session.createQuery("select tl from TransferLog tl where " + side +
+                " order by tl.createdAt desc, tl.id desc", TransferLog.class)
+                .setParameter("accountId", accountId)
+                .setFetchSize(EXPORT_FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    private static TransferLog next(ScrollableResults results) {
+        return results.next() ? (TransferLog) results.get(0) : null;
+    }
+
+    private void onboard(List<Customer> customers) {
+        for (Customer customer : customers) {
+            if (CollectionUtils.isEmpty(customer.getAccounts()))
+                throw new NoAccountFoundException("Trying to create customer with no account information");
+        }
+
+        EntityManager em = jpaApi.em();
+        customers.forEach(em::persist);
+
+        // opening balances start the running balance of the daily rollups
+        Date now = new Date();
+        rollupDao.add(customers.stream()
+                .flatMap(customer -> customer.getAccounts().stream())
+                .map(account -> AccountDailyRollup.ofAdjustment(account.getId(), now,
+                        Optional.ofNullable(account.getBalance()).orElse(BigDecimal.ZERO)))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Keyset page of the logs on one side of the transfer, served by the (account, created_at, id) index of that side
+     * so any page costs the same as the first.
+     */
+    private List<TransferLog> seekTransferLogs(String side, Long accountId, TransferLogCursor after, int limit) {
+        TypedQuery<TransferLog> query = jpaApi.em().createQuery("select tl from TransferLog tl where " + side +
+                (after == null ? "" :
+                        " and (tl.createdAt < :createdAt or (tl.createdAt = :createdAt and tl.id < :id))") +
+                " order by tl.createdAt desc, tl.id desc", TransferLog.class)
+                .setParameter("accountId", accountId);
+
+        if (after != null)
+            query.setParameter("createdAt", after.getCreatedAt(), TemporalType.TIMESTAMP)
+                    .setParameter("id", after.getId());
+
+        return query.setMaxResults(limit).getResultList();
     }
 }
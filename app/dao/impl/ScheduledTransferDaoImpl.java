@@ -0,0 +1,75 @@
+package dao.impl;
+
+import com.google.inject.Inject;
+import dao.ScheduledTransferDao;
+import models.ScheduledTransfer;
+import models.TransferLog;
+import play.db.jpa.JPAApi;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class ScheduledTransferDaoImpl implements ScheduledTransferDao {
+    private final JPAApi jpaApi;
+
+    @Inject
+    public ScheduledTransferDaoImpl(JPAApi jpaApi) {
+        this.jpaApi = jpaApi;
+    }
+
+    @Override
+    public JPAApi jpaApi() {
+        return this.jpaApi;
+    }
+
+    @Override
+    public ScheduledTransfer save(ScheduledTransfer scheduledTransfer) {
+        jpaApi.em().persist(scheduledTransfer);
+        return scheduledTransfer;
+    }
+
+    @Override
+    public List<ScheduledTransfer> getActiveSchedules(Long afterId, int limit) {
+        return jpaApi.em().createQuery("select s from ScheduledTransfer s" +
+                " where s.status = :status and s.id > :afterId order by s.id", ScheduledTransfer.class)
+                .setParameter("status", ScheduledTransfer.Status.ACTIVE)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public List<ScheduledTransfer> getDueSchedules(Collection<Long> scheduledTransferIds, Date now) {
+        if (scheduledTransferIds.isEmpty())
+            return Collections.emptyList();
+
+        return jpaApi.em().createQuery("select s from ScheduledTransfer s" +
+                " where s.id in (:ids) and s.status = :status and s.nextRunAt <= :now order by s.id",
+                ScheduledTransfer.class)
+                .setParameter("ids", scheduledTransferIds)
+                .setParameter("status", ScheduledTransfer.Status.ACTIVE)
+                .setParameter("now", now)
+                .getResultList();
+    }
+
+    @Override
+    public boolean cancel(Long scheduledTransferId) {
+        return jpaApi.em().createQuery("update ScheduledTransfer s set s.status = :cancelled," +
+                " s.updatedAt = current_timestamp where s.id = :id and s.status = :active")
+                .setParameter("cancelled", ScheduledTransfer.Status.CANCELLED)
+                .setParameter("active", ScheduledTransfer.Status.ACTIVE)
+                .setParameter("id", scheduledTransferId)
+                .executeUpdate() == 1;
+    }
+
+    @Override
+    public void recordResult(Long scheduledTransferId, TransferLog.Status status) {
+        jpaApi.em().createQuery("update ScheduledTransfer s set s.lastStatus = :status," +
+                " s.updatedAt = current_timestamp where s.id = :id")
+                .setParameter("status", status)
+                .setParameter("id", scheduledTransferId)
+                .executeUpdate();
+    }
+}
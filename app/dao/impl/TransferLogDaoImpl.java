@@ -0,0 +1,130 @@
+package dao.impl;
+
+import com.google.inject.Inject;
+import dao.TransferLogDao;
+import models.IdempotencyKey;
+import models.TransferLog;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+public class TransferLogDaoImpl implements TransferLogDao {
+    private final JPAApi jpaApi;
+    private final long claimTimeoutMillis;
+
+    @Inject
+    public TransferLogDaoImpl(JPAApi jpaApi, Configuration configuration) {
+        this(jpaApi, configuration.getMilliseconds("transfer.idempotency.claim-timeout", TimeUnit.MINUTES.toMillis(5)));
+    }
+
+    public TransferLogDaoImpl(JPAApi jpaApi, long claimTimeoutMillis) {
+        this.jpaApi = jpaApi;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+    }
+
+    @Override
+    public JPAApi jpaApi() {
+        return this.jpaApi;
+    }
+
+    @Override
+    public Optional<IdempotencyKey> claimIdempotencyKey(String idempotencyKey, String requestHash) {
+        boolean inserted = jpaApi.withTransaction("default", false, em -> {
+            try {
+                em.persist(IdempotencyKey.builder()
+                        .idempotencyKey(idempotencyKey)
+                        .requestHash(requestHash)
+                        .status(TransferLog.Status.PENDING)
+                        .claimedAt(new Date()).build());
+                em.flush();
+                return true;
+            } catch (PersistenceException e) {
+                // the primary key is taken, the transaction is rolled back
+                return false;
+            }
+        });
+
+        if (inserted)
+            return Optional.empty();
+
+        return jpaApi.withTransaction("default", false, em -> {
+            int takenOver = em.createQuery("update IdempotencyKey k set k.status = :pending, k.claimedAt = :now," +
+                    " k.updatedAt = :now" +
+                    " where k.idempotencyKey = :idempotencyKey and k.requestHash = :requestHash and k.status = :failed")
+                    .setParameter("pending", TransferLog.Status.PENDING)
+                    .setParameter("idempotencyKey", idempotencyKey)
+                    .setParameter("requestHash", requestHash)
+                    .setParameter("failed", TransferLog.Status.FAILED)
+                    .setParameter("now", new Date())
+                    .executeUpdate();
+
+            if (takenOver == 1)
+                return Optional.empty();
+
+            IdempotencyKey holder = Optional.ofNullable(em.find(IdempotencyKey.class, idempotencyKey))
+                    .orElseThrow(() -> new IllegalStateException("Idempotency key " + idempotencyKey
+                            + " could not be claimed"));
+
+            if (isAbandoned(holder, requestHash))
+                return takeOverAbandoned(em, holder);
+
+            return Optional.of(holder);
+        });
+    }
+
+    /**
+     * A PENDING claim of the same request held past the timeout, left behind by an attempt whose settle never
+     * committed.
+     */
+    private boolean isAbandoned(IdempotencyKey holder, String requestHash) {
+        return holder.getStatus() == TransferLog.Status.PENDING
+                && holder.getRequestHash().equals(requestHash)
+                && holder.getClaimedAt() != null
+                && holder.getClaimedAt().getTime() < System.currentTimeMillis() - claimTimeoutMillis;
+    }
+
+    /**
+     * Settles an abandoned claim COMPLETED when its transfer was logged completed, otherwise hands it to the caller.
+     * Both are guarded by the claim time read, so of two retries racing for the claim only one takes it over.
+     */
+    private Optional<IdempotencyKey> takeOverAbandoned(EntityManager em, IdempotencyKey holder) {
+        long completedLogs = em.createQuery("select count(tl) from TransferLog tl" +
+                " where tl.idempotencyKey = :idempotencyKey and tl.status = :completed", Long.class)
+                .setParameter("idempotencyKey", holder.getIdempotencyKey())
+                .setParameter("completed", TransferLog.Status.COMPLETED)
+                .getSingleResult();
+        TransferLog.Status status = completedLogs > 0 ? TransferLog.Status.COMPLETED : TransferLog.Status.PENDING;
+
+        int updated = em.createQuery("update IdempotencyKey k set k.status = :status, k.claimedAt = :now," +
+                " k.updatedAt = :now" +
+                " where k.idempotencyKey = :idempotencyKey and k.status = :pending and k.claimedAt = :claimedAt")
+                .setParameter("status", status)
+                .setParameter("now", new Date())
+                .setParameter("idempotencyKey", holder.getIdempotencyKey())
+                .setParameter("pending", TransferLog.Status.PENDING)
+                .setParameter("claimedAt", holder.getClaimedAt())
+                .executeUpdate();
+
+        if (updated == 1 && status == TransferLog.Status.PENDING)
+            return Optional.empty();
+
+        // settled COMPLETED here, or another retry got there first and holds it now
+        em.refresh(holder);
+        return Optional.of(holder);
+    }
+
+    @Override
+    public void settleIdempotencyKey(String idempotencyKey, TransferLog.Status status) {
+        jpaApi.em().createQuery("update IdempotencyKey k set k.status = :status, k.updatedAt = :now" +
+                " where k.idempotencyKey = :idempotencyKey")
+                .setParameter("status", status)
+                .setParameter("now", new Date())
+                .setParameter("idempotencyKey", idempotencyKey)
+                .executeUpdate();
+    }
+}
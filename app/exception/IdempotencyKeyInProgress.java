@@ -0,0 +1,7 @@
+package exception;
+
+public class IdempotencyKeyInProgress extends RuntimeException {
+    public IdempotencyKeyInProgress(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package exception;
+
+public class IdempotencyKeyMismatch extends RuntimeException {
+    public IdempotencyKeyMismatch(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package exception;
+
+public class LockTimeoutException extends RuntimeException {
+    public LockTimeoutException(String message) {
+        super(message);
+    }
+}
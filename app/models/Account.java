@@ -1,6 +1,8 @@
 package models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
@@ -8,6 +10,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import org.hibernate.annotations.Formula;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -21,10 +24,8 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
-import javax.persistence.Transient;
+import javax.persistence.Version;
 import java.math.BigDecimal;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 @Entity
 @Table(name = "accounts")
@@ -32,24 +33,29 @@ import java.util.concurrent.locks.ReentrantLock;
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
-@ToString(exclude = {"customer", "lock"})
-@EqualsAndHashCode(exclude = {"customer", "lock"}, callSuper = false)
+@ToString(exclude = {"customer"})
+@EqualsAndHashCode(exclude = {"customer"}, callSuper = false)
 @Builder
 public class Account extends BaseModel {
 
-    @Transient
-    @JsonIgnore
-    private Lock lock = new ReentrantLock();
-
+    // pooled, one sequence call hands out a block of ids, sized like a JDBC batch of inserts
     @Id
     @Column
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "account-gen")
-    @SequenceGenerator(name = "account-gen", sequenceName = "account_seq", initialValue = 19283746, allocationSize = 30)
+    @SequenceGenerator(name = "account-gen", sequenceName = "account_seq", initialValue = 19283746,
+            allocationSize = 50)
     private Long id;
 
+    @JsonProperty("balance")
     @Column
     private BigDecimal balance;
 
+    // credits to a hot account are spread over its sub-balances, see services.HotAccountRegistry
+    @JsonIgnore
+    @Setter(AccessLevel.NONE)
+    @Formula("(select coalesce(sum(s.balance), 0) from account_sub_balances s where s.account_id = id)")
+    private BigDecimal subBalance;
+
     @Column
     @Enumerated(EnumType.STRING)
     private CurrencyEnum currency;
@@ -62,6 +68,40 @@ public class Account extends BaseModel {
     @Column(name = "customer_id", insertable = false, updatable = false)
     private Long customerId;
 
+    // bulk updates bump it themselves, so entity writes from another node fail rather than overwrite them
+    @JsonIgnore
+    @Version
+    @Column
+    private Long version;
+
+    /**
+     * Stored balance of the row, without the sub-balances of a hot account.
+     */
+    @JsonIgnore
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    /**
+     * Balance as clients see it, the row plus the sub-balances of a hot account.
+     */
+    @JsonProperty("balance")
+    public BigDecimal getTotalBalance() {
+        if (balance == null || subBalance == null)
+            return balance;
+        return balance.add(subBalance);
+    }
+
+    /**
+     * Detached copy without the customer, safe to hand out while the original stays in a cache.
+     */
+    public Account copy() {
+        Account copy = Account.builder().id(id).balance(balance).subBalance(subBalance).currency(currency)
+                .customerId(customerId).version(version).build();
+        copy.copyTimestamps(this);
+        return copy;
+    }
+
     public enum CurrencyEnum {
         USD, EUR, SGD;
 
@@ -0,0 +1,103 @@
+package models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Totals of one account's completed transfers over one UTC day. Rows only ever grow by deltas added in the
+ * transaction that stores the transfer logs, so a statement reads one row per day instead of every transfer.
+ *
+ * The adjustment holds balance changes that are not transfers, such as the opening balance at onboarding. The
+ * closing balance is the sum of adjustment + inflow - outflow over that day and every day before it, kept on the row
+ * so a statement starts from the last row before its range instead of the account's whole history.
+ */
+@Entity
+@Table(name = "account_daily_rollups",
+        uniqueConstraints = @UniqueConstraint(name = "uk_account_daily_rollups_day",
+                columnNames = {"account_id", "rollup_date"}))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder
+public class AccountDailyRollup extends BaseModel {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Column(name = "account_id")
+    private Long accountId;
+
+    @Column(name = "rollup_date")
+    private LocalDate date;
+
+    @Column
+    private BigDecimal inflow;
+
+    @Column
+    private BigDecimal outflow;
+
+    @Column(name = "transfer_count")
+    private Long transferCount;
+
+    @Column
+    private BigDecimal adjustment;
+
+    @Column(name = "closing_balance")
+    private BigDecimal closingBalance;
+
+    /**
+     * Deltas a completed transfer adds to the rollups of its two accounts, none for a transfer that did not complete.
+     * The receiver is credited in its own currency.
+     */
+    public static List<AccountDailyRollup> ofTransfer(TransferLog log, Date completedAt) {
+        List<AccountDailyRollup> deltas = new ArrayList<>(2);
+        if (log.getStatus() != TransferLog.Status.COMPLETED)
+            return deltas;
+
+        LocalDate date = completedAt.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+        BigDecimal credited = log.getCreditedAmount() == null ? log.getAmount() : log.getCreditedAmount();
+
+        deltas.add(delta(log.getFromAccountId(), date, BigDecimal.ZERO, log.getAmount(), 1, BigDecimal.ZERO));
+        deltas.add(delta(log.getToAccountId(), date, credited, BigDecimal.ZERO, 1, BigDecimal.ZERO));
+        return deltas;
+    }
+
+    public static AccountDailyRollup ofAdjustment(Long accountId, Date at, BigDecimal amount) {
+        LocalDate date = at.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+        return delta(accountId, date, BigDecimal.ZERO, BigDecimal.ZERO, 0, amount);
+    }
+
+    private static AccountDailyRollup delta(Long accountId, LocalDate date, BigDecimal inflow, BigDecimal outflow,
+                                            long transferCount, BigDecimal adjustment) {
+        return AccountDailyRollup.builder().accountId(accountId).date(date).inflow(inflow).outflow(outflow)
+                .transferCount(transferCount).adjustment(adjustment).build();
+    }
+
+    /**
+     * Change of the balance over the day.
+     */
+    public BigDecimal getNet() {
+        return adjustment.add(inflow).subtract(outflow);
+    }
+}
@@ -0,0 +1,49 @@
+package models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import java.math.BigDecimal;
+
+/**
+ * One of the K slices of a hot account's balance. Credits to the account are spread across its slices, so they
+ * do not all queue on the one accounts row; the balance clients see is the account row plus its slices.
+ */
+@Entity
+@Table(name = "account_sub_balances",
+        uniqueConstraints = @UniqueConstraint(name = "uk_account_sub_balances_slot",
+                columnNames = {"account_id", "slot"}),
+        indexes = @Index(name = "idx_account_sub_balances_account_id", columnList = "account_id"))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder
+public class AccountSubBalance extends BaseModel {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Column(name = "account_id")
+    private Long accountId;
+
+    @Column
+    private Integer slot;
+
+    @Column
+    private BigDecimal balance;
+}
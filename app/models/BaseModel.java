@@ -29,4 +29,9 @@ public class BaseModel {
     protected void onUpdate() {
         this.updatedAt = new Date();
     }
+
+    protected void copyTimestamps(BaseModel other) {
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+    }
 }
@@ -0,0 +1,47 @@
+package models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * Claim of an idempotency key by one transfer request. The key is the primary key, so of two requests racing for
+ * it only one insert succeeds; the hash binds the key to the request it was first sent with.
+ */
+@Entity
+@Table(name = "idempotency_keys")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder
+public class IdempotencyKey extends BaseModel {
+
+    @Id
+    @Column(name = "idempotency_key")
+    private String idempotencyKey;
+
+    @Column(name = "request_hash")
+    private String requestHash;
+
+    // PENDING while the transfer runs, a FAILED claim may be taken over by a retry of the same request
+    @Column
+    @Enumerated(EnumType.STRING)
+    private TransferLog.Status status;
+
+    // when the running attempt took the key, a PENDING claim held past transfer.idempotency.claim-timeout is abandoned
+    @Column(name = "claimed_at")
+    private Date claimedAt;
+}
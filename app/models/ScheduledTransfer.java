@@ -0,0 +1,135 @@
+package models;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import models.Account.CurrencyEnum;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+/**
+ * Standing order or future-dated transfer. next_run_at is moved on before a run is attempted, so a run is made at
+ * most once even when the process dies half way.
+ */
+@Entity
+@Table(name = "scheduled_transfers")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = false)
+@Builder
+public class ScheduledTransfer extends BaseModel {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Column(name = "from_account_id")
+    private Long fromAccountId;
+
+    @Column(name = "to_account_id")
+    private Long toAccountId;
+
+    @Column
+    private BigDecimal amount;
+
+    @Column
+    @Enumerated(EnumType.STRING)
+    private CurrencyEnum currency;
+
+    @Column
+    @Enumerated(EnumType.STRING)
+    private Recurrence recurrence;
+
+    // first run of the schedule, every later run is counted from it so monthly runs keep their day of the month
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'")
+    @Column(name = "anchor_at")
+    private Date anchorAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'")
+    @Column(name = "next_run_at")
+    private Date nextRunAt;
+
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'")
+    @Column(name = "last_run_at")
+    private Date lastRunAt;
+
+    @Column(name = "last_status")
+    @Enumerated(EnumType.STRING)
+    private TransferLog.Status lastStatus;
+
+    @Column
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    public enum Status {
+        ACTIVE, COMPLETED, CANCELLED;
+
+        @Override
+        public String toString() {
+            return this.name();
+        }
+    }
+
+    public enum Recurrence {
+        ONCE, HOURLY, DAILY, WEEKLY, MONTHLY;
+
+        /**
+         * First run after both the last run and now, skipping the runs missed while the service was down. Runs are
+         * the anchor plus a whole number of periods, so a schedule anchored on the 31st runs on the last day of
+         * shorter months and on the 31st again after them. Null for a one-off transfer.
+         */
+        public Date nextAfter(Date anchor, Date lastRun, Date now) {
+            if (this == ONCE)
+                return null;
+
+            ZonedDateTime start = anchor.toInstant().atZone(ZoneOffset.UTC);
+            ZonedDateTime after = (lastRun.after(now) ? lastRun : now).toInstant().atZone(ZoneOffset.UTC);
+
+            // whole periods between anchor and after, the run they lead to is never after it
+            long periods = Math.max(1, unit().between(start, after));
+            ZonedDateTime next = start.plus(periods, unit());
+            while (!next.isAfter(after))
+                next = start.plus(++periods, unit());
+
+            return Date.from(next.toInstant());
+        }
+
+        private ChronoUnit unit() {
+            switch (this) {
+                case HOURLY:
+                    return ChronoUnit.HOURS;
+                case DAILY:
+                    return ChronoUnit.DAYS;
+                case WEEKLY:
+                    return ChronoUnit.WEEKS;
+                case MONTHLY:
+                    return ChronoUnit.MONTHS;
+                default:
+                    throw new IllegalStateException("No next run for " + this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.name();
+        }
+    }
+}
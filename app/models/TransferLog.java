@@ -14,11 +14,17 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name="transfer_logs")
+@Table(name="transfer_logs", indexes = {
+        @Index(name = "idx_transfer_logs_idempotency_key", columnList = "idempotency_key"),
+        // history pages seek each side of the transfer newest first, see dao.CustomerDao#getTransferLogs
+        @Index(name = "idx_transfer_logs_from_account", columnList = "from_account_id, created_at desc, id desc"),
+        @Index(name = "idx_transfer_logs_to_account", columnList = "to_account_id, created_at desc, id desc")
+})
 @Getter
 @Setter
 @AllArgsConstructor
@@ -43,10 +49,18 @@ public class TransferLog extends BaseModel {
     @Column(name="requested_currency")
     private String requestedCurrency;
 
+    // amount received in the receiver's currency, only set for cross-currency transfers
+    @Column(name="credited_amount")
+    private BigDecimal creditedAmount;
+
     @Column
     @Enumerated(EnumType.STRING)
     private Status status;
 
+    // not unique, every attempt under a key is logged; the key itself is guarded by models.IdempotencyKey
+    @Column(name="idempotency_key")
+    private String idempotencyKey;
+
     public enum Status {
         PENDING, COMPLETED, FAILED;
 
@@ -0,0 +1,23 @@
+package services;
+
+import com.google.inject.ImplementedBy;
+import services.impl.StripedAccountLockRegistry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+@ImplementedBy(StripedAccountLockRegistry.class)
+public interface AccountLockRegistry {
+
+    /**
+     * Lock guarding the given account id. The same id always maps to the same lock for the lifetime of the JVM.
+     */
+    Lock getLock(Long accountId);
+
+    /**
+     * Distinct locks guarding the given account ids, in the global acquisition order.
+     * Callers must acquire them in the returned order to avoid deadlocks.
+     */
+    List<Lock> getOrderedLocks(Collection<Long> accountIds);
+}
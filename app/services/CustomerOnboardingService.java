@@ -0,0 +1,18 @@
+package services;
+
+import beans.response.BulkOnboardResult;
+import com.google.inject.ImplementedBy;
+import services.impl.CustomerOnboardingServiceImpl;
+
+import java.io.InputStream;
+
+@ImplementedBy(CustomerOnboardingServiceImpl.class)
+public interface CustomerOnboardingService {
+
+    /**
+     * Onboards the customers of a newline delimited JSON stream, one onboard request per line, reading it as it goes.
+     * Customers are committed in chunks; a record that fails parsing, validation or its insert is reported with its
+     * line and does not hold up the others. Blocks until the stream ends.
+     */
+    BulkOnboardResult onboardAll(InputStream ndjson);
+}
@@ -0,0 +1,16 @@
+package services;
+
+import com.google.inject.ImplementedBy;
+import models.Account.CurrencyEnum;
+import services.impl.FileFxRateTable;
+
+import java.math.BigDecimal;
+
+@ImplementedBy(FileFxRateTable.class)
+public interface FxRateTable {
+    /**
+     * Converts the amount at the current rate, rounded as configured for the target currency. Throws
+     * {@link exception.InvalidCurrencyTransfer} when there is no rate between the two currencies.
+     */
+    BigDecimal convert(BigDecimal amount, CurrencyEnum from, CurrencyEnum to);
+}
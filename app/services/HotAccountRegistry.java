@@ -0,0 +1,24 @@
+package services;
+
+import com.google.inject.ImplementedBy;
+import services.impl.DetectingHotAccountRegistry;
+
+/**
+ * Accounts receiving so many transfers that their credits are spread over sub-balances rather than all queueing
+ * on the one account. An account stays hot once it has become hot.
+ */
+@ImplementedBy(DetectingHotAccountRegistry.class)
+public interface HotAccountRegistry {
+
+    boolean isHot(Long accountId);
+
+    /**
+     * Sub-balance the next credit to the given hot account goes to.
+     */
+    int pickSlot(Long accountId);
+
+    /**
+     * Counts an inbound transfer of an account that is not hot yet, for detection.
+     */
+    void recordCredit(Long accountId);
+}
@@ -0,0 +1,23 @@
+package services;
+
+import com.google.inject.ImplementedBy;
+import services.impl.InMemoryIdempotencyStore;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+@ImplementedBy(InMemoryIdempotencyStore.class)
+public interface IdempotencyStore {
+
+    /**
+     * Runs the action for the first caller of a key and hands every later caller the same outcome, waiting for it
+     * if it is still in flight. Outcomes failing the retain check, or failing altogether, are forgotten once known
+     * so the next caller with that key runs the action again.
+     *
+     * A caller whose request hash differs from the one the key was first used with gets
+     * {@link exception.IdempotencyKeyMismatch} thrown, the outcome is not handed to another request.
+     */
+    <T> CompletionStage<T> execute(String key, String requestHash, Supplier<CompletionStage<T>> action,
+                                   Predicate<T> retain);
+}
@@ -0,0 +1,63 @@
+package services;
+
+import exception.LockTimeoutException;
+import models.Account;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes the balance movement of an already validated transfer. The engine in use is chosen from the
+ * transfer.engine setting, see {@link startup.AppInitialiser}.
+ */
+public interface TransferEngine {
+
+    /**
+     * Looks up the accounts taking part in a transfer, as seen by this engine. Ids that do not exist are left out.
+     * The accounts are only used for validation and may be cached copies.
+     */
+    List<Account> getAccounts(Collection<Long> accountIds);
+
+    /**
+     * Moves the amount from one account to the other. Returns false when the transfer could not be attempted,
+     * and throws {@link exception.InsufficientBalance} when the sender cannot cover the amount.
+     */
+    default boolean transfer(Account from, Account to, BigDecimal amount) {
+        return transfer(from, to, amount, amount);
+    }
+
+    /**
+     * Takes the amount off the sender and credits the credit amount to the receiver, for transfers between accounts
+     * of different currencies. Otherwise as {@link #transfer(Account, Account, BigDecimal)}.
+     */
+    boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount);
+
+    /**
+     * Applies a group of transfers in list order, returning the legs that were rejected keyed by their position.
+     * When atomic, the first rejection is thrown instead and none of the legs is applied, the group is committed at
+     * once. Engines without a grouped path of their own for groups that are not atomic can use {@link #transferEach}.
+     */
+    Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic);
+
+    /**
+     * Applies the legs one by one, each on its own, returning the legs that were rejected keyed by their position.
+     */
+    default Map<Integer, RuntimeException> transferEach(List<TransferLeg> legs) {
+        Map<Integer, RuntimeException> rejected = new HashMap<>();
+
+        for (int i = 0; i < legs.size(); i++) {
+            TransferLeg leg = legs.get(i);
+            try {
+                if (!transfer(leg.getFrom(), leg.getTo(), leg.getAmount(), leg.getCreditAmount()))
+                    rejected.put(i, new LockTimeoutException("Accounts are busy, transfer not attempted"));
+            } catch (RuntimeException e) {
+                rejected.put(i, e);
+            }
+        }
+
+        return rejected;
+    }
+}
@@ -0,0 +1,24 @@
+package services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import models.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * One validated movement of funds, as handed to a {@link TransferEngine}. The amount is taken off the sender in its
+ * currency; the credit amount is what the receiver gets in its own, the same unless the currencies differ.
+ */
+@Getter
+@AllArgsConstructor
+public class TransferLeg {
+    private final Account from;
+    private final Account to;
+    private final BigDecimal amount;
+    private final BigDecimal creditAmount;
+
+    public TransferLeg(Account from, Account to, BigDecimal amount) {
+        this(from, to, amount, amount);
+    }
+}
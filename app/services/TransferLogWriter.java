@@ -0,0 +1,26 @@
+package services;
+
+import models.TransferLog;
+
+/**
+ * Records the {@link TransferLog} of every transfer attempt. Bound in {@link startup.AppInitialiser} to match the
+ * transfer engine in use.
+ */
+public interface TransferLogWriter {
+
+    /**
+     * Called before the transfer is attempted, with the log in PENDING status.
+     */
+    void begin(TransferLog transferLog);
+
+    /**
+     * Called once the transfer has reached its final status, whether it succeeded or not.
+     */
+    void complete(TransferLog transferLog);
+
+    /**
+     * Blocks until every log completed before the call is stored. A no-op for writers that store synchronously.
+     */
+    default void flush() {
+    }
+}
@@ -0,0 +1,19 @@
+package services;
+
+import beans.request.ScheduledTransferRequest;
+import com.google.inject.ImplementedBy;
+import models.ScheduledTransfer;
+import services.impl.TimerWheelTransferScheduler;
+
+@ImplementedBy(TimerWheelTransferScheduler.class)
+public interface TransferScheduler {
+    /**
+     * Persists the schedule and arms it. The accounts are checked when it runs, a failed run is kept in last_status.
+     */
+    ScheduledTransfer schedule(ScheduledTransferRequest scheduledTransferRequest);
+
+    /**
+     * Returns false when there is no active schedule with the id.
+     */
+    boolean cancel(Long scheduledTransferId);
+}
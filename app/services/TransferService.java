@@ -1,10 +1,33 @@
 package services;
 
+import beans.request.BatchTransferRequest;
+import beans.request.MultiLegTransferRequest;
 import beans.request.TransferRequestBean;
+import beans.response.TransferResult;
 import com.google.inject.ImplementedBy;
 import services.impl.TransferServiceImpl;
 
+import java.util.List;
+
 @ImplementedBy(TransferServiceImpl.class)
 public interface TransferService {
-    boolean transfer(TransferRequestBean transferRequestBean);
+    default boolean transfer(TransferRequestBean transferRequestBean) {
+        return transfer(transferRequestBean, null);
+    }
+
+    /**
+     * A transfer already completed under the same idempotency key is not executed again, and reported as a success.
+     * The key is bound to the request it was first sent with: reusing it for another transfer throws
+     * {@link exception.IdempotencyKeyMismatch}, retrying while the first attempt runs
+     * {@link exception.IdempotencyKeyInProgress}.
+     */
+    boolean transfer(TransferRequestBean transferRequestBean, String idempotencyKey);
+
+    List<TransferResult> transferBatch(BatchTransferRequest batchTransferRequest);
+
+    /**
+     * Applies every leg in one transaction, or none of them. Returns false when the accounts were busy and nothing
+     * was attempted; a leg that fails validation or its balance check is thrown. Each leg gets its own transfer log.
+     */
+    boolean transferMultiLeg(MultiLegTransferRequest multiLegTransferRequest);
 }
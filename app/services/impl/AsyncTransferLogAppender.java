@@ -0,0 +1,259 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import models.TransferLog;
+import org.hibernate.Session;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import services.TransferLogWriter;
+import utils.MpscRingBuffer;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only transfer log. Nothing is written when a transfer starts; its final log is queued in a bounded
+ * ring buffer and a single background thread inserts the queued logs with JDBC batches, every flush-interval or
+ * as soon as flush-size of them are waiting. When the buffer is full, callers wait for the writer to make room.
+ *
+ * The daily rollups of the accounts are updated in the same transaction as the logs of a batch. A batch failing
+ * max-retries times in a row is written one log at a time, and logs that still fail are logged and dropped, so a
+ * single bad log cannot hold back the ones behind it.
+ *
+ * {@link #flush()} is the durability barrier - when it returns, every log completed before the call is committed.
+ */
+@Singleton
+public class AsyncTransferLogAppender implements TransferLogWriter {
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long SHUTDOWN_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final JPAApi jpaApi;
+    private final AccountRollupDao rollupDao;
+    private final MpscRingBuffer<Entry> buffer;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final int maxRetries;
+
+    private final Queue<CompletableFuture<Void>> flushRequests = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private volatile long droppedCount;
+
+    // writer thread only
+    private int failedAttempts;
+
+    @Inject
+    public AsyncTransferLogAppender(JPAApi jpaApi, AccountRollupDao rollupDao, Configuration configuration,
+                                    ApplicationLifecycle lifecycle) {
+        this(jpaApi, rollupDao,
+                configuration.getInt("transfer.log.buffer-size", 8192),
+                configuration.getInt("transfer.log.flush-size", 500),
+                configuration.getMilliseconds("transfer.log.flush-interval", 100L),
+                configuration.getInt("transfer.log.max-retries", 5));
+
+        lifecycle.addStopHook(() -> {
+            shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public AsyncTransferLogAppender(JPAApi jpaApi, AccountRollupDao rollupDao, int bufferSize, int flushSize,
+                                    long flushIntervalMillis) {
+        this(jpaApi, rollupDao, bufferSize, flushSize, flushIntervalMillis, 5);
+    }
+
+    public AsyncTransferLogAppender(JPAApi jpaApi, AccountRollupDao rollupDao, int bufferSize, int flushSize,
+                                    long flushIntervalMillis, int maxRetries) {
+        this.jpaApi = jpaApi;
+        this.rollupDao = rollupDao;
+        this.buffer = new MpscRingBuffer<>(bufferSize);
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxRetries = Math.max(1, maxRetries);
+
+        this.thread = new Thread(this::run, "transfer-log-appender");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void begin(TransferLog transferLog) {
+        // nothing is written until the outcome is known
+    }
+
+    @Override
+    public void complete(TransferLog transferLog) {
+        Entry entry = new Entry(transferLog, new Timestamp(System.currentTimeMillis()));
+
+        // back-pressure: wait for the writer to make room rather than dropping the log
+        while (!buffer.offer(entry)) {
+            if (!running)
+                throw new IllegalStateException("Transfer log appender is shut down");
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+
+        if (buffer.size() >= flushSize)
+            LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void flush() {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        flushRequests.add(barrier);
+        LockSupport.unpark(thread);
+
+        try {
+            barrier.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Transfer log flush failed", e.getCause());
+        }
+    }
+
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Logs given up on after they failed on their own.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(SHUTDOWN_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(flushSize);
+        long lastWrite = System.nanoTime();
+
+        while (running || !buffer.isEmpty() || !batch.isEmpty() || !flushRequests.isEmpty()) {
+            buffer.drain(batch::add, flushSize - batch.size());
+
+            List<CompletableFuture<Void>> barriers = new ArrayList<>();
+            CompletableFuture<Void> barrier;
+            while ((barrier = flushRequests.poll()) != null)
+                barriers.add(barrier);
+
+            long sinceLastWrite = System.nanoTime() - lastWrite;
+
+            if (!barriers.isEmpty()) {
+                // every log completed before the barriers were requested is in the buffer by now
+                try {
+                    do {
+                        write(batch);
+                    } while (buffer.drain(batch::add, flushSize) > 0);
+
+                    barriers.forEach(b -> b.complete(null));
+                } catch (RuntimeException e) {
+                    Logger.error("Transfer log flush failed", e);
+                    barriers.forEach(b -> b.completeExceptionally(e));
+                }
+                lastWrite = System.nanoTime();
+            } else if (!batch.isEmpty() && (batch.size() >= flushSize || sinceLastWrite >= flushIntervalNanos || !running)) {
+                try {
+                    write(batch);
+                } catch (RuntimeException e) {
+                    // keep the batch and try again after an interval
+                    Logger.error("Failed to write " + batch.size() + " transfer logs, will retry", e);
+                    LockSupport.parkNanos(this, flushIntervalNanos);
+                }
+                lastWrite = System.nanoTime();
+            } else if (batch.size() < flushSize && running) {
+                LockSupport.parkNanos(this, Math.max(flushIntervalNanos - sinceLastWrite, FULL_PARK_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Writes and clears the batch. A failure is thrown while the batch has retries left; after the last one, or on
+     * shutdown, the logs are written one by one instead.
+     */
+    private void write(List<Entry> batch) {
+        try {
+            writeBatch(batch);
+        } catch (RuntimeException e) {
+            if (running && ++failedAttempts < maxRetries)
+                throw e;
+
+            Logger.error("Failed to write " + batch.size() + " transfer logs " + Math.max(1, failedAttempts) +
+                    " times, writing them one by one", e);
+            writeEach(batch);
+        }
+
+        failedAttempts = 0;
+        batch.clear();
+    }
+
+    private void writeEach(List<Entry> batch) {
+        for (Entry entry : batch) {
+            try {
+                writeBatch(Collections.singletonList(entry));
+            } catch (RuntimeException e) {
+                droppedCount++;
+                TransferLog log = entry.transferLog;
+                Logger.error("Dropping transfer log from={} to={} amount={} currency={} status={} completed at {}",
+                        log.getFromAccountId(), log.getToAccountId(), log.getAmount(), log.getRequestedCurrency(),
+                        log.getStatus(), entry.completedAt, e);
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        if (batch.isEmpty())
+            return;
+
+        jpaApi.withTransaction("default", false, em -> {
+            em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(TransferLogInserts.INSERT_LOG)) {
+                    for (Entry entry : batch)
+                        TransferLogInserts.addBatch(statement, entry.transferLog, entry.completedAt);
+
+                    statement.executeBatch();
+                }
+            });
+
+            rollupDao.add(batch.stream()
+                    .flatMap(entry -> AccountDailyRollup.ofTransfer(entry.transferLog, entry.completedAt).stream())
+                    .collect(Collectors.toList()));
+            return null;
+        });
+
+        Logger.debug("Appended {} transfer logs", batch.size());
+    }
+
+    private static final class Entry {
+        private final TransferLog transferLog;
+        private final Timestamp completedAt;
+
+        Entry(TransferLog transferLog, Timestamp completedAt) {
+            this.transferLog = transferLog;
+            this.completedAt = completedAt;
+        }
+    }
+}
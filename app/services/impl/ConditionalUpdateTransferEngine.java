@@ -0,0 +1,83 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountDao;
+import exception.InsufficientBalance;
+import models.Account;
+import play.Logger;
+import services.TransferEngine;
+import services.TransferLeg;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lock-free engine that leaves the balance check to the database. The debit is a single conditional update
+ * which only matches while the balance covers the amount, the credit a plain increment, so nothing is read and
+ * written back and several application nodes can share the same database.
+ */
+@Singleton
+public class ConditionalUpdateTransferEngine implements TransferEngine {
+    private final AccountDao accountDao;
+
+    @Inject
+    public ConditionalUpdateTransferEngine(AccountDao accountDao) {
+        this.accountDao = accountDao;
+    }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        return accountDao.lookupAccounts(accountIds);
+    }
+
+    @Override
+    public boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount) {
+        Logger.info("Transferring funds={}, between account={} to account={}", amount, from.getId(), to.getId());
+
+        accountDao.jpaApi().withTransaction("default", false, em -> {
+            // rows are updated in id order, so transfers in opposite directions cannot deadlock on the row locks.
+            // a credit applied first is rolled back with the transaction if the debit does not match
+            if (from.getId() < to.getId()) {
+                debit(from, amount);
+                accountDao.adjustBalance(to.getId(), creditAmount);
+            } else {
+                accountDao.adjustBalance(to.getId(), creditAmount);
+                debit(from, amount);
+            }
+            return null;
+        });
+
+        return true;
+    }
+
+    /**
+     * Atomic groups run the same guarded updates in one transaction, leg by leg, so later legs can spend what earlier
+     * ones credited; the first debit that does not match is thrown and rolls the whole group back. Rows are locked
+     * in leg order, a group deadlocking with another one fails as a whole.
+     */
+    @Override
+    public Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic) {
+        if (!atomic)
+            return transferEach(legs);
+
+        accountDao.jpaApi().withTransaction("default", false, em -> {
+            for (TransferLeg leg : legs) {
+                debit(leg.getFrom(), leg.getAmount());
+                accountDao.adjustBalance(leg.getTo().getId(), leg.getCreditAmount());
+            }
+            return null;
+        });
+
+        Logger.info("Transferred {} grouped transfers", legs.size());
+        return Collections.emptyMap();
+    }
+
+    private void debit(Account from, BigDecimal amount) {
+        if (!accountDao.debitIfSufficient(from.getId(), amount))
+            throw new InsufficientBalance("The balance in the account not sufficient for this transfer");
+    }
+}
@@ -0,0 +1,182 @@
+package services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.impl.CachingAccountDao;
+import models.Account;
+import models.Customer;
+import org.hibernate.Session;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import play.libs.Json;
+
+import javax.transaction.Synchronization;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Serialized customer-with-accounts responses, keyed by customer id, with an ETag derived from the versions of the
+ * accounts. Hot-account credits land in sub-balances without bumping the row version, so their sub-balance totals
+ * go into the ETag as well.
+ *
+ * An entry is dropped once a change to any of its accounts commits, see {@link CachingAccountDao}. A response loaded
+ * while such a change commits is not kept: loads note a generation before reading and only keep their entry if it
+ * is still the same after storing it, so a load racing a transfer can never leave the older state cached.
+ */
+@Singleton
+public class CustomerAccountsCache {
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final JPAApi jpaApi;
+    private final Cache<Long, Entry> entries;
+
+    // accounts never move between customers, so the mapping of a cached customer's accounts is kept for good
+    private final Map<Long, Long> customerOfAccount = new ConcurrentHashMap<>();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // bumped for changes to accounts of customers never loaded, whose loads may be under way
+    private final AtomicLong unknownGeneration = new AtomicLong();
+
+    @Inject
+    public CustomerAccountsCache(CachingAccountDao accountDao, JPAApi jpaApi, Configuration configuration) {
+        this(jpaApi, configuration.getLong("customer-accounts-cache.max-size", 10_000L));
+        accountDao.addChangeListener(this::invalidateAccounts);
+    }
+
+    public CustomerAccountsCache(JPAApi jpaApi, long maxSize) {
+        this.jpaApi = jpaApi;
+        this.entries = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    public Optional<Entry> get(Long customerId) {
+        return Optional.ofNullable(entries.getIfPresent(customerId));
+    }
+
+    /**
+     * Loads and caches the customer's response, the loader runs in the caller's transaction. Nothing is cached for an
+     * unknown customer.
+     */
+    public Optional<Entry> load(Long customerId, Supplier<Optional<Customer>> loader) {
+        int stripe = stripeOf(customerId);
+        long generation = generations.get(stripe);
+        long unknown = unknownGeneration.get();
+
+        Optional<Entry> entry = loader.get().map(customer -> {
+            customer.getAccounts().forEach(account -> customerOfAccount.put(account.getId(), customerId));
+            return Entry.of(customer);
+        });
+
+        if (entry.isPresent()) {
+            entries.put(customerId, entry.get());
+
+            if (generations.get(stripe) != generation || unknownGeneration.get() != unknown)
+                entries.invalidate(customerId);
+        }
+
+        return entry;
+    }
+
+    public void invalidateCustomer(Long customerId) {
+        // the generation moves first, a load storing after this check would otherwise survive the invalidation
+        generations.incrementAndGet(stripeOf(customerId));
+        entries.invalidate(customerId);
+    }
+
+    /**
+     * Invalidates the customer once the current transaction completes, for changes the account cache does not see.
+     */
+    public void invalidateCustomerOnCompletion(Long customerId) {
+        jpaApi.em().unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                invalidateCustomer(customerId);
+            }
+        });
+    }
+
+    private void invalidateAccounts(Collection<Long> accountIds) {
+        for (Long accountId : accountIds) {
+            Long customerId = customerOfAccount.get(accountId);
+            if (customerId == null)
+                unknownGeneration.incrementAndGet();
+            else
+                invalidateCustomer(customerId);
+        }
+    }
+
+    private static int stripeOf(Long customerId) {
+        return (int) ((customerId ^ (customerId >>> 32)) & (GENERATION_STRIPES - 1));
+    }
+
+    public static final class Entry {
+        private final byte[] json;
+        private final String etag;
+
+        private Entry(byte[] json, String etag) {
+            this.json = json;
+            this.etag = etag;
+        }
+
+        /**
+         * Serializes the customer, its lazy accounts included, so it has to run inside the loading transaction.
+         */
+        static Entry of(Customer customer) {
+            try {
+                return new Entry(Json.mapper().writeValueAsBytes(customer), etagOf(customer));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException("Failed to serialize customer " + customer.getId(), e);
+            }
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null)
+                return false;
+
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag))
+                    return true;
+            }
+            return false;
+        }
+
+        private static String etagOf(Customer customer) {
+            List<Account> accounts = customer.getAccounts().stream()
+                    .sorted(Comparator.comparing(Account::getId))
+                    .collect(Collectors.toList());
+
+            long hash = customer.getId();
+            for (Account account : accounts) {
+                hash = 31 * hash + account.getId();
+                hash = 31 * hash + (account.getVersion() == null ? 0 : account.getVersion());
+                if (account.getSubBalance() != null && account.getSubBalance().signum() != 0)
+                    hash = 31 * hash + account.getSubBalance().stripTrailingZeros().hashCode();
+            }
+
+            return "\"" + customer.getId() + "-" + Long.toHexString(hash) + "\"";
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package services.impl;
+
+import beans.request.CustomerOnboardRequest;
+import beans.response.BulkOnboardResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.inject.Inject;
+import dao.CustomerDao;
+import models.Customer;
+import play.Configuration;
+import play.Logger;
+import services.CustomerOnboardingService;
+import utils.DatabaseExecutionContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the stream line by line and keeps at most one chunk of customers in memory. Each chunk is persisted in one
+ * transaction, where the inserts go out as JDBC batches and the ids come from pooled sequence allocations. When a
+ * chunk fails to commit it is retried one customer per transaction, so only the offending records are rejected.
+ *
+ * The commits run on {@link DatabaseExecutionContext} while the reading thread waits for them, so a database thread is
+ * never held while the client sends the next lines. A full database queue holds up the reading for a while before
+ * the chunk is given up on.
+ */
+public class CustomerOnboardingServiceImpl implements CustomerOnboardingService {
+    private static final ObjectReader REQUEST_READER = new ObjectMapper().readerFor(CustomerOnboardRequest.class);
+    private static final int MAX_REJECTED_COMMITS = 50;
+    private static final long REJECTED_BACKOFF_MILLIS = 100;
+
+    private final CustomerDao customerDao;
+    private final DatabaseExecutionContext databaseContext;
+    private final int chunkSize;
+    private final int maxErrors;
+
+    @Inject
+    public CustomerOnboardingServiceImpl(CustomerDao customerDao, DatabaseExecutionContext databaseContext,
+                                         Configuration configuration) {
+        this(customerDao, databaseContext,
+                configuration.getInt("customer.bulk-onboard.chunk-size", 500),
+                configuration.getInt("customer.bulk-onboard.max-errors", 1000));
+    }
+
+    public CustomerOnboardingServiceImpl(CustomerDao customerDao, DatabaseExecutionContext databaseContext,
+                                         int chunkSize, int maxErrors) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Bulk onboard chunk-size must be positive, found " + chunkSize);
+
+        this.customerDao = customerDao;
+        this.databaseContext = databaseContext;
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+    }
+
+    @Override
+    public BulkOnboardResult onboardAll(InputStream ndjson) {
+        BulkOnboardResult result = new BulkOnboardResult();
+        List<Record> chunk = new ArrayList<>(chunkSize);
+        long startedAt = System.nanoTime();
+        long lineNumber = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty())
+                    continue;
+
+                try {
+                    chunk.add(new Record(lineNumber, line, parse(line)));
+                } catch (Exception e) {
+                    reject(result, lineNumber, e);
+                }
+
+                if (chunk.size() == chunkSize) {
+                    persist(chunk, result);
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            // whatever was committed stays, the client learns where the body broke off
+            reject(result, lineNumber + 1, new IOException("Request body could not be read any further", e));
+        }
+
+        persist(chunk, result);
+
+        Logger.info("Bulk onboarding of {} customers done in {} ms, {} records rejected", result.getOnboarded(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), result.getFailed());
+        return result;
+    }
+
+    private void persist(List<Record> chunk, BulkOnboardResult result) {
+        if (chunk.isEmpty())
+            return;
+
+        try {
+            commit(chunk.stream().map(record -> record.customer).collect(Collectors.toList()));
+            result.setOnboarded(result.getOnboarded() + chunk.size());
+            return;
+        } catch (Exception e) {
+            Logger.warn("Onboarding a chunk of {} customers failed, retrying them one by one - {}", chunk.size(),
+                    e.toString());
+        }
+
+        for (Record record : chunk) {
+            try {
+                // built again from the line, the failed attempt left ids on the first entities
+                commit(Collections.singletonList(parse(record.json)));
+                result.setOnboarded(result.getOnboarded() + 1);
+            } catch (Exception e) {
+                reject(result, record.line, e);
+            }
+        }
+    }
+
+    private void commit(List<Customer> customers) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                databaseContext.withTransaction(() -> {
+                    customerDao.onboardCustomers(customers);
+                    return null;
+                }).toCompletableFuture().join();
+                return;
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof RejectedExecutionException) || attempt == MAX_REJECTED_COMMITS)
+                    throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+
+                // the database pool is full, reading more of the body would not help
+                try {
+                    Thread.sleep(REJECTED_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw (RejectedExecutionException) cause;
+                }
+            }
+        }
+    }
+
+    private void reject(BulkOnboardResult result, long line, Exception cause) {
+        result.setFailed(result.getFailed() + 1);
+        if (result.getErrors().size() < maxErrors)
+            result.getErrors().add(new BulkOnboardResult.RecordError(line, cause.toString()));
+    }
+
+    private static Customer parse(String json) throws IOException {
+        CustomerOnboardRequest request = REQUEST_READER.readValue(json);
+        return request.buildRequest();
+    }
+
+    private static final class Record {
+        private final long line;
+        private final String json;
+        private final Customer customer;
+
+        Record(long line, String json, Customer customer) {
+            this.line = line;
+            this.json = json;
+            this.customer = customer;
+        }
+    }
+}
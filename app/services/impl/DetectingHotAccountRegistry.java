@@ -0,0 +1,145 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountSubBalanceDao;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import services.HotAccountRegistry;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hot accounts are the ones flagged in transfer.hot-accounts.ids, plus every account that received at least
+ * detect-threshold transfers within one detect-interval. The sub-balances of an account are created before it is
+ * reported hot, and the accounts that have them are picked up again on startup.
+ */
+@Singleton
+public class DetectingHotAccountRegistry implements HotAccountRegistry {
+    private final AccountSubBalanceDao subBalanceDao;
+    private final int slots;
+    private final long detectThreshold;
+
+    private final Set<Long> hotAccountIds = ConcurrentHashMap.newKeySet();
+    private volatile Map<Long, LongAdder> credits = new ConcurrentHashMap<>();
+
+    @Inject
+    public DetectingHotAccountRegistry(AccountSubBalanceDao subBalanceDao, Configuration configuration,
+                                       ApplicationLifecycle lifecycle) {
+        this(subBalanceDao,
+                configuration.getInt("transfer.hot-accounts.slots", 8),
+                configuration.getLong("transfer.hot-accounts.detect-threshold", 1000L));
+
+        load(configuration.getLongList("transfer.hot-accounts.ids", Collections.emptyList()));
+
+        if (detectThreshold <= 0)
+            return;
+
+        long intervalMillis = configuration.getMilliseconds("transfer.hot-accounts.detect-interval", 1000L);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-account-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::detectQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public DetectingHotAccountRegistry(AccountSubBalanceDao subBalanceDao, int slots, long detectThreshold) {
+        if (slots <= 0)
+            throw new IllegalArgumentException("Hot account slots must be positive, found " + slots);
+
+        this.subBalanceDao = subBalanceDao;
+        this.slots = slots;
+        this.detectThreshold = detectThreshold;
+    }
+
+    /**
+     * Registry that never reports an account hot.
+     */
+    public static DetectingHotAccountRegistry disabled() {
+        return new DetectingHotAccountRegistry(null, 1, 0);
+    }
+
+    /**
+     * Makes the flagged accounts hot and picks up every account that already has sub-balances, topping up their
+     * sub-balances when slots was raised since they were created.
+     */
+    public void load(Collection<Long> flaggedAccountIds) {
+        Collection<Long> accountIds = subBalanceDao.jpaApi().withTransaction(() -> {
+            Set<Long> ids = new HashSet<>(flaggedAccountIds);
+            ids.addAll(subBalanceDao.getHotAccountIds());
+            ids.forEach(accountId -> subBalanceDao.createSubBalances(accountId, slots));
+            return ids;
+        });
+
+        hotAccountIds.addAll(accountIds);
+
+        if (!hotAccountIds.isEmpty())
+            Logger.info("{} hot accounts with {} sub-balances each", hotAccountIds.size(), slots);
+    }
+
+    @Override
+    public boolean isHot(Long accountId) {
+        return hotAccountIds.contains(accountId);
+    }
+
+    @Override
+    public int pickSlot(Long accountId) {
+        return ThreadLocalRandom.current().nextInt(slots);
+    }
+
+    @Override
+    public void recordCredit(Long accountId) {
+        if (detectThreshold <= 0 || hotAccountIds.contains(accountId))
+            return;
+
+        credits.computeIfAbsent(accountId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Promotes the accounts that reached the threshold since the last call and starts counting afresh.
+     */
+    public void detect() {
+        Map<Long, LongAdder> window = credits;
+        credits = new ConcurrentHashMap<>();
+
+        window.forEach((accountId, count) -> {
+            if (count.sum() < detectThreshold || hotAccountIds.contains(accountId))
+                return;
+
+            subBalanceDao.jpaApi().withTransaction(() -> {
+                subBalanceDao.createSubBalances(accountId, slots);
+                return null;
+            });
+            hotAccountIds.add(accountId);
+
+            Logger.info("Account={} received {} transfers within a detection interval, credits now spread over {} " +
+                    "sub-balances", accountId, count.sum(), slots);
+        });
+    }
+
+    private void detectQuietly() {
+        try {
+            detect();
+        } catch (RuntimeException e) {
+            Logger.error("Hot account detection failed", e);
+        }
+    }
+}
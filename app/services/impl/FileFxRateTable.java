@@ -0,0 +1,194 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import exception.InvalidCurrencyTransfer;
+import models.Account.CurrencyEnum;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import services.FxRateTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FX rates read from a file of from,to,rate lines, e.g. USD,SGD,1.3521. A pair listed one way only is priced the
+ * other way at the inverse rate.
+ *
+ * The rates are an immutable table indexed by currency ordinals, never written once published: a lookup is one
+ * volatile read and an array access, with no lock and no allocation. The file is checked every refresh-interval and
+ * a changed one is parsed into a new table which replaces the old one in a single write, so a transfer never sees
+ * half of a refresh. A file that fails to parse leaves the current rates in place.
+ */
+@Singleton
+public class FileFxRateTable implements FxRateTable {
+    private static final CurrencyEnum[] CURRENCIES = CurrencyEnum.values();
+    private static final int DEFAULT_SCALE = 2;
+    private static final RoundingMode DEFAULT_ROUNDING_MODE = RoundingMode.HALF_EVEN;
+
+    private final Path ratesFile;
+    private final int[] scales = new int[CURRENCIES.length];
+    private final RoundingMode[] roundingModes = new RoundingMode[CURRENCIES.length];
+
+    // rate of from -> to at [from.ordinal() * CURRENCIES.length + to.ordinal()], null when there is none
+    private volatile BigDecimal[] rates = new BigDecimal[CURRENCIES.length * CURRENCIES.length];
+
+    // guarded by this
+    private FileTime loadedModifiedTime;
+
+    @Inject
+    public FileFxRateTable(Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(ratesFile(configuration), scales(configuration), roundingModes(configuration));
+
+        if (ratesFile == null)
+            return;
+
+        refreshQuietly();
+
+        long intervalMillis = configuration.getMilliseconds("transfer.fx.refresh-interval",
+                TimeUnit.MINUTES.toMillis(1));
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fx-rate-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refreshQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public FileFxRateTable(Path ratesFile, Map<CurrencyEnum, Integer> scales,
+                           Map<CurrencyEnum, RoundingMode> roundingModes) {
+        this.ratesFile = ratesFile;
+
+        for (CurrencyEnum currency : CURRENCIES) {
+            this.scales[currency.ordinal()] = scales.getOrDefault(currency, DEFAULT_SCALE);
+            this.roundingModes[currency.ordinal()] = roundingModes.getOrDefault(currency, DEFAULT_ROUNDING_MODE);
+        }
+    }
+
+    /**
+     * Table without rates, every cross-currency conversion is rejected.
+     */
+    public static FileFxRateTable empty() {
+        return new FileFxRateTable(null, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    @Override
+    public BigDecimal convert(BigDecimal amount, CurrencyEnum from, CurrencyEnum to) {
+        if (from == to)
+            return amount;
+
+        BigDecimal rate = rates[from.ordinal() * CURRENCIES.length + to.ordinal()];
+        if (rate == null)
+            throw new InvalidCurrencyTransfer("No FX rate from " + from + " to " + to);
+
+        return amount.multiply(rate).setScale(scales[to.ordinal()], roundingModes[to.ordinal()]);
+    }
+
+    /**
+     * Loads the rates file again if it changed since the last load, returning whether new rates were swapped in.
+     */
+    public synchronized boolean refresh() {
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime(ratesFile);
+            if (modifiedTime.equals(loadedModifiedTime))
+                return false;
+
+            rates = parse(Files.readAllLines(ratesFile, StandardCharsets.UTF_8));
+            loadedModifiedTime = modifiedTime;
+
+            Logger.info("Loaded FX rates from {}", ratesFile);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read FX rates from " + ratesFile, e);
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            Logger.error("FX rate refresh failed, keeping the current rates", e);
+        }
+    }
+
+    private static BigDecimal[] parse(List<String> lines) {
+        BigDecimal[] parsed = new BigDecimal[CURRENCIES.length * CURRENCIES.length];
+        BigDecimal[] inverses = new BigDecimal[parsed.length];
+
+        for (int lineNo = 1; lineNo <= lines.size(); lineNo++) {
+            String line = lines.get(lineNo - 1).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split(",");
+            try {
+                if (fields.length != 3)
+                    throw new IllegalArgumentException("expected from,to,rate");
+
+                CurrencyEnum from = CurrencyEnum.valueOf(fields[0].trim());
+                CurrencyEnum to = CurrencyEnum.valueOf(fields[1].trim());
+                BigDecimal rate = new BigDecimal(fields[2].trim());
+
+                if (from == to || rate.signum() <= 0)
+                    throw new IllegalArgumentException("rate must be positive and between two currencies");
+
+                parsed[from.ordinal() * CURRENCIES.length + to.ordinal()] = rate;
+                inverses[to.ordinal() * CURRENCIES.length + from.ordinal()] =
+                        BigDecimal.ONE.divide(rate, MathContext.DECIMAL64);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        "Invalid FX rate on line " + lineNo + ": " + line + " - " + e.getMessage(), e);
+            }
+        }
+
+        // a rate given explicitly wins over the inverse of the opposite one
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] == null)
+                parsed[i] = inverses[i];
+        }
+
+        return parsed;
+    }
+
+    private static Path ratesFile(Configuration configuration) {
+        String ratesFile = configuration.getString("transfer.fx.rates-file", "");
+        return ratesFile.isEmpty() ? null : Paths.get(ratesFile);
+    }
+
+    private static Map<CurrencyEnum, Integer> scales(Configuration configuration) {
+        Map<CurrencyEnum, Integer> scales = new EnumMap<>(CurrencyEnum.class);
+        for (CurrencyEnum currency : CURRENCIES)
+            scales.put(currency, configuration.getInt("transfer.fx.rounding." + currency + ".scale", DEFAULT_SCALE));
+        return scales;
+    }
+
+    private static Map<CurrencyEnum, RoundingMode> roundingModes(Configuration configuration) {
+        Map<CurrencyEnum, RoundingMode> roundingModes = new EnumMap<>(CurrencyEnum.class);
+        for (CurrencyEnum currency : CURRENCIES)
+            roundingModes.put(currency, RoundingMode.valueOf(configuration.getString(
+                    "transfer.fx.rounding." + currency + ".mode", DEFAULT_ROUNDING_MODE.name())));
+        return roundingModes;
+    }
+}
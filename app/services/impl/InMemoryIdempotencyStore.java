@@ -0,0 +1,88 @@
+package services.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import exception.IdempotencyKeyMismatch;
+import play.Configuration;
+import services.IdempotencyStore;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Outcomes keyed by idempotency key along with the hash of the request that claimed the key, bounded in size and
+ * evicted a fixed time after the first attempt.
+ */
+@Singleton
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+    private final ConcurrentMap<String, Outcome> outcomes;
+
+    @Inject
+    public InMemoryIdempotencyStore(Configuration configuration) {
+        this(configuration.getLong("transfer.idempotency.max-keys", 100_000L),
+                configuration.getMilliseconds("transfer.idempotency.ttl", TimeUnit.HOURS.toMillis(24)));
+    }
+
+    public InMemoryIdempotencyStore(long maxKeys, long ttlMillis) {
+        Cache<String, Outcome> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.outcomes = cache.asMap();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletionStage<T> execute(String key, String requestHash, Supplier<CompletionStage<T>> action,
+                                          Predicate<T> retain) {
+        Outcome claim = new Outcome(requestHash);
+        Outcome existing = outcomes.putIfAbsent(key, claim);
+
+        if (existing != null) {
+            if (!existing.requestHash.equals(requestHash))
+                throw new IdempotencyKeyMismatch("Idempotency key " + key + " was used for another transfer");
+            return (CompletionStage<T>) existing.result;
+        }
+
+        CompletionStage<T> stage;
+        try {
+            stage = action.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            stage = failed;
+        }
+
+        stage.whenComplete((result, error) -> {
+            // forget before completing, so a caller reacting to this outcome starts afresh
+            if (error != null || !retain.test(result))
+                outcomes.remove(key, claim);
+
+            if (error != null)
+                claim.result.completeExceptionally(error);
+            else
+                claim.result.complete(result);
+        });
+
+        return (CompletionStage<T>) claim.result;
+    }
+
+    public long size() {
+        return outcomes.size();
+    }
+
+    private static class Outcome {
+        private final String requestHash;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Outcome(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountDao;
+import models.Account;
+import models.Account.CurrencyEnum;
+import play.Logger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authoritative in-memory copy of every account balance, loaded from the accounts table at startup, overlaid with
+ * the latest {@link LedgerSnapshotStore} snapshot and brought up to date by replaying the {@link TransferJournal}
+ * records past it. Accounts created after the load are pulled in the first
+ * time a transfer asks for them.
+ *
+ * Balances are only written while holding the account's lock from {@link services.AccountLockRegistry}.
+ */
+@Singleton
+public class InMemoryLedger {
+    private final AccountDao accountDao;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Long> recoveredAccountIds = new HashSet<>();
+    private final long snapshotSeq;
+
+    public InMemoryLedger(AccountDao accountDao) {
+        this(accountDao, TransferJournal.disabled());
+    }
+
+    public InMemoryLedger(AccountDao accountDao, TransferJournal journal) {
+        this(accountDao, journal, LedgerSnapshotStore.disabled());
+    }
+
+    @Inject
+    public InMemoryLedger(AccountDao accountDao, TransferJournal journal, LedgerSnapshotStore snapshotStore) {
+        this.accountDao = accountDao;
+
+        List<Account> accounts = accountDao.jpaApi().withTransaction(accountDao::getAllAccounts);
+        accounts.forEach(this::add);
+
+        // snapshot and journal balances are newer than the rows, which are only written behind
+        long[] unknown = new long[1];
+        this.snapshotSeq = !journal.isEnabled() ? 0 : snapshotStore.loadLatest((accountId, balance) -> {
+            Entry entry = entries.get(accountId);
+            if (entry == null)
+                unknown[0]++;
+            else if (entry.getBalance().compareTo(balance) != 0)
+                recover(accountId, balance);
+        }).orElse(0);
+
+        journal.recover(snapshotSeq + 1, record -> {
+            if (!recover(record.getFromAccountId(), record.getFromBalance()))
+                unknown[0]++;
+            if (!recover(record.getToAccountId(), record.getToBalance()))
+                unknown[0]++;
+        });
+
+        if (unknown[0] > 0)
+            Logger.warn("Skipped {} snapshot and journal balances of accounts missing from the database", unknown[0]);
+
+        Logger.info("In-memory ledger loaded with {} accounts, {} updated from the snapshot at sequence {} and the " +
+                "journal", entries.size(), recoveredAccountIds.size(), snapshotSeq);
+    }
+
+    /**
+     * Ledger entries of the given accounts. Ids missing from the ledger are read from the database, which needs
+     * an EntityManager bound to the calling thread; ids that do not exist at all are left out.
+     */
+    public List<Entry> getEntries(Collection<Long> accountIds) {
+        List<Entry> found = new ArrayList<>(accountIds.size());
+        List<Long> missing = new ArrayList<>();
+
+        for (Long accountId : accountIds) {
+            Entry entry = entries.get(accountId);
+            if (entry != null)
+                found.add(entry);
+            else
+                missing.add(accountId);
+        }
+
+        if (!missing.isEmpty())
+            accountDao.getAccounts(missing).forEach(account -> found.add(add(account)));
+
+        return found;
+    }
+
+    public Entry getEntry(Long accountId) {
+        return entries.get(accountId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Set<Long> getAccountIds() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Journal sequence of the snapshot the ledger was loaded from, 0 when there was none.
+     */
+    public long getSnapshotSeq() {
+        return snapshotSeq;
+    }
+
+    /**
+     * Accounts whose balance was restored from the snapshot or replayed from the journal at startup and may be
+     * ahead of their row.
+     */
+    public Set<Long> getRecoveredAccountIds() {
+        return Collections.unmodifiableSet(recoveredAccountIds);
+    }
+
+    private boolean recover(Long accountId, BigDecimal balance) {
+        Entry entry = entries.get(accountId);
+        if (entry == null)
+            return false;
+
+        entry.setBalance(balance);
+        recoveredAccountIds.add(accountId);
+        return true;
+    }
+
+    private Entry add(Account account) {
+        // an account already in the ledger keeps its entry, the database copy can only be older
+        return entries.computeIfAbsent(account.getId(), id -> new Entry(account));
+    }
+
+    public static final class Entry {
+        private final Long id;
+        private final CurrencyEnum currency;
+        private final Long customerId;
+        private volatile BigDecimal balance;
+
+        private Entry(Account account) {
+            this.id = account.getId();
+            this.currency = account.getCurrency();
+            this.customerId = account.getCustomerId();
+            this.balance = account.getBalance();
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        /**
+         * Caller must hold the account's lock.
+         */
+        public void setBalance(BigDecimal balance) {
+            this.balance = balance;
+        }
+
+        /**
+         * Detached view of the entry, safe to hand out to callers.
+         */
+        public Account toAccount() {
+            return Account.builder().id(id).currency(currency).customerId(customerId).balance(balance).build();
+        }
+    }
+}
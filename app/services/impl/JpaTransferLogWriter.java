@@ -0,0 +1,34 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import models.TransferLog;
+import play.db.jpa.JPAApi;
+import services.TransferLogWriter;
+
+/**
+ * Persists the log in the request's transaction up front. The entity stays managed, so its final status is
+ * written when that transaction commits, along with the daily rollups of the accounts.
+ */
+public class JpaTransferLogWriter implements TransferLogWriter {
+    private final JPAApi jpaApi;
+    private final AccountRollupDao rollupDao;
+
+    @Inject
+    public JpaTransferLogWriter(JPAApi jpaApi, AccountRollupDao rollupDao) {
+        this.jpaApi = jpaApi;
+        this.rollupDao = rollupDao;
+    }
+
+    @Override
+    public void begin(TransferLog transferLog) {
+        jpaApi.em().persist(transferLog);
+    }
+
+    @Override
+    public void complete(TransferLog transferLog) {
+        // the managed entity is flushed with the request transaction, the day follows its created_at
+        rollupDao.add(AccountDailyRollup.ofTransfer(transferLog, transferLog.getCreatedAt()));
+    }
+}
@@ -0,0 +1,254 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary images of the ledger balances, each tagged with the journal sequence it covers. A snapshot is written to
+ * a temporary file, fsynced and then renamed into place, so a crash never leaves a partial one behind.
+ *
+ * Layout: magic(4) version(4) seq(8), then per account id(8) unscaledBalance(8) scale(1), closed by an id of
+ * Long.MIN_VALUE, the entry count(8) and a crc32 of everything before it(4).
+ */
+@Singleton
+public class LedgerSnapshotStore {
+    private static final int MAGIC = 0x4C534E50;
+    private static final int VERSION = 1;
+    private static final long END_OF_ENTRIES = Long.MIN_VALUE;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d{20})\\.snap");
+
+    private final Path directory;
+    private final int retain;
+
+    @Inject
+    public LedgerSnapshotStore(Configuration configuration) {
+        this(Paths.get(configuration.getString("transfer.ledger.snapshot.dir", "data/snapshots")),
+                configuration.getInt("transfer.ledger.snapshot.retain", 2));
+    }
+
+    public LedgerSnapshotStore(Path directory, int retain) {
+        this.directory = directory;
+        this.retain = Math.max(1, retain);
+    }
+
+    /**
+     * Store without a directory, it never finds a snapshot.
+     */
+    public static LedgerSnapshotStore disabled() {
+        return new LedgerSnapshotStore(null, 1);
+    }
+
+    /**
+     * Writes a snapshot of the given accounts, reading each balance as it goes, and returns how many were written.
+     */
+    public long write(long seq, Iterable<Long> accountIds, Function<Long, BigDecimal> balanceOf) {
+        return write(seq, accountIds, balanceOf, () -> { });
+    }
+
+    /**
+     * As {@link #write(long, Iterable, Function)}, running beforePublish once the file is on disk and before it
+     * becomes visible under its final name. A snapshot it throws for is never published.
+     */
+    public long write(long seq, Iterable<Long> accountIds, Function<Long, BigDecimal> balanceOf,
+                      Runnable beforePublish) {
+        if (directory == null)
+            throw new IllegalStateException("Ledger snapshots are disabled");
+
+        Path target = directory.resolve(String.format("snapshot-%020d.snap", seq));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long count = 0;
+
+        try {
+            Files.createDirectories(directory);
+
+            CRC32 crc = new CRC32();
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(new CheckedOutputStream(file, crc), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(seq);
+
+                for (Long accountId : accountIds) {
+                    BigDecimal balance = balanceOf.apply(accountId);
+                    if (balance == null)
+                        continue;
+
+                    out.writeLong(accountId);
+                    out.writeLong(balance.unscaledValue().longValueExact());
+                    out.writeByte(balance.scale());
+                    count++;
+                }
+
+                out.writeLong(END_OF_ENTRIES);
+                out.writeLong(count);
+                out.flush();
+
+                // the checksum covers everything written so far, it is appended past the checked stream
+                new DataOutputStream(file).writeInt((int) crc.getValue());
+                file.getFD().sync();
+            }
+
+            beforePublish.run();
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            return count;
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new UncheckedIOException("Failed to write ledger snapshot " + target, e);
+        } catch (RuntimeException e) {
+            deleteQuietly(temp);
+            throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+
+    /**
+     * Hands the balances of the newest readable snapshot to the consumer and returns its journal sequence, or
+     * nothing when there is no usable snapshot. A snapshot failing its checksum is skipped for the one before it.
+     */
+    public OptionalLong loadLatest(BiConsumer<Long, BigDecimal> consumer) {
+        List<Path> snapshots = listSnapshots();
+        Collections.reverse(snapshots);
+
+        for (Path snapshot : snapshots) {
+            try {
+                // verified in a first pass, so a damaged file never hands out half of its balances
+                if (!verify(snapshot)) {
+                    Logger.warn("Ledger snapshot {} failed its checksum, trying an older one", snapshot);
+                    continue;
+                }
+
+                return OptionalLong.of(read(snapshot, consumer));
+            } catch (IOException e) {
+                Logger.warn("Ledger snapshot " + snapshot + " could not be read, trying an older one", e);
+            }
+        }
+
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Deletes all but the newest retained snapshots and returns the sequence of the oldest one kept. The journal
+     * is needed from just past that sequence onwards.
+     */
+    public OptionalLong prune() {
+        List<Path> snapshots = listSnapshots();
+        int excess = snapshots.size() - retain;
+
+        for (int i = 0; i < excess; i++) {
+            try {
+                Files.deleteIfExists(snapshots.get(i));
+            } catch (IOException e) {
+                Logger.warn("Failed to delete ledger snapshot " + snapshots.get(i), e);
+            }
+        }
+
+        return snapshots.isEmpty() ? OptionalLong.empty() : OptionalLong.of(seqOf(snapshots.get(Math.max(0, excess))));
+    }
+
+    private boolean verify(Path snapshot) throws IOException {
+        long size = Files.size(snapshot);
+        if (size < Integer.BYTES)
+            return false;
+
+        CRC32 crc = new CRC32();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = size - Integer.BYTES;
+
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                    return false;
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+
+            return new DataInputStream(in).readInt() == (int) crc.getValue();
+        }
+    }
+
+    private long read(Path snapshot, BiConsumer<Long, BigDecimal> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a ledger snapshot " + snapshot);
+
+            long seq = in.readLong();
+            long count = 0;
+
+            long accountId;
+            while ((accountId = in.readLong()) != END_OF_ENTRIES) {
+                long unscaled = in.readLong();
+                int scale = in.readByte();
+                consumer.accept(accountId, BigDecimal.valueOf(unscaled, scale));
+                count++;
+            }
+
+            if (in.readLong() != count)
+                throw new IOException("Entry count mismatch in " + snapshot);
+
+            Logger.info("Loaded {} balances from ledger snapshot at journal sequence {}", count, seq);
+            return seq;
+        } catch (EOFException e) {
+            throw new IOException("Truncated ledger snapshot " + snapshot, e);
+        }
+    }
+
+    private List<Path> listSnapshots() {
+        if (directory == null || !Files.isDirectory(directory))
+            return new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> SNAPSHOT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list ledger snapshots in " + directory, e);
+        }
+    }
+
+    private static long seqOf(Path snapshot) {
+        Matcher matcher = SNAPSHOT_NAME.matcher(snapshot.getFileName().toString());
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Not a ledger snapshot " + snapshot);
+        return Long.parseLong(matcher.group(1));
+    }
+}
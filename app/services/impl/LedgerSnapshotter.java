@@ -0,0 +1,127 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import services.AccountLockRegistry;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Background snapshotter for the {@link InMemoryLedger}. Every snapshot interval it writes the balances to the
+ * {@link LedgerSnapshotStore}, tagged with the journal sequence they cover, then compacts the journal segments no
+ * retained snapshot needs any more. One last snapshot is taken on shutdown, so the next start replays next to
+ * nothing.
+ *
+ * Transfers keep running while a snapshot is written. The sequence is read first and each balance is read under
+ * its account lock, so the snapshot holds every record up to the sequence and maybe some after it; replaying those
+ * again is harmless since records carry absolute balances. Those later records are forced to disk before the
+ * snapshot is published, so a crash never leaves a snapshot holding balances the journal lost.
+ */
+@Singleton
+public class LedgerSnapshotter {
+    private final InMemoryLedger ledger;
+    private final AccountLockRegistry lockRegistry;
+    private final TransferJournal journal;
+    private final LedgerSnapshotStore snapshotStore;
+    private final Path archiveDirectory;
+
+    // guarded by this
+    private long lastSnapshotSeq;
+
+    @Inject
+    public LedgerSnapshotter(InMemoryLedger ledger, AccountLockRegistry lockRegistry, TransferJournal journal,
+                             LedgerSnapshotStore snapshotStore, Configuration configuration,
+                             ApplicationLifecycle lifecycle) {
+        this(ledger, lockRegistry, journal, snapshotStore, archiveDirectory(configuration));
+
+        if (!journal.isEnabled() || !configuration.getBoolean("transfer.ledger.snapshot.enabled", true))
+            return;
+
+        long intervalMillis = configuration.getMilliseconds("transfer.ledger.snapshot.interval",
+                TimeUnit.MINUTES.toMillis(5));
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::snapshotQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        // registered after the journal's, so it runs before the journal is closed
+        lifecycle.addStopHook(() -> {
+            executor.shutdownNow();
+            snapshotQuietly();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public LedgerSnapshotter(InMemoryLedger ledger, AccountLockRegistry lockRegistry, TransferJournal journal,
+                             LedgerSnapshotStore snapshotStore, Path archiveDirectory) {
+        this.ledger = ledger;
+        this.lockRegistry = lockRegistry;
+        this.journal = journal;
+        this.snapshotStore = snapshotStore;
+        this.archiveDirectory = archiveDirectory;
+        this.lastSnapshotSeq = ledger.getSnapshotSeq();
+    }
+
+    /**
+     * Writes a snapshot unless nothing was journaled since the last one, and returns the sequence it covers.
+     */
+    public synchronized long snapshot() {
+        if (!journal.isEnabled())
+            return 0;
+
+        long seq = journal.getWrittenSeq();
+        if (seq == lastSnapshotSeq)
+            return seq;
+
+        long startedAt = System.nanoTime();
+        long count = snapshotStore.write(seq, ledger.getAccountIds(), this::lockedBalance,
+                () -> journal.awaitForced(journal.getWrittenSeq()));
+        lastSnapshotSeq = seq;
+
+        // the oldest retained snapshot is the fallback when a newer one is damaged, keep the journal it needs
+        long retainedSeq = snapshotStore.prune().orElse(seq);
+        int removed = journal.compact(retainedSeq, archiveDirectory);
+
+        Logger.info("Ledger snapshot of {} balances at journal sequence {} written in {} ms, {} journal segments {}",
+                count, seq, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), removed,
+                archiveDirectory == null ? "deleted" : "archived");
+        return seq;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            Logger.error("Ledger snapshot failed, will retry", e);
+        }
+    }
+
+    private BigDecimal lockedBalance(Long accountId) {
+        Lock lock = lockRegistry.getLock(accountId);
+        lock.lock();
+        try {
+            InMemoryLedger.Entry entry = ledger.getEntry(accountId);
+            return entry == null ? null : entry.getBalance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Path archiveDirectory(Configuration configuration) {
+        String archiveDir = configuration.getString("transfer.ledger.snapshot.archive-dir", "");
+        return archiveDir.isEmpty() ? null : Paths.get(archiveDir);
+    }
+}
@@ -0,0 +1,144 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import exception.InsufficientBalance;
+import exception.LockTimeoutException;
+import models.Account;
+import play.Logger;
+import services.AccountLockRegistry;
+import services.TransferEngine;
+import services.TransferLeg;
+import services.impl.InMemoryLedger.Entry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+/**
+ * Moves balances in the {@link InMemoryLedger} only. The rows and logs are written to the database afterwards by
+ * the {@link WriteBehindWriter}, so the critical section is a couple of in-memory updates. Every change is written
+ * to the {@link TransferJournal} first, and a transfer returns once its journal record is on disk.
+ */
+@Singleton
+public class LedgerTransferEngine implements TransferEngine {
+    private final InMemoryLedger ledger;
+    private final AccountLockRegistry lockRegistry;
+    private final LockAcquisitionPolicy lockAcquisitionPolicy;
+    private final WriteBehindWriter writeBehindWriter;
+    private final TransferJournal journal;
+
+    @Inject
+    public LedgerTransferEngine(InMemoryLedger ledger, AccountLockRegistry lockRegistry,
+                                LockAcquisitionPolicy lockAcquisitionPolicy, WriteBehindWriter writeBehindWriter,
+                                TransferJournal journal) {
+        this.ledger = ledger;
+        this.lockRegistry = lockRegistry;
+        this.lockAcquisitionPolicy = lockAcquisitionPolicy;
+        this.writeBehindWriter = writeBehindWriter;
+        this.journal = journal;
+    }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        return ledger.getEntries(accountIds).stream().map(Entry::toAccount).collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount) {
+        final List<Lock> locks = lockRegistry.getOrderedLocks(Arrays.asList(from.getId(), to.getId()));
+
+        if (!lockAcquisitionPolicy.acquireAll(locks))
+            return false;
+
+        long seq;
+
+        try {
+            Entry fromEntry = ledger.getEntry(from.getId());
+            Entry toEntry = ledger.getEntry(to.getId());
+
+            if (amount.compareTo(fromEntry.getBalance()) > 0)
+                throw new InsufficientBalance("The balance in the account not sufficient for this transfer");
+
+            BigDecimal fromBalance = fromEntry.getBalance().subtract(amount);
+            BigDecimal toBalance = toEntry.getBalance().add(creditAmount);
+
+            // journaled under the locks, so the records of an account are in the order its balance changed
+            seq = journal.append(new TransferJournal.Record(from.getId(), to.getId(), amount, fromBalance, toBalance));
+
+            fromEntry.setBalance(fromBalance);
+            toEntry.setBalance(toBalance);
+        } finally {
+            lockAcquisitionPolicy.releaseAll(locks);
+        }
+
+        journal.awaitDurable(seq);
+
+        Logger.debug("Transferred funds={}, between account={} to account={}", amount, from.getId(), to.getId());
+
+        writeBehindWriter.markDirty(from.getId());
+        writeBehindWriter.markDirty(to.getId());
+        return true;
+    }
+
+    @Override
+    public Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic) {
+        Set<Long> accountIds = new HashSet<>();
+        legs.forEach(leg -> {
+            accountIds.add(leg.getFrom().getId());
+            accountIds.add(leg.getTo().getId());
+        });
+
+        final List<Lock> locks = lockRegistry.getOrderedLocks(accountIds);
+
+        if (!lockAcquisitionPolicy.acquireAll(locks))
+            throw new LockTimeoutException("Accounts are busy, transfers not attempted");
+
+        Map<Integer, RuntimeException> rejected = new HashMap<>();
+        List<TransferJournal.Record> records = new ArrayList<>(legs.size());
+        long seq;
+
+        try {
+            // work on a scratch copy so that an atomic group can be abandoned without touching the ledger
+            Map<Long, BigDecimal> balances = new HashMap<>();
+            accountIds.forEach(id -> balances.put(id, ledger.getEntry(id).getBalance()));
+
+            for (int i = 0; i < legs.size(); i++) {
+                TransferLeg leg = legs.get(i);
+                Long fromId = leg.getFrom().getId();
+                Long toId = leg.getTo().getId();
+
+                if (leg.getAmount().compareTo(balances.get(fromId)) > 0) {
+                    InsufficientBalance e = new InsufficientBalance("The balance in the account not sufficient for this transfer");
+                    if (atomic)
+                        throw e;
+
+                    rejected.put(i, e);
+                    continue;
+                }
+
+                balances.put(fromId, balances.get(fromId).subtract(leg.getAmount()));
+                balances.put(toId, balances.get(toId).add(leg.getCreditAmount()));
+                records.add(new TransferJournal.Record(fromId, toId, leg.getAmount(), balances.get(fromId), balances.get(toId)));
+            }
+
+            seq = journal.appendAll(records);
+            balances.forEach((id, balance) -> ledger.getEntry(id).setBalance(balance));
+        } finally {
+            lockAcquisitionPolicy.releaseAll(locks);
+        }
+
+        journal.awaitDurable(seq);
+
+        accountIds.forEach(writeBehindWriter::markDirty);
+        return rejected;
+    }
+}
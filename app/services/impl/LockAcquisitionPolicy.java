@@ -0,0 +1,124 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Acquires a set of ordered locks with bounded waiting. Each lock is tried with a timeout, and when the whole
+ * set cannot be taken every held lock is released and the attempt is repeated after a jittered exponential
+ * backoff, until the maximum wait is spent. Contention is therefore resolved in the JVM rather than by clients
+ * retrying over HTTP.
+ */
+@Singleton
+public class LockAcquisitionPolicy {
+    private final long tryLockTimeoutMillis;
+    private final long maxWaitMillis;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    @Inject
+    public LockAcquisitionPolicy(Configuration configuration) {
+        this(configuration.getMilliseconds("transfer.lock.acquire.try-timeout", 50L),
+                configuration.getMilliseconds("transfer.lock.acquire.max-wait", 2000L),
+                configuration.getMilliseconds("transfer.lock.acquire.backoff-base", 5L),
+                configuration.getMilliseconds("transfer.lock.acquire.backoff-max", 200L));
+    }
+
+    public LockAcquisitionPolicy(long tryLockTimeoutMillis, long maxWaitMillis, long backoffBaseMillis, long backoffMaxMillis) {
+        this.tryLockTimeoutMillis = tryLockTimeoutMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.backoffBaseMillis = Math.max(1L, backoffBaseMillis);
+        this.backoffMaxMillis = Math.max(this.backoffBaseMillis, backoffMaxMillis);
+    }
+
+    /**
+     * Acquires all the given locks in list order. Returns false when they could not all be taken within the
+     * maximum wait, in which case none of them is held.
+     */
+    public boolean acquireAll(List<Lock> locks) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        int attempt = 0;
+
+        while (true) {
+            int acquired = tryAcquire(locks);
+            if (acquired == locks.size())
+                return true;
+
+            release(locks, acquired);
+
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0 || Thread.currentThread().isInterrupted()) {
+                timeouts.increment();
+                Logger.warn("Gave up acquiring account locks after {} attempts", attempt + 1);
+                return false;
+            }
+
+            retries.increment();
+            if (!sleep(Math.min(backoff(attempt++), remainingMillis))) {
+                timeouts.increment();
+                return false;
+            }
+        }
+    }
+
+    public void releaseAll(List<Lock> locks) {
+        release(locks, locks.size());
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    private int tryAcquire(List<Lock> locks) {
+        int acquired = 0;
+
+        try {
+            for (Lock lock : locks) {
+                if (!lock.tryLock(tryLockTimeoutMillis, TimeUnit.MILLISECONDS))
+                    break;
+                acquired++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return acquired;
+    }
+
+    private void release(List<Lock> locks, int acquired) {
+        // release in reverse order of acquisition
+        for (int i = acquired - 1; i >= 0; i--)
+            locks.get(i).unlock();
+    }
+
+    private long backoff(int attempt) {
+        // full jitter: a random sleep up to the exponentially growing cap
+        long cap = attempt >= 30 ? backoffMaxMillis : Math.min(backoffMaxMillis, backoffBaseMillis << attempt);
+        return ThreadLocalRandom.current().nextLong(cap) + 1;
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountDao;
+import dao.AccountSubBalanceDao;
+import exception.InsufficientBalance;
+import exception.LockTimeoutException;
+import models.Account;
+import play.Logger;
+import services.AccountLockRegistry;
+import services.HotAccountRegistry;
+import services.TransferEngine;
+import services.TransferLeg;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Default engine - takes the striped locks of both accounts and updates the rows in a single transaction.
+ *
+ * A credit to a hot account, see {@link HotAccountRegistry}, is added to one of its sub-balances in place and needs
+ * no lock; only the sender is locked. Debits of a hot account are still taken under its lock, from the row first and
+ * from the sub-balances, drained into the row, when the row alone does not cover them.
+ */
+@Singleton
+public class LockingTransferEngine implements TransferEngine {
+    private final AccountDao accountDao;
+    private final AccountLockRegistry lockRegistry;
+    private final LockAcquisitionPolicy lockAcquisitionPolicy;
+    private final HotAccountRegistry hotAccounts;
+    private final AccountSubBalanceDao subBalanceDao;
+
+    public LockingTransferEngine(AccountDao accountDao, AccountLockRegistry lockRegistry, LockAcquisitionPolicy lockAcquisitionPolicy) {
+        this(accountDao, lockRegistry, lockAcquisitionPolicy, DetectingHotAccountRegistry.disabled(), null);
+    }
+
+    @Inject
+    public LockingTransferEngine(AccountDao accountDao, AccountLockRegistry lockRegistry, LockAcquisitionPolicy lockAcquisitionPolicy,
+                                 HotAccountRegistry hotAccounts, AccountSubBalanceDao subBalanceDao) {
+        this.accountDao = accountDao;
+        this.lockRegistry = lockRegistry;
+        this.lockAcquisitionPolicy = lockAcquisitionPolicy;
+        this.hotAccounts = hotAccounts;
+        this.subBalanceDao = subBalanceDao;
+    }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        return accountDao.lookupAccounts(accountIds);
+    }
+
+    @Override
+    public boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount) {
+        boolean hotReceiver = hotAccounts.isHot(to.getId());
+        if (!hotReceiver)
+            hotAccounts.recordCredit(to.getId());
+
+        // locks come back in the registry's global order, which avoids deadlock
+        final List<Lock> locks = lockRegistry.getOrderedLocks(hotReceiver ?
+                Collections.singletonList(from.getId()) : Arrays.asList(from.getId(), to.getId()));
+
+        if (!lockAcquisitionPolicy.acquireAll(locks))
+            return false;
+
+        try {
+            Logger.info("Transferring funds={}, between account={} to account={}", amount, from.getId(), to.getId());
+
+            List<Account> changed = accountDao.jpaApi().withTransaction("default", false, em -> {
+                // re-read under the lock, the accounts loaded for validation may already be stale
+                Account lockedFrom = em.find(Account.class, from.getId());
+
+                if (!debit(lockedFrom, amount))
+                    throw new InsufficientBalance("The balance in the account not sufficient for this transfer");
+
+                if (hotReceiver) {
+                    subBalanceDao.credit(to.getId(), hotAccounts.pickSlot(to.getId()), creditAmount);
+                    return Collections.singletonList(lockedFrom);
+                }
+
+                Account lockedTo = em.find(Account.class, to.getId());
+                lockedTo.setBalance(lockedTo.getBalance().add(creditAmount));
+                return Arrays.asList(lockedFrom, lockedTo);
+            });
+
+            publishCommitted(changed);
+            if (hotReceiver)
+                accountDao.evict(Collections.singletonList(to.getId()));
+
+            return true;
+        } finally {
+            lockAcquisitionPolicy.releaseAll(locks);
+        }
+    }
+
+    @Override
+    public Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic) {
+        Set<Long> accountIds = new HashSet<>();
+        Set<Long> lockedIds = new HashSet<>();
+        legs.forEach(leg -> {
+            accountIds.add(leg.getFrom().getId());
+            accountIds.add(leg.getTo().getId());
+            lockedIds.add(leg.getFrom().getId());
+            if (!hotAccounts.isHot(leg.getTo().getId()))
+                lockedIds.add(leg.getTo().getId());
+        });
+
+        // one lock acquisition and one transaction for the whole group, hot receivers need none
+        final List<Lock> locks = lockRegistry.getOrderedLocks(lockedIds);
+
+        if (!lockAcquisitionPolicy.acquireAll(locks))
+            throw new LockTimeoutException("Accounts are busy, transfers not attempted");
+
+        try {
+            List<Account> changed = new ArrayList<>();
+            Map<Integer, RuntimeException> rejectedLegs = accountDao.jpaApi().withTransaction("default", false, em -> {
+                Map<Long, Account> lockedAccounts = accountDao.getAccounts(accountIds).stream()
+                        .collect(Collectors.toMap(Account::getId, Function.identity()));
+                Map<Integer, RuntimeException> rejected = new HashMap<>();
+
+                for (int i = 0; i < legs.size(); i++) {
+                    TransferLeg leg = legs.get(i);
+                    Account lockedFrom = lockedAccounts.get(leg.getFrom().getId());
+                    Account lockedTo = lockedAccounts.get(leg.getTo().getId());
+
+                    if (!debit(lockedFrom, leg.getAmount())) {
+                        InsufficientBalance e = new InsufficientBalance("The balance in the account not sufficient for this transfer");
+                        if (atomic)
+                            throw e;
+
+                        rejected.put(i, e);
+                        continue;
+                    }
+
+                    if (hotAccounts.isHot(lockedTo.getId()))
+                        subBalanceDao.credit(lockedTo.getId(), hotAccounts.pickSlot(lockedTo.getId()),
+                                leg.getCreditAmount());
+                    else
+                        lockedTo.setBalance(lockedTo.getBalance().add(leg.getCreditAmount()));
+                }
+
+                Logger.info("Transferred {} of {} grouped transfers", legs.size() - rejected.size(), legs.size());
+                changed.addAll(lockedAccounts.values());
+                return rejected;
+            });
+
+            publishCommitted(changed);
+            return rejectedLegs;
+        } finally {
+            lockAcquisitionPolicy.releaseAll(locks);
+        }
+    }
+
+    /**
+     * Hands the committed accounts to the account cache. Hot accounts are evicted instead, their sub-balances
+     * changed underneath the entity.
+     */
+    private void publishCommitted(Collection<Account> accounts) {
+        Map<Boolean, List<Account>> byHot = accounts.stream()
+                .collect(Collectors.partitioningBy(account -> hotAccounts.isHot(account.getId())));
+
+        accountDao.committed(byHot.get(false));
+        if (!byHot.get(true).isEmpty())
+            accountDao.evict(byHot.get(true).stream().map(Account::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Takes the amount off the locked account, returning false and leaving it untouched when it cannot cover it.
+     */
+    private boolean debit(Account from, BigDecimal transferAmount) {
+        // a hot account's credits sit in its sub-balances until a debit needs them
+        if (!hasSufficientBalance(from, transferAmount) && hotAccounts.isHot(from.getId()))
+            from.setBalance(from.getBalance().add(subBalanceDao.drain(from.getId())));
+
+        if (!hasSufficientBalance(from, transferAmount))
+            return false;
+
+        from.setBalance(from.getBalance().subtract(transferAmount));
+        return true;
+    }
+
+    private boolean hasSufficientBalance(Account from, BigDecimal transferAmount) {
+        return transferAmount.compareTo(from.getBalance()) <= 0;
+    }
+}
@@ -0,0 +1,166 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import exception.LockTimeoutException;
+import models.Account;
+import org.apache.commons.lang3.tuple.Pair;
+import play.Configuration;
+import play.Logger;
+import services.TransferEngine;
+import services.TransferLeg;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Opt-in front for the {@link LockingTransferEngine}. Transfers between the same ordered pair of accounts that
+ * arrive within the netting window are collected and handed to {@link TransferEngine#transferAll} as one group -
+ * one lock acquisition and one transaction, each transfer still checked against the running balance, and one net
+ * update per account at commit. A hot pair costs one commit per window instead of one per transfer.
+ *
+ * The first transfer of a window leads it: it waits out the window, or until max-transfers have joined, then
+ * applies the group while the others wait for their own outcome.
+ */
+@Singleton
+public class NettingTransferEngine implements TransferEngine {
+    private final TransferEngine delegate;
+    private final long windowNanos;
+    private final int maxTransfers;
+
+    private final ConcurrentMap<Pair<Long, Long>, Window> windows = new ConcurrentHashMap<>();
+
+    @Inject
+    public NettingTransferEngine(LockingTransferEngine delegate, Configuration configuration) {
+        this(delegate,
+                configuration.getMilliseconds("transfer.netting.window", 2L),
+                configuration.getInt("transfer.netting.max-transfers", 64));
+    }
+
+    public NettingTransferEngine(TransferEngine delegate, long windowMillis, int maxTransfers) {
+        if (maxTransfers <= 0)
+            throw new IllegalArgumentException("Netting max-transfers must be positive, found " + maxTransfers);
+
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxTransfers = maxTransfers;
+    }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        return delegate.getAccounts(accountIds);
+    }
+
+    @Override
+    public boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount) {
+        Pair<Long, Long> pair = Pair.of(from.getId(), to.getId());
+        Pending pending = new Pending(new TransferLeg(from, to, amount, creditAmount));
+        Window window;
+        boolean leader;
+
+        while (true) {
+            window = windows.computeIfAbsent(pair, key -> new Window());
+
+            synchronized (window) {
+                // closed windows are on their way out of the map, join the next one
+                if (window.closed)
+                    continue;
+
+                window.pending.add(pending);
+                leader = window.pending.size() == 1;
+
+                if (window.pending.size() >= maxTransfers)
+                    window.notifyAll();
+                break;
+            }
+        }
+
+        if (leader)
+            lead(pair, window);
+
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Groups are already applied together, they go straight to the delegate.
+     */
+    @Override
+    public Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic) {
+        return delegate.transferAll(legs, atomic);
+    }
+
+    private void lead(Pair<Long, Long> pair, Window window) {
+        List<Pending> group;
+
+        synchronized (window) {
+            long deadline = System.nanoTime() + windowNanos;
+            long remaining;
+
+            try {
+                while (window.pending.size() < maxTransfers && (remaining = deadline - System.nanoTime()) > 0)
+                    TimeUnit.NANOSECONDS.timedWait(window, remaining);
+            } catch (InterruptedException e) {
+                // the followers are counting on this thread, apply what has been collected so far
+                Thread.currentThread().interrupt();
+            }
+
+            window.closed = true;
+            group = window.pending;
+        }
+
+        windows.remove(pair, window);
+        apply(group);
+    }
+
+    private void apply(List<Pending> group) {
+        List<TransferLeg> legs = group.stream().map(pending -> pending.leg).collect(Collectors.toList());
+
+        try {
+            Map<Integer, RuntimeException> rejected = delegate.transferAll(legs, false);
+
+            for (int i = 0; i < group.size(); i++) {
+                if (rejected.containsKey(i))
+                    group.get(i).result.completeExceptionally(rejected.get(i));
+                else
+                    group.get(i).result.complete(true);
+            }
+
+            Logger.debug("Netted {} transfers between account={} and account={}", group.size(),
+                    legs.get(0).getFrom().getId(), legs.get(0).getTo().getId());
+        } catch (LockTimeoutException e) {
+            group.forEach(pending -> pending.result.complete(false));
+        } catch (RuntimeException e) {
+            group.forEach(pending -> pending.result.completeExceptionally(e));
+        }
+    }
+
+    private static final class Window {
+        // guarded by the window's monitor
+        private final List<Pending> pending = new ArrayList<>();
+        private boolean closed;
+    }
+
+    private static final class Pending {
+        private final TransferLeg leg;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Pending(TransferLeg leg) {
+            this.leg = leg;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountDao;
+import exception.InsufficientBalance;
+import exception.NoAccountFoundException;
+import models.Account;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import services.TransferEngine;
+import services.TransferLeg;
+import utils.MpscRingBuffer;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Single-writer engine. Every account id hashes to one of N shards, and each shard thread is the only writer of
+ * the balances it owns, draining its commands from a lock-free ring buffer. A transfer is a debit command on the
+ * sender's shard followed by a credit command on the receiver's shard, so no request thread ever hands a lock
+ * to another.
+ *
+ * A shard reads an account's balance and version from the database, on its own thread, the first time a command
+ * for it comes in; the entity read when the request arrived may already be behind. The stored rows are only moved by
+ * deltas, and every committed change carries the row version its update produced: a credit that committed before the
+ * shard read the row is not counted twice, and the shard knows which version the row is at. A debit of an account
+ * with no reserve in flight re-reads the row and reloads the balance when its version is not that one, the row was
+ * then changed outside the shard. Each shard keeps at most max-accounts balances, dropping the least recently used.
+ */
+@Singleton
+public class PartitionedTransferEngine implements TransferEngine {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int DEFAULT_MAX_ACCOUNTS = 100_000;
+
+    private final AccountDao accountDao;
+    private final Shard[] shards;
+
+    @Inject
+    public PartitionedTransferEngine(AccountDao accountDao, Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(accountDao,
+                configuration.getInt("transfer.partitioned.shards", Runtime.getRuntime().availableProcessors()),
+                configuration.getInt("transfer.partitioned.ring-size", 4096),
+                configuration.getInt("transfer.partitioned.max-accounts", DEFAULT_MAX_ACCOUNTS));
+
+        lifecycle.addStopHook(() -> {
+            shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public PartitionedTransferEngine(AccountDao accountDao, int shardCount, int ringSize) {
+        this(accountDao, shardCount, ringSize, DEFAULT_MAX_ACCOUNTS);
+    }
+
+    public PartitionedTransferEngine(AccountDao accountDao, int shardCount, int ringSize, int maxAccounts) {
+        if (shardCount <= 0)
+            throw new IllegalArgumentException("Shard count must be positive, found " + shardCount);
+        if (maxAccounts <= 0)
+            throw new IllegalArgumentException("Max accounts per shard must be positive, found " + maxAccounts);
+
+        this.accountDao = accountDao;
+        this.shards = new Shard[shardCount];
+
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = new Shard(i, ringSize, maxAccounts, this::readStored);
+    }
+
+    @Override
+    public List<Account> getAccounts(Collection<Long> accountIds) {
+        return accountDao.lookupAccounts(accountIds);
+    }
+
+    @Override
+    public boolean transfer(Account from, Account to, BigDecimal amount, BigDecimal creditAmount) {
+        Logger.info("Transferring funds={}, between account={} to account={}", amount, from.getId(), to.getId());
+
+        applyGroup(Collections.singletonList(new TransferLeg(from, to, amount, creditAmount)));
+        return true;
+    }
+
+    /**
+     * Atomic groups are reserved on the senders' shards up front and written in one transaction, see
+     * {@link #applyGroup}.
+     */
+    @Override
+    public Map<Integer, RuntimeException> transferAll(List<TransferLeg> legs, boolean atomic) {
+        if (!atomic)
+            return transferEach(legs);
+
+        applyGroup(legs);
+        Logger.info("Transferred {} grouped transfers", legs.size());
+        return Collections.emptyMap();
+    }
+
+    public void shutdown() {
+        for (Shard shard : shards)
+            shard.stop();
+    }
+
+    int shardIndexOf(Long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & Integer.MAX_VALUE) % shards.length;
+    }
+
+    private Shard shardOf(Long accountId) {
+        return shards[shardIndexOf(accountId)];
+    }
+
+    /**
+     * Applies every leg or none. A leg may spend funds credited by an earlier leg of the group, so each sender gets
+     * only the deepest it falls below its balance along the group reserved on its shard; that covers every leg
+     * from funds already committed. The net change of each account is then written in one transaction, and what
+     * a sender's reserve exceeds its net change is given back to its shard.
+     */
+    private void applyGroup(List<TransferLeg> legs) {
+        // running change of each account along the group, and the deepest each sender falls on the way
+        Map<Long, BigDecimal> deltas = new TreeMap<>();
+        Map<Long, BigDecimal> reserves = new TreeMap<>();
+        for (TransferLeg leg : legs) {
+            Long fromId = leg.getFrom().getId();
+            BigDecimal fromDelta = deltas.getOrDefault(fromId, BigDecimal.ZERO).subtract(leg.getAmount());
+            deltas.put(fromId, fromDelta);
+            reserves.merge(fromId, fromDelta.negate(), BigDecimal::max);
+            deltas.merge(leg.getTo().getId(), leg.getCreditAmount(), BigDecimal::add);
+        }
+        reserves.values().removeIf(reserve -> reserve.signum() <= 0);
+
+        // the debits reserve the funds on the senders' shards before anything is written
+        Map<Long, BigDecimal> reserved = new TreeMap<>();
+        Map<Long, Long> committedVersions;
+        try {
+            for (Map.Entry<Long, BigDecimal> reserve : reserves.entrySet()) {
+                if (!shardOf(reserve.getKey()).execute(new Command(Command.Kind.DEBIT, reserve.getKey(),
+                        reserve.getValue(), null)))
+                    throw new InsufficientBalance("The balance in the account not sufficient for this transfer");
+                reserved.put(reserve.getKey(), reserve.getValue());
+            }
+
+            committedVersions = accountDao.jpaApi().withTransaction("default", false, em -> {
+                // rows in id order, so groups sharing accounts cannot deadlock on the row locks
+                deltas.forEach((accountId, delta) -> {
+                    if (delta.signum() != 0)
+                        accountDao.adjustBalance(accountId, delta);
+                });
+
+                // the changed rows are locked by the updates, the versions read are the ones these changes produced
+                Map<Long, Long> versions = new HashMap<>();
+                deltas.forEach((accountId, delta) -> {
+                    if (delta.signum() != 0)
+                        accountDao.readAccount(accountId).ifPresent(account ->
+                                versions.put(accountId, account.getVersion()));
+                });
+                return versions;
+            });
+        } catch (RuntimeException e) {
+            // give the reserved funds back, the receivers' shards have not been touched yet
+            reserved.forEach((accountId, reserve) ->
+                    shardOf(accountId).submit(new Command(Command.Kind.RELEASE, accountId, reserve, null)));
+            throw e;
+        }
+
+        // a credit cannot fail, and commands to a shard are applied in submission order, so once these are queued
+        // any later debit of the receivers sees the funds
+        deltas.forEach((accountId, delta) -> {
+            BigDecimal reserve = reserved.get(accountId);
+            if (reserve != null) {
+                // the sender's shard read the row before the commit, the change is never in it
+                shardOf(accountId).submit(new Command(Command.Kind.RELEASE, accountId, reserve.add(delta),
+                        committedVersions.get(accountId)));
+            } else if (delta.signum() != 0) {
+                shardOf(accountId).submit(new Command(Command.Kind.CREDIT, accountId, delta,
+                        committedVersions.get(accountId)));
+            }
+        });
+    }
+
+    private Account readStored(Long accountId) {
+        return accountDao.jpaApi().withTransaction("default", true, em -> accountDao.readAccount(accountId)
+                .map(Account::copy)
+                .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + accountId)));
+    }
+
+    private static final class Command {
+        // a release ends a reserve taken by a debit, handing back what the committed change did not spend
+        enum Kind {DEBIT, RELEASE, CREDIT}
+
+        private final Kind kind;
+        private final Long accountId;
+        private final BigDecimal amount;
+        // version of the row once the committed change was applied to it, null when nothing was committed
+        private final Long committedVersion;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Command(Kind kind, Long accountId, BigDecimal amount, Long committedVersion) {
+            this.kind = kind;
+            this.accountId = accountId;
+            this.amount = amount;
+            this.committedVersion = committedVersion;
+        }
+
+        void apply(Map<Long, Slot> slots, Function<Long, Account> reader) {
+            Slot slot = slots.get(accountId);
+            if (slot == null) {
+                slot = new Slot(reader.apply(accountId));
+                slots.put(accountId, slot);
+            } else if (kind == Kind.DEBIT && slot.reserves == 0) {
+                // nothing of the shard's own is in flight, a row at another version was changed elsewhere
+                Account stored = reader.apply(accountId);
+                if (Slot.versionOf(stored) != slot.version)
+                    slot.reload(stored);
+            }
+
+            if (kind == Kind.DEBIT) {
+                if (slot.balance.compareTo(amount) < 0) {
+                    result.complete(false);
+                    return;
+                }
+
+                slot.balance = slot.balance.subtract(amount);
+                slot.reserves++;
+            } else if (kind == Kind.RELEASE) {
+                slot.reserves--;
+                slot.balance = slot.balance.add(amount);
+                slot.committed(committedVersion);
+            } else if (committedVersion == null || committedVersion > slot.readVersion) {
+                // a credit committed before the row was read is already in the balance read
+                slot.balance = slot.balance.add(amount);
+                slot.committed(committedVersion);
+            }
+
+            result.complete(true);
+        }
+    }
+
+    /**
+     * A shard's view of one account, only ever touched by the shard thread.
+     */
+    private static final class Slot {
+        private BigDecimal balance;
+        // version of the row when the balance was read, committed changes up to it are already in the balance
+        private long readVersion;
+        // version the row is at once every change committed since the read is counted
+        private long version;
+        // debits reserved on the shard whose transaction has not come back yet, the row is behind the balance
+        private int reserves;
+
+        Slot(Account stored) {
+            reload(stored);
+        }
+
+        void reload(Account stored) {
+            balance = stored.getBalance();
+            readVersion = versionOf(stored);
+            version = readVersion;
+        }
+
+        void committed(Long committedVersion) {
+            if (committedVersion != null && committedVersion > readVersion)
+                version++;
+        }
+
+        static long versionOf(Account stored) {
+            return stored.getVersion() == null ? 0L : stored.getVersion();
+        }
+    }
+
+    private static final class Shard implements Runnable {
+        private final MpscRingBuffer<Command> commands;
+        private final Function<Long, Account> reader;
+        // only ever touched by the shard thread, least recently used first
+        private final Map<Long, Slot> slots;
+        private final Thread thread;
+
+        private volatile boolean running = true;
+
+        Shard(int index, int ringSize, int maxAccounts, Function<Long, Account> reader) {
+            this.commands = new MpscRingBuffer<>(ringSize);
+            this.reader = reader;
+            this.slots = new LinkedHashMap<Long, Slot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Slot> eldest) {
+                    // a balance with a reserve in flight is ahead of its row and cannot be read back from it
+                    return size() > maxAccounts && eldest.getValue().reserves == 0;
+                }
+            };
+            this.thread = new Thread(this, "transfer-shard-" + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        boolean execute(Command command) {
+            submit(command);
+            try {
+                return command.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            }
+        }
+
+        void submit(Command command) {
+            // back-pressure: wait for the shard to make room rather than dropping the command
+            while (!commands.offer(command)) {
+                if (!running)
+                    throw new IllegalStateException("Transfer engine is shut down");
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            // keep draining after stop so that no accepted command is left without an outcome
+            while (running || !commands.isEmpty()) {
+                if (commands.drain(this::apply, 256) == 0)
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        private void apply(Command command) {
+            try {
+                command.apply(slots, reader);
+            } catch (RuntimeException e) {
+                Logger.error("Failed to apply " + command.kind + " on account " + command.accountId, e);
+                command.result.completeExceptionally(e);
+            }
+        }
+    }
+}
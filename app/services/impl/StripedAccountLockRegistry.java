@@ -0,0 +1,75 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import services.AccountLockRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide lock registry. Account ids are hashed onto a fixed number of stripes, so memory stays flat
+ * no matter how many accounts exist, and every request touching the same account contends on the same lock
+ * irrespective of the EntityManager the account was loaded with.
+ */
+@Singleton
+public class StripedAccountLockRegistry implements AccountLockRegistry {
+    private static final int DEFAULT_STRIPES = 1024;
+
+    private final Lock[] stripes;
+    private final int mask;
+
+    @Inject
+    public StripedAccountLockRegistry(Configuration configuration) {
+        this(configuration.getInt("transfer.lock.stripes", DEFAULT_STRIPES));
+    }
+
+    public StripedAccountLockRegistry(int stripeCount) {
+        if (stripeCount <= 0)
+            throw new IllegalArgumentException("Lock stripe count must be positive, found " + stripeCount);
+
+        // round up to a power of two so that the stripe index is a simple mask
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount)
+            size <<= 1;
+
+        this.stripes = new Lock[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++)
+            stripes[i] = new ReentrantLock();
+    }
+
+    @Override
+    public Lock getLock(Long accountId) {
+        return stripes[stripeOf(accountId)];
+    }
+
+    @Override
+    public List<Lock> getOrderedLocks(Collection<Long> accountIds) {
+        // order by stripe index, not by account id - two accounts may share a stripe and ids ordered one way
+        // can map to stripes ordered the other way
+        TreeSet<Integer> stripeIndexes = new TreeSet<>();
+        accountIds.forEach(accountId -> stripeIndexes.add(stripeOf(accountId)));
+
+        List<Lock> locks = new ArrayList<>(stripeIndexes.size());
+        stripeIndexes.forEach(index -> locks.add(stripes[index]));
+
+        return locks;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int stripeOf(Long accountId) {
+        // spread sequential ids evenly across stripes
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,274 @@
+package services.impl;
+
+import beans.request.BatchTransferRequest;
+import beans.request.ScheduledTransferRequest;
+import beans.request.TransferRequestBean;
+import beans.response.TransferResult;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.ScheduledTransferDao;
+import exception.InvalidTransferRequest;
+import models.ScheduledTransfer;
+import models.TransferLog;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import services.TransferScheduler;
+import services.TransferService;
+import utils.TimerWheel;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs scheduled transfers off a {@link TimerWheel} holding the id and due time of every active schedule, so
+ * arming and firing a schedule is O(1) whatever their number. The wheel is owned by the single scheduler thread;
+ * new schedules reach it through a queue drained on every tick.
+ *
+ * Due schedules are claimed in batches: one transaction moves next_run_at on (or completes a one-off schedule),
+ * then the batch runs through {@link TransferService#transferBatch} as a best-effort batch. A schedule is therefore
+ * run at most once per due time, even when the process dies between the claim and the transfers. Cancelling only
+ * touches the database, the wheel entry is dropped when the claim no longer finds the schedule active.
+ */
+@Singleton
+public class TimerWheelTransferScheduler implements TransferScheduler {
+    private final ScheduledTransferDao scheduledTransferDao;
+    private final TransferService transferService;
+    private final long tickMillis;
+    private final int batchSize;
+    private final TimerWheel<Long> wheel;
+
+    private final Queue<Armed> armed = new ConcurrentLinkedQueue<>();
+
+    // owned by the scheduler thread
+    private boolean loaded;
+
+    @Inject
+    public TimerWheelTransferScheduler(ScheduledTransferDao scheduledTransferDao, TransferService transferService,
+                                       Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(scheduledTransferDao, transferService,
+                configuration.getMilliseconds("transfer.scheduler.tick", 1000L),
+                configuration.getInt("transfer.scheduler.wheel-size", 256),
+                configuration.getInt("transfer.scheduler.levels", 4),
+                configuration.getInt("transfer.scheduler.batch-size", 500));
+
+        if (!configuration.getBoolean("transfer.scheduler.enabled", true))
+            return;
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runQuietly, 0, tickMillis, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public TimerWheelTransferScheduler(ScheduledTransferDao scheduledTransferDao, TransferService transferService,
+                                       long tickMillis, int wheelSize, int levels, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Scheduler batch-size must be positive, found " + batchSize);
+
+        this.scheduledTransferDao = scheduledTransferDao;
+        this.transferService = transferService;
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.wheel = new TimerWheel<>(tickMillis, wheelSize, levels, System.currentTimeMillis());
+    }
+
+    @Override
+    public ScheduledTransfer schedule(ScheduledTransferRequest request) {
+        validate(request);
+
+        Date now = new Date();
+        Date startAt = request.getStartAt() == null || request.getStartAt().before(now) ? now : request.getStartAt();
+        ScheduledTransfer.Recurrence recurrence =
+                request.getRecurrence() == null ? ScheduledTransfer.Recurrence.ONCE : request.getRecurrence();
+
+        ScheduledTransfer scheduledTransfer = ScheduledTransfer.builder()
+                .fromAccountId(request.getFromAccountId())
+                .toAccountId(request.getToAccountId())
+                .amount(request.getAmount())
+                .currency(request.getCurrency())
+                .recurrence(recurrence)
+                .anchorAt(startAt)
+                .nextRunAt(startAt)
+                .status(ScheduledTransfer.Status.ACTIVE).build();
+
+        scheduledTransferDao.jpaApi().withTransaction(() -> scheduledTransferDao.save(scheduledTransfer));
+
+        // armed only once committed, a run never looks for a schedule that is not there yet
+        armed.add(new Armed(scheduledTransfer.getId(), scheduledTransfer.getNextRunAt().getTime()));
+        return scheduledTransfer;
+    }
+
+    @Override
+    public boolean cancel(Long scheduledTransferId) {
+        return scheduledTransferDao.jpaApi().withTransaction(() -> scheduledTransferDao.cancel(scheduledTransferId));
+    }
+
+    /**
+     * Loads the active schedules on the first call, then runs every schedule due by the given time. Meant for the
+     * scheduler thread only.
+     */
+    public void advanceTo(long nowMillis) {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+
+        Armed next;
+        while ((next = armed.poll()) != null)
+            wheel.schedule(next.scheduledTransferId, next.dueAtMillis);
+
+        List<Long> due = new ArrayList<>();
+        wheel.advanceTo(nowMillis, due::add);
+
+        for (int start = 0; start < due.size(); start += batchSize)
+            run(due.subList(start, Math.min(start + batchSize, due.size())), new Date(nowMillis));
+    }
+
+    private void runQuietly() {
+        try {
+            advanceTo(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            Logger.error("Scheduled transfer run failed, will retry", e);
+        }
+    }
+
+    private void load() {
+        long startedAt = System.nanoTime();
+        Long afterId = 0L;
+        List<ScheduledTransfer> page;
+
+        // keyset paging in short read-only transactions, the wheel keeps only the id and due time
+        do {
+            Long fromId = afterId;
+            page = scheduledTransferDao.jpaApi().withTransaction("default", true,
+                    em -> scheduledTransferDao.getActiveSchedules(fromId, batchSize));
+
+            for (ScheduledTransfer scheduledTransfer : page)
+                wheel.schedule(scheduledTransfer.getId(), scheduledTransfer.getNextRunAt().getTime());
+
+            if (!page.isEmpty())
+                afterId = page.get(page.size() - 1).getId();
+        } while (page.size() == batchSize);
+
+        Logger.info("Loaded {} scheduled transfers in {} ms", wheel.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+    }
+
+    private void run(List<Long> scheduledTransferIds, Date now) {
+        List<ScheduledTransfer> claimed;
+        try {
+            claimed = scheduledTransferDao.jpaApi().withTransaction(() -> claim(scheduledTransferIds, now));
+        } catch (RuntimeException e) {
+            // nothing was claimed, try the same schedules again on the next tick
+            Logger.error("Failed to claim " + scheduledTransferIds.size() + " scheduled transfers, will retry", e);
+            scheduledTransferIds.forEach(id -> wheel.schedule(id, now.getTime() + tickMillis));
+            return;
+        }
+
+        if (claimed.isEmpty())
+            return;
+
+        List<TransferLog.Status> statuses = transfer(claimed);
+
+        try {
+            scheduledTransferDao.jpaApi().withTransaction(() -> {
+                for (int i = 0; i < claimed.size(); i++)
+                    scheduledTransferDao.recordResult(claimed.get(i).getId(), statuses.get(i));
+                return null;
+            });
+        } catch (RuntimeException e) {
+            Logger.error("Failed to record the outcome of " + claimed.size() + " scheduled transfers", e);
+        }
+
+        for (ScheduledTransfer scheduledTransfer : claimed) {
+            if (scheduledTransfer.getStatus() == ScheduledTransfer.Status.ACTIVE)
+                wheel.schedule(scheduledTransfer.getId(), scheduledTransfer.getNextRunAt().getTime());
+        }
+
+        Logger.debug("Ran {} scheduled transfers", claimed.size());
+    }
+
+    private List<ScheduledTransfer> claim(List<Long> scheduledTransferIds, Date now) {
+        // cancelled, completed or already claimed schedules are not returned
+        List<ScheduledTransfer> due = scheduledTransferDao.getDueSchedules(scheduledTransferIds, now);
+
+        for (ScheduledTransfer scheduledTransfer : due) {
+            Date anchorAt = scheduledTransfer.getAnchorAt() == null ?
+                    scheduledTransfer.getNextRunAt() : scheduledTransfer.getAnchorAt();
+            Date nextRunAt = scheduledTransfer.getRecurrence()
+                    .nextAfter(anchorAt, scheduledTransfer.getNextRunAt(), now);
+
+            scheduledTransfer.setLastRunAt(now);
+            if (nextRunAt == null) {
+                scheduledTransfer.setStatus(ScheduledTransfer.Status.COMPLETED);
+            } else {
+                scheduledTransfer.setNextRunAt(nextRunAt);
+            }
+        }
+
+        return due;
+    }
+
+    private List<TransferLog.Status> transfer(List<ScheduledTransfer> claimed) {
+        BatchTransferRequest batchTransferRequest = BatchTransferRequest.builder()
+                .mode(BatchTransferRequest.Mode.BEST_EFFORT)
+                .transfers(claimed.stream().map(scheduledTransfer -> TransferRequestBean.builder()
+                        .fromAccountId(scheduledTransfer.getFromAccountId())
+                        .toAccountId(scheduledTransfer.getToAccountId())
+                        .amount(scheduledTransfer.getAmount())
+                        .currency(scheduledTransfer.getCurrency()).build())
+                        .collect(Collectors.toList())).build();
+
+        try {
+            List<TransferResult> results = scheduledTransferDao.jpaApi()
+                    .withTransaction(() -> transferService.transferBatch(batchTransferRequest));
+            return results.stream().map(TransferResult::getStatus).collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            Logger.error("Batch of " + claimed.size() + " scheduled transfers failed", e);
+            return Collections.nCopies(claimed.size(), TransferLog.Status.FAILED);
+        }
+    }
+
+    private void validate(ScheduledTransferRequest request) {
+        if (request.getFromAccountId() == null || request.getToAccountId() == null)
+            throw new InvalidTransferRequest("Both accounts are required");
+
+        if (request.getFromAccountId().equals(request.getToAccountId()))
+            throw new InvalidTransferRequest(
+                    "Cannot transfer funds within the same bank account = " + request.getFromAccountId());
+
+        if (request.getAmount() == null || request.getAmount().compareTo(BigDecimal.ZERO) <= 0)
+            throw new InvalidTransferRequest("Invalid amount to transfer");
+
+        if (request.getCurrency() == null)
+            throw new InvalidTransferRequest("Transfer currency is required");
+    }
+
+    private static final class Armed {
+        private final Long scheduledTransferId;
+        private final long dueAtMillis;
+
+        Armed(Long scheduledTransferId, long dueAtMillis) {
+            this.scheduledTransferId = scheduledTransferId;
+            this.dueAtMillis = dueAtMillis;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of ledger transfers, in fixed-size binary records written sequentially to memory-mapped
+ * segment files. A flusher thread forces the active segment to disk every fsync-interval, so one fsync covers
+ * every record appended since the last one.
+ *
+ * Records carry the balances of both accounts after the transfer, so replaying a record is idempotent and the
+ * last record of an account holds its balance. The legs of a group are written as GROUPED records closed by a
+ * COMMIT record; replay drops a group whose commit never made it to disk, and recovery follows such a group with
+ * an ABORT record so later replays drop it too.
+ *
+ * Layout of a record, 64 bytes:
+ * seq(8) timestamp(8) from(8) to(8) amount(8) fromBalance(8) toBalance(8), the three decimals as unscaled longs,
+ * followed by their scales(3), type(1) and a crc32 of the preceding 60 bytes(4).
+ */
+@Singleton
+public class TransferJournal {
+    static final int RECORD_SIZE = 64;
+
+    private static final int CRC_OFFSET = 60;
+    private static final byte TYPE_COMMIT = 1;
+    private static final byte TYPE_GROUPED = 2;
+    private static final byte TYPE_ABORT = 3;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{20})\\.dat");
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final long fsyncIntervalNanos;
+    private final boolean syncCommit;
+
+    // guarded by this
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private Segment current;
+    private long nextSeq = 1;
+
+    private volatile Segment active;
+    private volatile long writtenSeq;
+    private volatile long durableSeq;
+    private final Object durableMonitor = new Object();
+
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    @Inject
+    public TransferJournal(Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(configuration.getBoolean("transfer.ledger.journal.enabled", true),
+                Paths.get(configuration.getString("transfer.ledger.journal.dir", "data/journal")),
+                configuration.getBytes("transfer.ledger.journal.segment-size", 64L * 1024 * 1024),
+                configuration.getMilliseconds("transfer.ledger.journal.fsync-interval", 2L),
+                configuration.getBoolean("transfer.ledger.journal.sync-commit", true));
+
+        lifecycle.addStopHook(() -> {
+            close();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public TransferJournal(boolean enabled, Path directory, long segmentSize, long fsyncIntervalMillis, boolean syncCommit) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.recordsPerSegment = (int) Math.max(1, Math.min(segmentSize / RECORD_SIZE, Integer.MAX_VALUE / RECORD_SIZE));
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMillis));
+        this.syncCommit = syncCommit;
+    }
+
+    public static TransferJournal disabled() {
+        return new TransferJournal(false, null, RECORD_SIZE, 1, false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long recover(Consumer<Record> consumer) {
+        return recover(1, consumer);
+    }
+
+    /**
+     * Hands every committed record on disk from the given sequence onwards to the consumer in sequence order, then
+     * opens a fresh segment for new appends. Must be called once, before the first append. Segments wholly before
+     * the start are skipped, and segments found past the first torn or missing record were never acknowledged and
+     * are set aside as *.discarded.
+     */
+    public synchronized long recover(long fromSeq, Consumer<Record> consumer) {
+        if (!enabled)
+            return 0;
+        if (current != null)
+            throw new IllegalStateException("Journal already recovered");
+
+        try {
+            Files.createDirectories(directory);
+
+            long expected = fromSeq;
+            long replayed = 0;
+            boolean started = false;
+            boolean intact = true;
+            List<Record> group = new ArrayList<>();
+            List<Path> segments = listSegments();
+
+            for (int i = 0; i < segments.size(); i++) {
+                Path segment = segments.get(i);
+                long firstSeq = firstSeqOf(segment);
+
+                if (!started) {
+                    // already covered by the snapshot, left for compaction
+                    if (i + 1 < segments.size() && firstSeqOf(segments.get(i + 1)) <= expected)
+                        continue;
+                    if (firstSeq > expected)
+                        throw new IllegalStateException("Journal starts at sequence " + firstSeq +
+                                " but replay needs " + expected + ", the snapshot covering the gap is missing");
+                }
+
+                if (!intact || (started && firstSeq != expected)) {
+                    intact = false;
+                    Files.move(segment, segment.resolveSibling(segment.getFileName() + ".discarded"),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+
+                started = true;
+
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    long start = (expected - firstSeq) * RECORD_SIZE;
+
+                    for (long position = start; position + RECORD_SIZE <= buffer.limit(); position += RECORD_SIZE) {
+                        Record record = read(buffer, (int) position, expected);
+                        if (record == null)
+                            break;
+
+                        expected++;
+
+                        if (record.type == TYPE_ABORT) {
+                            group.clear();
+                            continue;
+                        }
+
+                        group.add(record);
+
+                        if (record.type == TYPE_COMMIT) {
+                            group.forEach(consumer);
+                            replayed += group.size();
+                            group.clear();
+                        }
+                    }
+                }
+            }
+
+            nextSeq = expected;
+            writtenSeq = nextSeq - 1;
+            durableSeq = writtenSeq;
+            roll();
+
+            if (!group.isEmpty()) {
+                Logger.warn("Dropping {} journal records of a group that was never committed", group.size());
+                Record abort = new Record(0, 0, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+                write(abort, nextSeq++, System.currentTimeMillis(), TYPE_ABORT);
+                writtenSeq = nextSeq - 1;
+                current.force();
+                durableSeq = writtenSeq;
+            }
+
+            startFlusher();
+
+            Logger.info("Replayed {} journal records, next sequence {}", replayed, nextSeq);
+            return replayed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover the transfer journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a single transfer, returning its sequence number.
+     */
+    public long append(Record record) {
+        return appendAll(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends the records as one group, returning the sequence number of the last one. Replay applies all of them
+     * or, when the last one did not make it to disk, none.
+     */
+    public synchronized long appendAll(List<Record> records) {
+        if (!enabled || records.isEmpty())
+            return 0;
+        if (current == null)
+            throw new IllegalStateException("Journal must be recovered before appending");
+
+        long timestamp = System.currentTimeMillis();
+
+        for (int i = 0; i < records.size(); i++) {
+            if (nextSeq - current.firstSeq == recordsPerSegment)
+                roll();
+
+            byte type = i == records.size() - 1 ? TYPE_COMMIT : TYPE_GROUPED;
+            write(records.get(i), nextSeq, timestamp, type);
+            nextSeq++;
+        }
+
+        writtenSeq = nextSeq - 1;
+        return writtenSeq;
+    }
+
+    /**
+     * Waits until the record with the given sequence number has been forced to disk. Returns straight away when
+     * sync-commit is off.
+     */
+    public void awaitDurable(long seq) {
+        if (syncCommit)
+            awaitForced(seq);
+    }
+
+    /**
+     * Waits until the record with the given sequence number has been forced to disk, whatever the sync-commit
+     * setting.
+     */
+    public void awaitForced(long seq) {
+        if (!enabled || seq <= durableSeq)
+            return;
+
+        LockSupport.unpark(flusher);
+
+        synchronized (durableMonitor) {
+            while (durableSeq < seq) {
+                if (!running)
+                    throw new IllegalStateException("Transfer journal is closed");
+
+                try {
+                    durableMonitor.wait(TimeUnit.NANOSECONDS.toMillis(fsyncIntervalNanos) + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the journal", e);
+                }
+            }
+        }
+    }
+
+    public long getDurableSeq() {
+        return durableSeq;
+    }
+
+    /**
+     * Sequence of the last appended record. Every record up to it has been written to a segment, though not
+     * necessarily forced to disk.
+     */
+    public long getWrittenSeq() {
+        return writtenSeq;
+    }
+
+    /**
+     * Removes the segments holding nothing past the given sequence, moving them to the archive directory when
+     * one is given and deleting them otherwise. The active segment is always kept. Returns how many were removed.
+     */
+    public synchronized int compact(long upToSeq, Path archiveDirectory) {
+        if (!enabled || current == null)
+            return 0;
+
+        try {
+            if (archiveDirectory != null)
+                Files.createDirectories(archiveDirectory);
+
+            List<Path> segments = listSegments();
+            int removed = 0;
+
+            for (int i = 0; i + 1 < segments.size(); i++) {
+                Path segment = segments.get(i);
+                if (segment.equals(current.path) || firstSeqOf(segments.get(i + 1)) > upToSeq + 1)
+                    break;
+
+                if (archiveDirectory != null)
+                    Files.move(segment, archiveDirectory.resolve(segment.getFileName()),
+                            StandardCopyOption.REPLACE_EXISTING);
+                else
+                    Files.delete(segment);
+                removed++;
+            }
+
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact the transfer journal in " + directory, e);
+        }
+    }
+
+    public void close() {
+        if (!enabled || flusher == null)
+            return;
+
+        running = false;
+        LockSupport.unpark(flusher);
+
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            current.close();
+        }
+
+        synchronized (durableMonitor) {
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private void write(Record record, long seq, long timestamp, byte type) {
+        scratch.clear();
+        scratch.putLong(seq)
+                .putLong(timestamp)
+                .putLong(record.fromAccountId)
+                .putLong(record.toAccountId)
+                .putLong(unscaled(record.amount))
+                .putLong(unscaled(record.fromBalance))
+                .putLong(unscaled(record.toBalance))
+                .put(scaleOf(record.amount))
+                .put(scaleOf(record.fromBalance))
+                .put(scaleOf(record.toBalance))
+                .put(type);
+
+        crc.reset();
+        crc.update(scratch.array(), 0, CRC_OFFSET);
+        scratch.putInt((int) crc.getValue());
+
+        scratch.flip();
+        current.buffer.position((int) (seq - current.firstSeq) * RECORD_SIZE);
+        current.buffer.put(scratch);
+    }
+
+    private Record read(ByteBuffer buffer, int position, long expectedSeq) {
+        if (buffer.getLong(position) != expectedSeq)
+            return null;
+
+        byte[] bytes = new byte[RECORD_SIZE];
+        for (int i = 0; i < RECORD_SIZE; i++)
+            bytes[i] = buffer.get(position + i);
+
+        crc.reset();
+        crc.update(bytes, 0, CRC_OFFSET);
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        if (record.getInt(CRC_OFFSET) != (int) crc.getValue())
+            return null;
+
+        return new Record(record.getLong(0), record.getLong(8), record.get(59),
+                record.getLong(16), record.getLong(24),
+                BigDecimal.valueOf(record.getLong(32), record.get(56)),
+                BigDecimal.valueOf(record.getLong(40), record.get(57)),
+                BigDecimal.valueOf(record.getLong(48), record.get(58)));
+    }
+
+    private void roll() {
+        try {
+            if (current != null)
+                current.close();
+
+            Path path = directory.resolve(String.format("journal-%020d.dat", nextSeq));
+            // left over from a run whose records at this sequence never became durable
+            Files.deleteIfExists(path);
+
+            current = new Segment(nextSeq, path, recordsPerSegment);
+            active = current;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open a journal segment in " + directory, e);
+        }
+    }
+
+    private void startFlusher() {
+        flusher = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(this, fsyncIntervalNanos);
+                sync();
+            }
+            sync();
+        }, "transfer-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void sync() {
+        // read the sequence before the segment: records up to it are either in that segment or in one already
+        // forced when it was rolled
+        long target = writtenSeq;
+        if (target <= durableSeq)
+            return;
+
+        active.force();
+        durableSeq = target;
+
+        synchronized (durableMonitor) {
+            durableMonitor.notifyAll();
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long firstSeqOf(Path segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Not a journal segment " + segment);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static long unscaled(BigDecimal value) {
+        BigInteger unscaled = value.unscaledValue();
+        return unscaled.longValueExact();
+    }
+
+    private static byte scaleOf(BigDecimal value) {
+        int scale = value.scale();
+        if (scale < Byte.MIN_VALUE || scale > Byte.MAX_VALUE)
+            throw new ArithmeticException("Scale out of journal range " + scale);
+        return (byte) scale;
+    }
+
+    /**
+     * One transfer with the balances it left both accounts with.
+     */
+    public static final class Record {
+        private final long seq;
+        private final long timestamp;
+        private final byte type;
+        private final long fromAccountId;
+        private final long toAccountId;
+        private final BigDecimal amount;
+        private final BigDecimal fromBalance;
+        private final BigDecimal toBalance;
+
+        public Record(long fromAccountId, long toAccountId, BigDecimal amount, BigDecimal fromBalance, BigDecimal toBalance) {
+            this(0, 0, TYPE_COMMIT, fromAccountId, toAccountId, amount, fromBalance, toBalance);
+        }
+
+        private Record(long seq, long timestamp, byte type, long fromAccountId, long toAccountId,
+                       BigDecimal amount, BigDecimal fromBalance, BigDecimal toBalance) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.fromAccountId = fromAccountId;
+            this.toAccountId = toAccountId;
+            this.amount = amount;
+            this.fromBalance = fromBalance;
+            this.toBalance = toBalance;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getFromAccountId() {
+            return fromAccountId;
+        }
+
+        public long getToAccountId() {
+            return toAccountId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public BigDecimal getFromBalance() {
+            return fromBalance;
+        }
+
+        public BigDecimal getToBalance() {
+            return toBalance;
+        }
+    }
+
+    private static final class Segment {
+        private final long firstSeq;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(long firstSeq, Path path, int records) throws IOException {
+            this.firstSeq = firstSeq;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_SIZE);
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Logger.error("Failed to close journal segment", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package services.impl;
+
+import models.TransferLog;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Plain JDBC insert of a final transfer log, shared by the writers that batch logs outside the request. The
+ * entities are only read, so a failed batch can be inserted again as it is.
+ */
+final class TransferLogInserts {
+    static final String INSERT_LOG = "insert into transfer_logs (id, from_account_id, to_account_id, amount," +
+            " requested_currency, status, idempotency_key, created_at, updated_at, credited_amount)" +
+            " values (next value for hibernate_sequence, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private TransferLogInserts() {
+    }
+
+    static void addBatch(PreparedStatement statement, TransferLog log, Timestamp completedAt) throws SQLException {
+        statement.setObject(1, log.getFromAccountId(), Types.BIGINT);
+        statement.setObject(2, log.getToAccountId(), Types.BIGINT);
+        statement.setBigDecimal(3, log.getAmount());
+        statement.setString(4, log.getRequestedCurrency());
+        statement.setString(5, log.getStatus() == null ? null : log.getStatus().name());
+        statement.setString(6, log.getIdempotencyKey());
+        statement.setTimestamp(7, completedAt);
+        statement.setTimestamp(8, completedAt);
+        statement.setBigDecimal(9, log.getCreditedAmount());
+        statement.addBatch();
+    }
+}
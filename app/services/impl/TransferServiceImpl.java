@@ -1,39 +1,89 @@
 package services.impl;
 
+import beans.request.BatchTransferRequest;
+import beans.request.MultiLegTransferRequest;
 import beans.request.TransferRequestBean;
+import beans.response.TransferResult;
 import com.google.inject.Inject;
-import dao.AccountDao;
-import exception.InsufficientBalance;
+import dao.TransferLogDao;
+import exception.IdempotencyKeyInProgress;
+import exception.IdempotencyKeyMismatch;
 import exception.InvalidCurrencyTransfer;
 import exception.InvalidTransferRequest;
+import exception.LockTimeoutException;
 import exception.NoAccountFoundException;
 import models.Account;
 import models.Account.CurrencyEnum;
+import models.IdempotencyKey;
 import models.TransferLog;
 import org.apache.commons.lang3.tuple.Pair;
+import play.Configuration;
 import play.Logger;
+import services.FxRateTable;
+import services.TransferEngine;
+import services.TransferLeg;
+import services.TransferLogWriter;
 import services.TransferService;
+import utils.RequestHash;
 
 import java.math.BigDecimal;
-import java.util.concurrent.locks.Lock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class TransferServiceImpl implements TransferService {
-    private final AccountDao accountDao;
+    private static final int DEFAULT_BATCH_CHUNK_SIZE = 500;
+    private static final int ACCOUNT_LOOKUP_SIZE = 1000;
+
+    private final TransferEngine transferEngine;
+    private final TransferLogWriter transferLogWriter;
+    private final TransferLogDao transferLogDao;
+    private final FxRateTable fxRateTable;
+    private final int batchChunkSize;
 
     @Inject
-    public TransferServiceImpl(AccountDao accountDao) {
-        this.accountDao = accountDao;
+    public TransferServiceImpl(TransferEngine transferEngine, TransferLogWriter transferLogWriter, TransferLogDao transferLogDao,
+                               FxRateTable fxRateTable, Configuration configuration) {
+        this(transferEngine, transferLogWriter, transferLogDao, fxRateTable,
+                configuration.getInt("transfer.batch.chunk-size", DEFAULT_BATCH_CHUNK_SIZE));
+    }
+
+    public TransferServiceImpl(TransferEngine transferEngine, TransferLogWriter transferLogWriter, TransferLogDao transferLogDao) {
+        this(transferEngine, transferLogWriter, transferLogDao, FileFxRateTable.empty(), DEFAULT_BATCH_CHUNK_SIZE);
+    }
+
+    public TransferServiceImpl(TransferEngine transferEngine, TransferLogWriter transferLogWriter, TransferLogDao transferLogDao,
+                               FxRateTable fxRateTable, int batchChunkSize) {
+        this.transferEngine = transferEngine;
+        this.transferLogWriter = transferLogWriter;
+        this.transferLogDao = transferLogDao;
+        this.fxRateTable = fxRateTable;
+        this.batchChunkSize = batchChunkSize;
     }
 
     @Override
-    public boolean transfer(TransferRequestBean transferRequestBean) {
+    public boolean transfer(TransferRequestBean transferRequestBean, String idempotencyKey) {
+        if (idempotencyKey != null && !claim(idempotencyKey, transferRequestBean)) {
+            Logger.info("Transfer with idempotency key {} already completed, not executed again", idempotencyKey);
+            return true;
+        }
+
         TransferLog transferLog = null;
+        boolean isTransferSuccess = false;
 
         try {
-            transferLog = logTransfer(transferRequestBean);
+            transferLog = logTransfer(transferRequestBean, idempotencyKey);
 
-            if (transferRequestBean.getAmount() == null || transferRequestBean.getAmount().compareTo(BigDecimal.ZERO) <= 0)
-                throw new InvalidTransferRequest("Invalid amount to transfer");
+            validateAmount(transferRequestBean);
 
             Pair<Account, Account> accounts =
                     getAccountDetails(transferRequestBean.getFromAccountId(), transferRequestBean.getToAccountId());
@@ -41,7 +91,11 @@ public class TransferServiceImpl implements TransferService {
             Account toAccount = accounts.getRight();
 
             validateTransfer(fromAccount, toAccount, transferRequestBean.getCurrency());
-            boolean isTransferSuccess = doAccountTransfer(fromAccount, toAccount, transferRequestBean);
+            TransferLeg leg = new TransferLeg(fromAccount, toAccount, transferRequestBean.getAmount(),
+                    creditAmount(fromAccount, toAccount, transferRequestBean.getAmount()));
+            recordCredit(transferLog, leg);
+
+            isTransferSuccess = transferEngine.transfer(fromAccount, toAccount, leg.getAmount(), leg.getCreditAmount());
 
             if (isTransferSuccess)
                 transferLog.setStatus(TransferLog.Status.COMPLETED);
@@ -54,81 +108,257 @@ public class TransferServiceImpl implements TransferService {
                 transferLog.setStatus(TransferLog.Status.FAILED);
             }
             throw e;
+        } finally {
+            if (transferLog != null)
+                transferLogWriter.complete(transferLog);
+            if (idempotencyKey != null)
+                transferLogDao.settleIdempotencyKey(idempotencyKey,
+                        isTransferSuccess ? TransferLog.Status.COMPLETED : TransferLog.Status.FAILED);
         }
     }
 
-    private Pair<Account, Account> getAccountDetails(Long fromAccountId, Long toAccountId) {
-        synchronized (this) {
-            Account fromAccount = accountDao.getAccount(fromAccountId)
-                    .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + fromAccountId));
-            Account toAccount = accountDao.getAccount(toAccountId)
-                    .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + toAccountId));
+    /**
+     * True when the caller holds the key and runs the transfer, false when the same request already completed
+     * under it. A key sent with another request, or still held by a running transfer, is thrown.
+     */
+    private boolean claim(String idempotencyKey, TransferRequestBean transferRequestBean) {
+        String requestHash = RequestHash.of(transferRequestBean);
+        Optional<IdempotencyKey> holder = transferLogDao.claimIdempotencyKey(idempotencyKey, requestHash);
+
+        if (!holder.isPresent())
+            return true;
+
+        if (!holder.get().getRequestHash().equals(requestHash))
+            throw new IdempotencyKeyMismatch("Idempotency key " + idempotencyKey + " was used for another transfer");
+
+        if (holder.get().getStatus() != TransferLog.Status.COMPLETED)
+            throw new IdempotencyKeyInProgress("Transfer with idempotency key " + idempotencyKey + " is in progress");
+
+        return false;
+    }
+
+    @Override
+    public List<TransferResult> transferBatch(BatchTransferRequest batchTransferRequest) {
+        if (batchTransferRequest.getMode() == null)
+            throw new InvalidTransferRequest("Batch mode must be one of " + Arrays.toString(BatchTransferRequest.Mode.values()));
+
+        List<TransferRequestBean> requests = Optional.ofNullable(batchTransferRequest.getTransfers())
+                .orElseThrow(() -> new InvalidTransferRequest("Batch contains no transfers"));
+        boolean atomic = batchTransferRequest.getMode() == BatchTransferRequest.Mode.ALL_OR_NOTHING;
+
+        TransferResult[] results = new TransferResult[requests.size()];
+        List<TransferLog> transferLogs = new ArrayList<>(requests.size());
+        Map<Integer, TransferLeg> legs = new HashMap<>();
+
+        try {
+            // validate everything up front, the accounts of the whole batch are fetched in one go
+            for (TransferRequestBean request : requests)
+                transferLogs.add(logTransfer(request, Objects.toString(request.getCurrency(), null), null));
+
+            Map<Long, Account> accounts = getAccounts(requests);
 
-            return Pair.of(fromAccount, toAccount);
+            for (int i = 0; i < requests.size(); i++) {
+                try {
+                    legs.put(i, buildLeg(requests.get(i), accounts));
+                    recordCredit(transferLogs.get(i), legs.get(i));
+                } catch (RuntimeException e) {
+                    if (atomic)
+                        throw e;
+                    results[i] = TransferResult.failed(i, e);
+                }
+            }
+
+            if (atomic)
+                executeAtomic(legs, results);
+            else
+                executeBestEffort(legs, results);
+        } catch (RuntimeException e) {
+            if (!atomic)
+                throw e;
+
+            // nothing of an all-or-nothing batch was applied
+            for (int i = 0; i < results.length; i++)
+                results[i] = TransferResult.failed(i, e);
+        } finally {
+            for (int i = 0; i < transferLogs.size(); i++) {
+                TransferLog transferLog = transferLogs.get(i);
+                transferLog.setStatus(results[i] == null ? TransferLog.Status.FAILED : results[i].getStatus());
+                transferLogWriter.complete(transferLog);
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public boolean transferMultiLeg(MultiLegTransferRequest multiLegTransferRequest) {
+        List<TransferRequestBean> requests = Optional.ofNullable(multiLegTransferRequest.getLegs())
+                .filter(legs -> !legs.isEmpty())
+                .orElseThrow(() -> new InvalidTransferRequest("Multi-leg transfer contains no legs"));
+
+        List<TransferLog> transferLogs = new ArrayList<>(requests.size());
+        TransferLog.Status status = TransferLog.Status.FAILED;
+
+        try {
+            for (TransferRequestBean request : requests)
+                transferLogs.add(logTransfer(request, Objects.toString(request.getCurrency(), null), null));
+
+            // every leg is validated before any lock is taken
+            Map<Long, Account> accounts = getAccounts(requests);
+            List<TransferLeg> legs = requests.stream()
+                    .map(request -> buildLeg(request, accounts))
+                    .collect(Collectors.toList());
+
+            for (int i = 0; i < legs.size(); i++)
+                recordCredit(transferLogs.get(i), legs.get(i));
+
+            try {
+                transferEngine.transferAll(legs, true);
+            } catch (LockTimeoutException e) {
+                return false;
+            }
+
+            status = TransferLog.Status.COMPLETED;
+            return true;
+        } finally {
+            for (TransferLog transferLog : transferLogs) {
+                transferLog.setStatus(status);
+                transferLogWriter.complete(transferLog);
+            }
         }
     }
 
+    private void executeAtomic(Map<Integer, TransferLeg> legs, TransferResult[] results) {
+        // submission order is kept, later legs may rely on funds moved by earlier ones
+        List<Integer> positions = new ArrayList<>(legs.keySet());
+        positions.sort(Comparator.naturalOrder());
+
+        transferEngine.transferAll(positions.stream().map(legs::get).collect(Collectors.toList()), true);
+        positions.forEach(i -> results[i] = TransferResult.completed(i));
+    }
+
+    private void executeBestEffort(Map<Integer, TransferLeg> legs, TransferResult[] results) {
+        // group transfers touching the same accounts into the same chunk, so each chunk locks few distinct stripes
+        List<Integer> positions = new ArrayList<>(legs.keySet());
+        positions.sort(Comparator.<Integer, Long>comparing(i -> lowerAccountId(legs.get(i)))
+                .thenComparing(i -> higherAccountId(legs.get(i)))
+                .thenComparing(Comparator.naturalOrder()));
+
+        for (int start = 0; start < positions.size(); start += batchChunkSize) {
+            List<Integer> chunk = positions.subList(start, Math.min(start + batchChunkSize, positions.size()));
+
+            try {
+                Map<Integer, RuntimeException> rejected =
+                        transferEngine.transferAll(chunk.stream().map(legs::get).collect(Collectors.toList()), false);
+
+                for (int j = 0; j < chunk.size(); j++) {
+                    int i = chunk.get(j);
+                    results[i] = rejected.containsKey(j) ? TransferResult.failed(i, rejected.get(j)) : TransferResult.completed(i);
+                }
+            } catch (RuntimeException e) {
+                chunk.forEach(i -> results[i] = TransferResult.failed(i, e));
+            }
+        }
+    }
+
+    private TransferLeg buildLeg(TransferRequestBean request, Map<Long, Account> accounts) {
+        validateAmount(request);
+
+        Account fromAccount = Optional.ofNullable(accounts.get(request.getFromAccountId()))
+                .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + request.getFromAccountId()));
+        Account toAccount = Optional.ofNullable(accounts.get(request.getToAccountId()))
+                .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + request.getToAccountId()));
+
+        validateTransfer(fromAccount, toAccount, request.getCurrency());
+        return new TransferLeg(fromAccount, toAccount, request.getAmount(),
+                creditAmount(fromAccount, toAccount, request.getAmount()));
+    }
+
+    private Map<Long, Account> getAccounts(List<TransferRequestBean> requests) {
+        Set<Long> accountIds = new HashSet<>();
+        requests.forEach(request -> {
+            if (request.getFromAccountId() != null)
+                accountIds.add(request.getFromAccountId());
+            if (request.getToAccountId() != null)
+                accountIds.add(request.getToAccountId());
+        });
+
+        // keep the in-list of each lookup query at a reasonable size
+        List<Long> ids = new ArrayList<>(accountIds);
+        Map<Long, Account> accounts = new HashMap<>();
+
+        for (int start = 0; start < ids.size(); start += ACCOUNT_LOOKUP_SIZE)
+            transferEngine.getAccounts(ids.subList(start, Math.min(start + ACCOUNT_LOOKUP_SIZE, ids.size())))
+                    .forEach(account -> accounts.put(account.getId(), account));
+
+        return accounts;
+    }
+
+    private Pair<Account, Account> getAccountDetails(Long fromAccountId, Long toAccountId) {
+        // both accounts in one round trip, no monitor needed as nothing here is shared between requests
+        Map<Long, Account> accounts = transferEngine.getAccounts(Arrays.asList(fromAccountId, toAccountId)).stream()
+                .collect(Collectors.toMap(Account::getId, Function.identity()));
+
+        Account fromAccount = Optional.ofNullable(accounts.get(fromAccountId))
+                .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + fromAccountId));
+        Account toAccount = Optional.ofNullable(accounts.get(toAccountId))
+                .orElseThrow(() -> new NoAccountFoundException("Account number not found = " + toAccountId));
+
+        return Pair.of(fromAccount, toAccount);
+    }
+
+    private void validateAmount(TransferRequestBean transferRequestBean) {
+        if (transferRequestBean.getAmount() == null || transferRequestBean.getAmount().compareTo(BigDecimal.ZERO) <= 0)
+            throw new InvalidTransferRequest("Invalid amount to transfer");
+    }
+
     private void validateTransfer(Account from, Account to, CurrencyEnum transferCurrency) {
         if (from.getId().equals(to.getId()))
             throw new InvalidTransferRequest("Cannot transfer funds within the same bank account = " + from.getId());
 
-        if (from.getCurrency() != to.getCurrency())
-            throw new InvalidCurrencyTransfer("Given accounts have different currencies of " + from.getCurrency() + " and " + to.getCurrency());
-
+        // the amount is in the sender's currency, a receiver in another currency is credited at the FX rate
         if (from.getCurrency() != transferCurrency)
             throw new InvalidCurrencyTransfer("Transfer currency " + transferCurrency + " and account currrency " + from.getCurrency() + " are different");
     }
 
-    private TransferLog logTransfer(TransferRequestBean transferRequestBean) {
+    private BigDecimal creditAmount(Account from, Account to, BigDecimal amount) {
+        BigDecimal creditAmount = fxRateTable.convert(amount, from.getCurrency(), to.getCurrency());
+
+        // rounded away to nothing, the sender would be debited for no credit at all
+        if (creditAmount.signum() <= 0)
+            throw new InvalidTransferRequest("Amount " + amount + " " + from.getCurrency() + " is worth nothing in "
+                    + to.getCurrency() + " once rounded");
+
+        return creditAmount;
+    }
+
+    private void recordCredit(TransferLog transferLog, TransferLeg leg) {
+        if (leg.getFrom().getCurrency() != leg.getTo().getCurrency())
+            transferLog.setCreditedAmount(leg.getCreditAmount());
+    }
+
+    private TransferLog logTransfer(TransferRequestBean transferRequestBean, String idempotencyKey) {
+        return logTransfer(transferRequestBean, transferRequestBean.getCurrency().toString(), idempotencyKey);
+    }
+
+    private TransferLog logTransfer(TransferRequestBean transferRequestBean, String requestedCurrency, String idempotencyKey) {
         TransferLog transferLog = TransferLog.builder()
                 .fromAccountId(transferRequestBean.getFromAccountId())
                 .toAccountId(transferRequestBean.getToAccountId())
                 .amount(transferRequestBean.getAmount())
-                .requestedCurrency(transferRequestBean.getCurrency().toString())
+                .requestedCurrency(requestedCurrency)
+                .idempotencyKey(idempotencyKey)
                 .status(TransferLog.Status.PENDING).build();
 
-        accountDao.jpaApi().em().persist(transferLog);
+        transferLogWriter.begin(transferLog);
         return transferLog;
     }
 
-    private boolean doAccountTransfer(Account from, Account to, TransferRequestBean transferRequestBean) {
-        // acquire lock always in the same order to avoid deadlock
-        final Lock lock1 = from.getId() < to.getId() ? from.getLock() : to.getLock();
-        final Lock lock2 = from.getId() < to.getId() ? to.getLock() : from.getLock();
-
-        if (lock1.tryLock()) {
-            try {
-                if (lock2.tryLock()) {
-                    try {
-                        final BigDecimal transferAmount = transferRequestBean.getAmount();
-
-                        if (!hasSufficientBalance(from, transferAmount))
-                            throw new InsufficientBalance("The balance in the account not sufficient for this transfer");
-                        Logger.info("Transferring funds={}, between account={} to account={}", transferAmount, from.getId(), to.getId());
-
-                        accountDao.jpaApi().withTransaction("default", false, em -> {
-                            from.setBalance(from.getBalance().subtract(transferAmount));
-                            to.setBalance(to.getBalance().add(transferAmount));
-
-                            em.merge(from);
-                            em.merge(to);
-                            return null;
-                        });
-
-                        return true;
-                    } finally {
-                        lock2.unlock();
-                    }
-                }
-            } finally {
-                lock1.unlock();
-            }
-        }
-
-        return false;
+    private static Long lowerAccountId(TransferLeg leg) {
+        return Math.min(leg.getFrom().getId(), leg.getTo().getId());
     }
 
-    private boolean hasSufficientBalance(Account from, BigDecimal transferAmount) {
-        return transferAmount.compareTo(from.getBalance()) <= 0;
+    private static Long higherAccountId(TransferLeg leg) {
+        return Math.max(leg.getFrom().getId(), leg.getTo().getId());
     }
 }
@@ -0,0 +1,292 @@
+package services.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountDao;
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import models.TransferLog;
+import org.hibernate.Session;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import services.TransferLogWriter;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Background writer for the {@link InMemoryLedger}. Transfers only mark accounts dirty and queue their logs;
+ * a single thread writes the latest balance of every dirty account and the queued logs to the database in one
+ * transaction, every flush-interval or as soon as flush-size items are waiting. The daily rollups of the accounts
+ * are updated in that transaction too.
+ *
+ * The logs are inserted with plain JDBC batches and never handed to the EntityManager, so a failed flush leaves them
+ * as they were and the next flush inserts them again. Logs failing max-retries flushes in a row are written one at a
+ * time after the balances, and those still failing are logged and dropped, so a single bad log cannot keep the
+ * balances from reaching their rows.
+ *
+ * {@link #flush()} is the durability barrier - when it returns, everything queued before the call is committed.
+ */
+@Singleton
+public class WriteBehindWriter implements TransferLogWriter {
+    private final JPAApi jpaApi;
+    private final InMemoryLedger ledger;
+    private final AccountDao accountDao;
+    private final AccountRollupDao rollupDao;
+    private final int flushSize;
+    private final int maxRetries;
+
+    private final Set<Long> dirtyAccounts = ConcurrentHashMap.newKeySet();
+    private final Queue<Entry> pendingLogs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    private volatile long droppedCount;
+
+    // flush thread only
+    private final List<Entry> retryLogs = new ArrayList<>();
+    private int failedAttempts;
+
+    @Inject
+    public WriteBehindWriter(JPAApi jpaApi, InMemoryLedger ledger, AccountDao accountDao, AccountRollupDao rollupDao,
+                             Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(jpaApi, ledger, accountDao, rollupDao,
+                configuration.getInt("transfer.ledger.flush-size", 1000),
+                configuration.getMilliseconds("transfer.ledger.flush-interval", 200L),
+                configuration.getInt("transfer.ledger.max-retries", 5));
+
+        lifecycle.addStopHook(() -> {
+            flush();
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public WriteBehindWriter(JPAApi jpaApi, InMemoryLedger ledger, AccountDao accountDao, AccountRollupDao rollupDao,
+                             int flushSize, long flushIntervalMillis, int maxRetries) {
+        this.jpaApi = jpaApi;
+        this.ledger = ledger;
+        this.accountDao = accountDao;
+        this.rollupDao = rollupDao;
+        this.flushSize = flushSize;
+        this.maxRetries = Math.max(1, maxRetries);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ledger-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+        // balances replayed from the journal have not reached their rows yet
+        ledger.getRecoveredAccountIds().forEach(this::markDirty);
+    }
+
+    public void markDirty(Long accountId) {
+        if (dirtyAccounts.add(accountId))
+            onQueued();
+    }
+
+    @Override
+    public void begin(TransferLog transferLog) {
+        // nothing is written until the outcome is known
+    }
+
+    @Override
+    public void complete(TransferLog transferLog) {
+        pendingLogs.add(new Entry(transferLog, new Timestamp(System.currentTimeMillis())));
+        onQueued();
+    }
+
+    /**
+     * Blocks until everything queued before this call has been committed.
+     */
+    @Override
+    public void flush() {
+        try {
+            executor.submit(this::doFlush).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing the ledger", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ledger flush failed", e.getCause());
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Logs given up on after they failed on their own.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void onQueued() {
+        if (pendingCount.incrementAndGet() >= flushSize && flushScheduled.compareAndSet(false, true))
+            executor.execute(this::flushQuietly);
+    }
+
+    private void flushQuietly() {
+        try {
+            doFlush();
+        } catch (RuntimeException e) {
+            Logger.error("Ledger write-behind flush failed, will retry", e);
+        }
+    }
+
+    private void doFlush() {
+        flushScheduled.set(false);
+
+        // ids are removed before their balance is read, so a transfer landing in between marks the account dirty
+        // again and the newer balance goes out with the next flush
+        List<Long> accountIds = new ArrayList<>();
+        Iterator<Long> dirty = dirtyAccounts.iterator();
+        while (dirty.hasNext()) {
+            accountIds.add(dirty.next());
+            dirty.remove();
+        }
+
+        // logs of a failed flush go first, as they were
+        List<Entry> logs = new ArrayList<>(retryLogs);
+        retryLogs.clear();
+        Entry log;
+        while ((log = pendingLogs.poll()) != null)
+            logs.add(log);
+
+        if (accountIds.isEmpty() && logs.isEmpty())
+            return;
+
+        pendingCount.addAndGet(-(accountIds.size() + logs.size()));
+
+        try {
+            write(accountIds, logs);
+            failedAttempts = 0;
+        } catch (RuntimeException e) {
+            if (++failedAttempts < maxRetries) {
+                retry(accountIds, logs);
+                throw e;
+            }
+
+            Logger.error("Failed to flush " + logs.size() + " transfer logs " + failedAttempts +
+                    " times, writing the balances alone and the logs one by one", e);
+            try {
+                write(accountIds, Collections.emptyList());
+            } catch (RuntimeException balancesFailure) {
+                // the database itself is out, nothing is dropped for it
+                retry(accountIds, logs);
+                throw balancesFailure;
+            }
+            failedAttempts = 0;
+            writeEach(logs);
+        }
+
+        // cached rows are as stale as the database was, they catch up with the flush
+        accountDao.evict(accountIds);
+
+        Logger.debug("Ledger flushed {} balances and {} transfer logs", accountIds.size(), logs.size());
+    }
+
+    private void retry(List<Long> accountIds, List<Entry> logs) {
+        accountIds.forEach(this::markDirty);
+        retryLogs.addAll(logs);
+        pendingCount.addAndGet(logs.size());
+    }
+
+    private void write(List<Long> accountIds, List<Entry> logs) {
+        jpaApi.withTransaction("default", false, em -> {
+            Session session = em.unwrap(Session.class);
+            writeBalances(session, accountIds);
+            writeLogs(session, logs);
+            rollupDao.add(logs.stream()
+                    .flatMap(entry -> AccountDailyRollup.ofTransfer(entry.transferLog, entry.completedAt).stream())
+                    .collect(Collectors.toList()));
+            return null;
+        });
+    }
+
+    private void writeEach(List<Entry> logs) {
+        for (Entry entry : logs) {
+            try {
+                write(Collections.emptyList(), Collections.singletonList(entry));
+            } catch (RuntimeException e) {
+                droppedCount++;
+                TransferLog log = entry.transferLog;
+                Logger.error("Dropping transfer log from={} to={} amount={} currency={} status={} completed at {}",
+                        log.getFromAccountId(), log.getToAccountId(), log.getAmount(), log.getRequestedCurrency(),
+                        log.getStatus(), entry.completedAt, e);
+            }
+        }
+    }
+
+    private void writeLogs(Session session, List<Entry> logs) {
+        if (logs.isEmpty())
+            return;
+
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(TransferLogInserts.INSERT_LOG)) {
+                for (Entry entry : logs)
+                    TransferLogInserts.addBatch(statement, entry.transferLog, entry.completedAt);
+
+                statement.executeBatch();
+            }
+        });
+    }
+
+    private void writeBalances(Session session, List<Long> accountIds) {
+        if (accountIds.isEmpty())
+            return;
+
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "update accounts set balance = ?, version = version + 1, updated_at = ? where id = ?")) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+
+                for (Long accountId : accountIds) {
+                    statement.setBigDecimal(1, currentBalance(accountId));
+                    statement.setTimestamp(2, now);
+                    statement.setLong(3, accountId);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+        });
+    }
+
+    private BigDecimal currentBalance(Long accountId) {
+        return ledger.getEntry(accountId).getBalance();
+    }
+
+    private static final class Entry {
+        private final TransferLog transferLog;
+        private final Timestamp completedAt;
+
+        Entry(TransferLog transferLog, Timestamp completedAt) {
+            this.transferLog = transferLog;
+            this.completedAt = completedAt;
+        }
+    }
+}
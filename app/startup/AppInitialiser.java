@@ -1,10 +1,84 @@
 package startup;
 
 import com.google.inject.AbstractModule;
+import play.Configuration;
+import play.Environment;
+import services.TransferEngine;
+import services.TransferLogWriter;
+import services.impl.AsyncTransferLogAppender;
+import services.impl.ConditionalUpdateTransferEngine;
+import services.impl.InMemoryLedger;
+import services.impl.JpaTransferLogWriter;
+import services.impl.LedgerSnapshotter;
+import services.impl.LedgerTransferEngine;
+import services.impl.LockingTransferEngine;
+import services.impl.NettingTransferEngine;
+import services.impl.PartitionedTransferEngine;
+import services.impl.TimerWheelTransferScheduler;
+import services.impl.WriteBehindWriter;
+
+import java.util.Collections;
 
 public class AppInitialiser extends AbstractModule {
+    private final Configuration configuration;
+
+    public AppInitialiser(Environment environment, Configuration configuration) {
+        this.configuration = configuration;
+    }
+
     @Override
     protected void configure() {
         bind(InMemoryDbInitialiser.class).asEagerSingleton();
+        bind(TimerWheelTransferScheduler.class).asEagerSingleton();
+
+        String engine = configuration.getString("transfer.engine", "locking");
+
+        if (!"locking".equals(engine)) {
+            // only the locking engine spreads credits over sub-balances and drains them for debits
+            if (!configuration.getLongList("transfer.hot-accounts.ids", Collections.emptyList()).isEmpty())
+                throw new IllegalArgumentException("transfer.hot-accounts.ids needs the locking engine, found " + engine);
+            bind(SubBalanceFolder.class).asEagerSingleton();
+        }
+
+        switch (engine) {
+            case "locking":
+                if (configuration.getBoolean("transfer.netting.enabled", false))
+                    bind(TransferEngine.class).to(NettingTransferEngine.class);
+                else
+                    bind(TransferEngine.class).to(LockingTransferEngine.class);
+                bindTransferLogWriter();
+                break;
+            case "conditional":
+                bind(TransferEngine.class).to(ConditionalUpdateTransferEngine.class);
+                bindTransferLogWriter();
+                break;
+            case "partitioned":
+                bind(TransferEngine.class).to(PartitionedTransferEngine.class);
+                bindTransferLogWriter();
+                break;
+            case "ledger":
+                bind(InMemoryLedger.class).asEagerSingleton();
+                bind(LedgerSnapshotter.class).asEagerSingleton();
+                bind(TransferEngine.class).to(LedgerTransferEngine.class);
+                bind(TransferLogWriter.class).to(WriteBehindWriter.class);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transfer.engine " + engine);
+        }
+    }
+
+    private void bindTransferLogWriter() {
+        String writer = configuration.getString("transfer.log.writer", "async");
+
+        switch (writer) {
+            case "async":
+                bind(TransferLogWriter.class).to(AsyncTransferLogAppender.class);
+                break;
+            case "jpa":
+                bind(TransferLogWriter.class).to(JpaTransferLogWriter.class);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transfer.log.writer " + writer);
+        }
     }
 }
@@ -0,0 +1,34 @@
+package startup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import dao.AccountSubBalanceDao;
+import models.Account;
+import play.Logger;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Sub-balances are only credited and drained by the locking engine. Under any other engine the ones left by an earlier
+ * run could never be spent, so on startup they are folded back into the balances of their accounts.
+ */
+@Singleton
+public class SubBalanceFolder {
+
+    @Inject
+    public SubBalanceFolder(AccountSubBalanceDao subBalanceDao) {
+        subBalanceDao.jpaApi().withTransaction(() -> {
+            List<Long> accountIds = subBalanceDao.getHotAccountIds();
+
+            for (Long accountId : accountIds) {
+                BigDecimal drained = subBalanceDao.drain(accountId);
+                Account account = subBalanceDao.jpaApi().em().find(Account.class, accountId);
+                account.setBalance(account.getBalance().add(drained));
+            }
+
+            if (!accountIds.isEmpty())
+                Logger.info("Folded the sub-balances of {} accounts back into their balances", accountIds.size());
+        });
+    }
+}
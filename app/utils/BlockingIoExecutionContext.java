@@ -0,0 +1,52 @@
+package utils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool for reading request bodies that arrive as slowly as the client sends them, such as bulk onboarding.
+ * The readers block here rather than on {@link DatabaseExecutionContext}, whose threads are only taken for the
+ * commits. Work beyond the bounded queue is rejected with a {@link RejectedExecutionException}.
+ */
+@Singleton
+public class BlockingIoExecutionContext implements Executor {
+    private final ThreadPoolExecutor executor;
+
+    @Inject
+    public BlockingIoExecutionContext(Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(configuration.getInt("blocking-io-context.pool-size", 4),
+                configuration.getInt("blocking-io-context.queue-size", 16));
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public BlockingIoExecutionContext(int poolSize, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "blocking-io-context-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+}
@@ -0,0 +1,77 @@
+package utils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fixed pool for blocking JPA work, so that slow queries never hold up Play's default dispatcher. Work waiting
+ * for a thread sits in a bounded queue; once that is full new work is rejected with a
+ * {@link RejectedExecutionException} instead of queueing without limit.
+ */
+@Singleton
+public class DatabaseExecutionContext implements Executor {
+    private final JPAApi jpaApi;
+    private final ThreadPoolExecutor executor;
+
+    @Inject
+    public DatabaseExecutionContext(JPAApi jpaApi, Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(jpaApi,
+                configuration.getInt("database-context.pool-size", 10),
+                configuration.getInt("database-context.queue-size", 1000));
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public DatabaseExecutionContext(JPAApi jpaApi, int poolSize, int queueSize) {
+        this.jpaApi = jpaApi;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "database-context-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    public <T> CompletionStage<T> withTransaction(Supplier<T> block) {
+        return withTransaction(false, block);
+    }
+
+    /**
+     * Runs the block in a transaction on the pool. A full queue fails the returned stage rather than the caller.
+     */
+    public <T> CompletionStage<T> withTransaction(boolean readOnly, Supplier<T> block) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> jpaApi.withTransaction("default", readOnly, em -> block.get()), executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+}
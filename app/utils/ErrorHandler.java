@@ -17,7 +17,9 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 
 @Singleton
 public class ErrorHandler extends DefaultHttpErrorHandler {
@@ -29,6 +31,13 @@ public class ErrorHandler extends DefaultHttpErrorHandler {
 
     @Override
     public CompletionStage<Result> onServerError(Http.RequestHeader request, Throwable exception) {
+        // failures of async actions arrive wrapped
+        while (exception instanceof CompletionException && exception.getCause() != null)
+            exception = exception.getCause();
+
+        if (exception instanceof RejectedExecutionException)
+            return CompletableFuture.completedFuture(Results.status(Http.Status.SERVICE_UNAVAILABLE, "Server busy, please retry"));
+
         ObjectNode jsonError = Json.newObject();
 
         jsonError.set("cause", exceptionToJson(exception));
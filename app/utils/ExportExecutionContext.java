@@ -0,0 +1,90 @@
+package utils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fixed pool for streaming exports. An export keeps its thread and a database connection for as long as the client
+ * takes to read it, so exports run here rather than on {@link DatabaseExecutionContext}. A thread is reserved before
+ * the response starts: a busy pool is answered up front instead of cutting off a response already under way.
+ */
+@Singleton
+public class ExportExecutionContext {
+    private final JPAApi jpaApi;
+    private final ExecutorService executor;
+    private final Semaphore threads;
+
+    @Inject
+    public ExportExecutionContext(JPAApi jpaApi, Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(jpaApi, configuration.getInt("export-context.pool-size", 4));
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public ExportExecutionContext(JPAApi jpaApi, int poolSize) {
+        this.jpaApi = jpaApi;
+        this.threads = new Semaphore(poolSize);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "export-context-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reserves a thread for one export, empty when all of them are taken.
+     */
+    public Optional<Reservation> reserve() {
+        return threads.tryAcquire() ? Optional.of(new Reservation()) : Optional.empty();
+    }
+
+    public final class Reservation {
+        private final AtomicBoolean used = new AtomicBoolean();
+
+        private Reservation() {
+        }
+
+        /**
+         * Runs the block in a read-only transaction on the reserved thread, which is handed back once it is done.
+         */
+        public <T> CompletionStage<T> withTransaction(Supplier<T> block) {
+            if (!used.compareAndSet(false, true))
+                throw new IllegalStateException("Export thread already used");
+
+            try {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return jpaApi.withTransaction("default", true, em -> block.get());
+                    } finally {
+                        threads.release();
+                    }
+                }, executor);
+            } catch (RejectedExecutionException e) {
+                // only once shut down, never for want of a thread
+                threads.release();
+                CompletableFuture<T> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package utils;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Hands the action the request body as a stream instead of buffering it, for bodies too large to hold. The action
+ * gets the stream right away and reads the body as it arrives; a read blocks until the client sends more.
+ */
+public class InputStreamBodyParser implements BodyParser<InputStream> {
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, InputStream>> apply(Http.RequestHeader request) {
+        Sink<ByteString, CompletionStage<F.Either<Result, InputStream>>> sink = StreamConverters.asInputStream()
+                .mapMaterializedValue(in -> CompletableFuture.completedFuture(F.Either.Right(in)));
+        return Accumulator.fromSink(sink);
+    }
+}
@@ -0,0 +1,100 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free multi-producer single-consumer ring buffer.
+ *
+ * Producers claim a slot by moving the tail with a CAS and then publish the element into it. The single consumer
+ * reads slots in order, treating an empty slot as "not yet published", clears it and moves the head on.
+ */
+public class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final int capacity;
+    private final int mask;
+
+    // next sequence to be claimed by a producer
+    private final AtomicLong tail = new AtomicLong();
+    // next sequence to be read, only ever written by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    public MpscRingBuffer(int requestedCapacity) {
+        if (requestedCapacity <= 0)
+            throw new IllegalArgumentException("Ring buffer capacity must be positive, found " + requestedCapacity);
+
+        int size = Integer.highestOneBit(requestedCapacity);
+        if (size < requestedCapacity)
+            size <<= 1;
+
+        this.slots = new AtomicReferenceArray<>(size);
+        this.capacity = size;
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an element, returning false when the buffer is full. Safe to call from any number of threads.
+     */
+    public boolean offer(E element) {
+        if (element == null)
+            throw new NullPointerException("Ring buffer does not accept null elements");
+
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() >= capacity)
+                return false;
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        slots.lazySet(index(sequence), element);
+        return true;
+    }
+
+    /**
+     * Removes the next element, or returns null when nothing has been published yet. Consumer thread only.
+     */
+    public E poll() {
+        long sequence = head.get();
+        int index = index(sequence);
+
+        E element = slots.get(index);
+        if (element == null)
+            return null;
+
+        slots.lazySet(index, null);
+        head.lazySet(sequence + 1);
+        return element;
+    }
+
+    /**
+     * Hands up to limit published elements to the consumer, returning how many were drained. Consumer thread only.
+     */
+    public int drain(Consumer<E> consumer, int limit) {
+        int drained = 0;
+
+        E element;
+        while (drained < limit && (element = poll()) != null) {
+            consumer.accept(element);
+            drained++;
+        }
+
+        return drained;
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+}
@@ -0,0 +1,27 @@
+package utils;
+
+import beans.request.TransferRequestBean;
+import com.google.common.hash.Hashing;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Hash binding an idempotency key to the transfer it was sent with. Amounts are compared by value, so 10 and 10.00
+ * hash alike.
+ */
+public final class RequestHash {
+
+    private RequestHash() {
+    }
+
+    public static String of(TransferRequestBean request) {
+        BigDecimal amount = request.getAmount();
+        String canonical = request.getFromAccountId() + "|" + request.getToAccountId() + "|"
+                + (amount == null ? null : amount.stripTrailingZeros().toPlainString()) + "|"
+                + Objects.toString(request.getCurrency(), null);
+
+        return Hashing.sha256().hashString(canonical, StandardCharsets.UTF_8).toString();
+    }
+}
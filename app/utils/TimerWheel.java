@@ -0,0 +1,148 @@
+package utils;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical hashed timer wheel. Level 0 has one slot per tick; each level above covers wheel-size times the
+ * span of the one below, so a few levels reach years ahead. A timeout is filed at the level of the highest tick
+ * digit in which its deadline differs from the current tick, and moves down a level each time the wheel below
+ * wraps around to it. Scheduling and expiring are O(1) per timeout; advancing is O(1) per tick plus the timeouts
+ * moved or expired. Each slot is a singly linked list, so a timeout costs one small node.
+ *
+ * Not thread safe, a wheel is meant to be owned by a single driver thread.
+ */
+public class TimerWheel<T> {
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final int levels;
+    private final Timeout<T>[][] slots;
+    // deadlines past the top level, filed again whenever the top level wraps around
+    private Timeout<T> overflow;
+    // deadlines already due when filed, handed out on the next expiry
+    private Timeout<T> overdue;
+
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, int wheelSize, int levels, long startMillis) {
+        if (tickMillis <= 0 || levels <= 0)
+            throw new IllegalArgumentException("Tick and levels must be positive");
+        if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Wheel size must be a power of two, found " + wheelSize);
+        if (Integer.numberOfTrailingZeros(wheelSize) * levels >= Long.SIZE - 1)
+            throw new IllegalArgumentException("Wheel of " + levels + " levels of " + wheelSize + " slots is too large");
+
+        this.tickMillis = tickMillis;
+        this.bits = Integer.numberOfTrailingZeros(wheelSize);
+        this.mask = wheelSize - 1;
+        this.levels = levels;
+        this.slots = new Timeout[levels][wheelSize];
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Files the item to expire on the first tick at or after the deadline, never before it.
+     */
+    public void schedule(T item, long deadlineMillis) {
+        long deadline = Math.max(0, deadlineMillis);
+        file(new Timeout<>(item, deadline / tickMillis + (deadline % tickMillis == 0 ? 0 : 1)));
+        size++;
+    }
+
+    /**
+     * Moves the wheel up to the given time, handing every timeout that fell due on the way to the consumer.
+     */
+    public void advanceTo(long nowMillis, Consumer<T> expired) {
+        expireOverdue(expired);
+
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            // every level whose lower digits just wrapped to zero brings its current slot one level down
+            for (int level = 1; level < levels && (currentTick & ((1L << (bits * level)) - 1)) == 0; level++) {
+                int slot = (int) (currentTick >>> (bits * level)) & mask;
+                Timeout<T> cascaded = slots[level][slot];
+                slots[level][slot] = null;
+                fileAll(cascaded);
+
+                if (level == levels - 1) {
+                    Timeout<T> overflowed = overflow;
+                    overflow = null;
+                    fileAll(overflowed);
+                }
+            }
+
+            int slot = (int) currentTick & mask;
+            Timeout<T> due = slots[0][slot];
+            slots[0][slot] = null;
+            expire(due, expired);
+
+            // cascaded timeouts due on this very tick
+            expireOverdue(expired);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void file(Timeout<T> timeout) {
+        long deadline = timeout.deadlineTick;
+
+        if (deadline <= currentTick) {
+            timeout.next = overdue;
+            overdue = timeout;
+            return;
+        }
+
+        // highest digit the deadline differs from the current tick in
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / bits;
+
+        if (level >= levels) {
+            timeout.next = overflow;
+            overflow = timeout;
+        } else {
+            int slot = (int) (deadline >>> (bits * level)) & mask;
+            timeout.next = slots[level][slot];
+            slots[level][slot] = timeout;
+        }
+    }
+
+    private void fileAll(Timeout<T> timeout) {
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            file(timeout);
+            timeout = next;
+        }
+    }
+
+    private void expireOverdue(Consumer<T> expired) {
+        Timeout<T> due = overdue;
+        overdue = null;
+        expire(due, expired);
+    }
+
+    private void expire(Timeout<T> timeout, Consumer<T> expired) {
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            timeout.next = null;
+            size--;
+            expired.accept(timeout.item);
+            timeout = next;
+        }
+    }
+
+    private static final class Timeout<T> {
+        private final T item;
+        private final long deadlineTick;
+        private Timeout<T> next;
+
+        private Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
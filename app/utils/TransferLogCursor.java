@@ -0,0 +1,58 @@
+package utils;
+
+import models.TransferLog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in the transfer log history, the (created_at, id) of the last log handed out. Opaque to clients, who only
+ * pass back the token of the previous page.
+ */
+public final class TransferLogCursor {
+    private final Date createdAt;
+    private final long id;
+
+    private TransferLogCursor(Date createdAt, long id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public static TransferLogCursor of(TransferLog log) {
+        return new TransferLogCursor(log.getCreatedAt(), log.getId());
+    }
+
+    public static TransferLogCursor of(Date createdAt, long id) {
+        return new TransferLogCursor(createdAt, id);
+    }
+
+    /**
+     * Reads a token made by {@link #encode}, throwing {@link IllegalArgumentException} for anything else.
+     */
+    public static TransferLogCursor decode(String token) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII).split(":");
+            if (parts.length == 2)
+                return new TransferLogCursor(new Date(Long.parseLong(parts[0])), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException e) {
+            // bad base64 or numbers
+            throw new IllegalArgumentException("Invalid cursor " + token, e);
+        }
+        throw new IllegalArgumentException("Invalid cursor " + token);
+    }
+
+    public String encode() {
+        String position = createdAt.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
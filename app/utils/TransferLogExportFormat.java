@@ -0,0 +1,104 @@
+package utils;
+
+import models.TransferLog;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Optional;
+
+/**
+ * Line formats of the transfer log export, one log per line so a download can be written and read as a stream.
+ */
+public enum TransferLogExportFormat {
+    NDJSON("application/x-ndjson") {
+        @Override
+        protected byte[] line(TransferLog log) throws IOException {
+            return Json.mapper().writeValueAsBytes(log);
+        }
+    },
+    CSV("text/csv") {
+        @Override
+        public void writeHeader(OutputStream out) {
+            writeLine(out, "id,created_at,from_account_id,to_account_id,amount,requested_currency,credited_amount,status"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        protected byte[] line(TransferLog log) {
+            return String.join(",",
+                    String.valueOf(log.getId()),
+                    format(log.getCreatedAt()),
+                    String.valueOf(log.getFromAccountId()),
+                    String.valueOf(log.getToAccountId()),
+                    format(log.getAmount()),
+                    quote(log.getRequestedCurrency()),
+                    format(log.getCreditedAmount()),
+                    log.getStatus() == null ? "" : log.getStatus().name())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    private static final byte NEWLINE = '\n';
+
+    private final String contentType;
+
+    TransferLogExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public static Optional<TransferLogExportFormat> of(String name) {
+        for (TransferLogExportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name))
+                return Optional.of(format);
+        }
+        return Optional.empty();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void writeHeader(OutputStream out) {
+    }
+
+    public void write(OutputStream out, TransferLog log) {
+        try {
+            writeLine(out, line(log));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize transfer log " + log.getId(), e);
+        }
+    }
+
+    protected abstract byte[] line(TransferLog log) throws IOException;
+
+    private static void writeLine(OutputStream out, byte[] line) {
+        try {
+            out.write(line);
+            out.write(NEWLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write transfer log export", e);
+        }
+    }
+
+    private static String format(Date date) {
+        return date == null ? "" : DateTimeFormatter.ISO_INSTANT.format(date.toInstant());
+    }
+
+    private static String format(BigDecimal amount) {
+        return amount == null ? "" : amount.toPlainString();
+    }
+
+    private static String quote(String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -2,6 +2,9 @@ package controllers;
 
 import beans.request.CustomerOnboardRequest;
 import beans.request.TransferRequestBean;
+import beans.response.AccountStatement;
+import beans.response.BulkOnboardResult;
+import beans.response.TransferLogPage;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
@@ -9,6 +12,7 @@ import models.Account;
 import models.Account.CurrencyEnum;
 import models.Customer;
 import models.TransferLog;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -19,22 +23,37 @@ import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 import play.test.WithApplication;
+import services.TransferLogWriter;
 import startup.InMemoryDbInitialiser;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static play.mvc.Http.Status.BAD_REQUEST;
+import static play.mvc.Http.HeaderNames.ACCEPT_ENCODING;
+import static play.mvc.Http.HeaderNames.CONTENT_ENCODING;
+import static play.mvc.Http.HeaderNames.ETAG;
+import static play.mvc.Http.HeaderNames.IF_NONE_MATCH;
 import static play.mvc.Http.Status.INTERNAL_SERVER_ERROR;
+import static play.mvc.Http.Status.NOT_MODIFIED;
 import static play.mvc.Http.Status.OK;
 import static play.test.Helpers.POST;
+import static play.test.Helpers.contentAsBytes;
 import static play.test.Helpers.contentAsString;
 import static play.test.Helpers.route;
 
 public class CustomerControllerTest extends WithApplication {
     private static final String ONBOARD_ROUTE = "/customer/onboard";
+    private static final String BULK_ONBOARD_ROUTE = "/customers/onboard/bulk";
 
     private ObjectMapper mapper = new ObjectMapper();
     private Gson gson = new Gson();
@@ -128,8 +147,122 @@ public class CustomerControllerTest extends WithApplication {
         assertThat(result.status()).isEqualTo(OK);
         assertThat(resultString).isNotNull();
 
-        List<TransferLog> logs = gson.fromJson(resultString, List.class);
-        assertThat(logs.size()).isEqualTo(1);
+        TransferLogPage page = gson.fromJson(resultString, TransferLogPage.class);
+        assertThat(page.getLogs().size()).isEqualTo(1);
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void Given_MoreLogsThanLimit_When_GettingTransferLogs_Then_PageThroughThemWithCursor() {
+        // GIVEN
+        String url = "/customer/$1/logs/$2?limit=2".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        doTransfer(19283746L, 19283751L, 100, CurrencyEnum.SGD);
+        doTransfer(19283746L, 19283751L, 200, CurrencyEnum.SGD);
+        doTransfer(19283751L, 19283746L, 300, CurrencyEnum.SGD);
+
+        // WHEN
+        Result first = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+        TransferLogPage firstPage = gson.fromJson(contentAsString(first), TransferLogPage.class);
+
+        Result second = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url + "&after=" + firstPage.getNextCursor()));
+        TransferLogPage secondPage = gson.fromJson(contentAsString(second), TransferLogPage.class);
+
+        // THEN
+        assertThat(firstPage.getLogs().stream().map(log -> log.getAmount().intValue())).containsExactly(300, 200);
+        assertThat(firstPage.getNextCursor()).isNotNull();
+        assertThat(secondPage.getLogs().stream().map(log -> log.getAmount().intValue())).containsExactly(100);
+        assertThat(secondPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void Given_InvalidCursor_When_GettingTransferLogs_Then_ReturnBadRequest() {
+        // GIVEN
+        String url = "/customer/$1/logs/$2?after=nonsense".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+
+        // THEN
+        assertThat(result.status()).isEqualTo(BAD_REQUEST);
+        assertThat(contentAsString(result)).contains("Invalid cursor");
+    }
+
+    @Test
+    public void Given_TransfersDone_When_ExportingTransferLogs_Then_StreamOneJsonLinePerLog() {
+        // GIVEN
+        String url = "/customer/$1/logs/$2/export".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        doTransfer(19283746L, 19283751L, 100, CurrencyEnum.SGD);
+        doTransfer(19283751L, 19283746L, 300, CurrencyEnum.SGD);
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+        String[] lines = contentAsString(result, app.getWrappedApplication().materializer()).split("\n");
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.contentType()).contains("application/x-ndjson");
+        assertThat(lines).hasSize(2);
+        assertThat(gson.fromJson(lines[0], TransferLog.class).getAmount()).isEqualByComparingTo(BigDecimal.valueOf(300));
+        assertThat(gson.fromJson(lines[1], TransferLog.class).getAmount()).isEqualByComparingTo(BigDecimal.valueOf(100));
+    }
+
+    @Test
+    public void Given_GzipAccepted_When_ExportingTransferLogsAsCsv_Then_StreamGzippedCsv() throws IOException {
+        // GIVEN
+        String url = "/customer/$1/logs/$2/export?format=csv".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        doTransfer(19283746L, 19283751L, 100, CurrencyEnum.SGD);
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url).header(ACCEPT_ENCODING, "gzip"));
+        byte[] body = contentAsBytes(result, app.getWrappedApplication().materializer()).toArray();
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.header(CONTENT_ENCODING)).contains("gzip");
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8))) {
+            assertThat(reader.readLine()).startsWith("id,created_at,from_account_id,to_account_id,amount");
+            assertThat(reader.readLine()).contains(",19283746,19283751,100.00,SGD,,COMPLETED");
+            assertThat(reader.readLine()).isNull();
+        }
+    }
+
+    @Test
+    public void Given_UnknownFormat_When_ExportingTransferLogs_Then_ReturnBadRequest() {
+        // GIVEN
+        String url = "/customer/$1/logs/$2/export?format=xml".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+
+        // THEN
+        assertThat(result.status()).isEqualTo(BAD_REQUEST);
+    }
+
+    @Test
+    public void Given_TransfersDone_When_GettingStatement_Then_ReturnDailyTotalsFromRollups() {
+        // GIVEN
+        String url = "/customer/$1/statement/$2".replace("$1", String.valueOf(5L)).replace("$2", String.valueOf(19283751L));
+
+        doTransfer(19283746L, 19283751L, 100, CurrencyEnum.SGD);
+        doTransfer(19283746L, 19283751L, 200, CurrencyEnum.SGD);
+        doTransfer(19283751L, 19283746L, 50, CurrencyEnum.SGD);
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+        AccountStatement statement = gson.fromJson(contentAsString(result), AccountStatement.class);
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(statement.getDays()).hasSize(1);
+        assertThat(statement.getDays().get(0).getInflow()).isEqualByComparingTo(BigDecimal.valueOf(300));
+        assertThat(statement.getDays().get(0).getOutflow()).isEqualByComparingTo(BigDecimal.valueOf(50));
+        assertThat(statement.getDays().get(0).getTransferCount()).isEqualTo(3);
+        assertThat(statement.getClosingBalance()).isEqualByComparingTo(BigDecimal.valueOf(50250));
     }
 
     @Test
@@ -168,6 +301,43 @@ public class CustomerControllerTest extends WithApplication {
         assertThat(customer.getAccounts().size()).isEqualTo(2);
     }
 
+    @Test
+    public void Given_MatchingETag_When_GettingCustomerAccounts_Then_ReturnNotModified() {
+        // GIVEN
+        String url = "/customer/$1/accounts".replace("$1", String.valueOf(5L));
+        Result first = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+        String etag = first.header(ETAG).orElse(null);
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url).header(IF_NONE_MATCH, etag));
+
+        // THEN
+        assertThat(etag).isNotNull();
+        assertThat(result.status()).isEqualTo(NOT_MODIFIED);
+        assertThat(result.header(ETAG)).contains(etag);
+    }
+
+    @Test
+    public void Given_TransferAfterCaching_When_GettingCustomerAccounts_Then_ReturnNewBalances() {
+        // GIVEN
+        String url = "/customer/$1/accounts".replace("$1", String.valueOf(5L));
+        Result first = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url));
+        String etag = first.header(ETAG).orElse(null);
+
+        doTransfer(19283751L, 19283746L, 100, CurrencyEnum.SGD);
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(Helpers.GET).uri(url).header(IF_NONE_MATCH, etag));
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(result.header(ETAG)).isPresent().isNotEqualTo(Optional.ofNullable(etag));
+
+        Customer customer = gson.fromJson(contentAsString(result), Customer.class);
+        assertThat(customer.getAccounts().stream().map(Account::getTotalBalance))
+                .usingElementComparator(BigDecimal::compareTo).contains(BigDecimal.valueOf(49900));
+    }
+
     @Test
     public void Given_EmptyOnboardRequest_When_CustomerOnboarding_Then_OnboardFail() {
         // GIVEN
@@ -291,6 +461,40 @@ public class CustomerControllerTest extends WithApplication {
         assertThat(customer.getAccounts().get(0).getCurrency()).isEqualTo(CurrencyEnum.EUR);
     }
 
+    @Test
+    public void Given_MixedRecords_When_BulkOnboarding_Then_OnboardValidOnesAndReportOthersByLine() throws IOException {
+        // GIVEN
+        String body = String.join("\n",
+                mapper.writeValueAsString(buildOnboardRequest("Leo", "Travis", 10, CurrencyEnum.EUR)),
+                "",
+                mapper.writeValueAsString(buildOnboardRequest(" ", "Andrew", 10, CurrencyEnum.SGD)),
+                "{\"firstName\": \"Broken",
+                // too long for its column, fails the chunk's insert and is singled out on the retry
+                mapper.writeValueAsString(buildOnboardRequest("Max", StringUtils.repeat('x', 300), 5,
+                        CurrencyEnum.USD)),
+                mapper.writeValueAsString(buildOnboardRequest("Mia", "Wong", 20, CurrencyEnum.SGD)));
+
+        // WHEN
+        Http.RequestBuilder request = new Http.RequestBuilder().method(POST).uri(BULK_ONBOARD_ROUTE).bodyText(body);
+        Result result = route(app, request);
+        BulkOnboardResult onboardResult = gson.fromJson(contentAsString(result), BulkOnboardResult.class);
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+        assertThat(onboardResult.getOnboarded()).isEqualTo(2);
+        assertThat(onboardResult.getFailed()).isEqualTo(3);
+        assertThat(onboardResult.getErrors()).extracting("line").containsExactly(3L, 4L, 5L);
+        assertThat(onboardResult.getErrors().get(0).getMessage()).contains("first name or last name cannot be empty");
+
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        List<Customer> customers = jpaApi.withTransaction(em ->
+                em.createQuery("select distinct c from Customer c join fetch c.accounts" +
+                        " where c.firstName in ('Leo', 'Max', 'Mia') order by c.firstName", Customer.class)
+                        .getResultList());
+        assertThat(customers).extracting("firstName").containsExactly("Leo", "Mia");
+        assertThat(customers.get(1).getAccounts().get(0).getBalance()).isEqualByComparingTo("20");
+    }
+
     private void doTransfer(Long from, Long to, double amount, CurrencyEnum currency) {
         String TRANSFER_ROUTE = "/transfer";
         TransferRequestBean transferRequestBean = TransferRequestBean.builder()
@@ -304,6 +508,9 @@ public class CustomerControllerTest extends WithApplication {
 
         Http.RequestBuilder request = new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE).bodyJson(body);
         route(app, request);
+
+        // transfer logs are written in the background
+        app.injector().instanceOf(TransferLogWriter.class).flush();
     }
 
     private JsonNode buildOnboardRequest(String firstName, String lastName, double balance, CurrencyEnum currency) {
@@ -3,7 +3,10 @@ package controllers;
 import beans.request.TransferRequestBean;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.Account;
+import models.IdempotencyKey;
+import models.TransferLog;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,6 +17,7 @@ import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 import play.test.WithApplication;
+import services.TransferService;
 import startup.InMemoryDbInitialiser;
 
 import java.math.BigDecimal;
@@ -22,6 +26,7 @@ import static models.Account.CurrencyEnum;
 import static org.assertj.core.api.Assertions.assertThat;
 import static play.mvc.Http.Status.BAD_REQUEST;
 import static play.mvc.Http.Status.INTERNAL_SERVER_ERROR;
+import static play.mvc.Http.Status.UNPROCESSABLE_ENTITY;
 import static play.test.Helpers.OK;
 import static play.test.Helpers.POST;
 import static play.test.Helpers.contentAsString;
@@ -159,9 +164,10 @@ public class TransferControllerTest extends WithApplication {
     }
 
     @Test
-    public void Given_FromAndToAccountsHaveDifferentCurrencies_When_AccountTransfer_Then_TransferFail() {
-        // GIVEN
-        JsonNode body = buildTransferRequest(19283748L, 19283749L, 7435, CurrencyEnum.SGD);
+    public void Given_FromAndToAccountsHaveDifferentCurrencies_When_CreditRoundsToZero_Then_TransferFail() {
+        // GIVEN - 0.001 EUR is 0.0011 USD, rounded to 0.00
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        JsonNode body = buildTransferRequest(19283748L, 19283749L, 0.001, CurrencyEnum.EUR);
 
         // WHEN
         Http.RequestBuilder request = new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE).bodyJson(body);
@@ -170,8 +176,30 @@ public class TransferControllerTest extends WithApplication {
 
         // THEN
         assertThat(result.status()).isEqualTo(INTERNAL_SERVER_ERROR);
-        assertThat(resultString).isNotNull();
-        assertThat(resultString).contains("Transfer failed - exception.InvalidCurrencyTransfer: Given accounts have different currencies of EUR and USD");
+        assertThat(resultString).contains("Transfer failed - exception.InvalidTransferRequest: Amount 0.001 EUR is worth nothing in USD");
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283748L));
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(30000));
+    }
+
+    @Test
+    public void Given_FromAndToAccountsHaveDifferentCurrencies_When_AccountTransfer_Then_CreditedAtFxRate() {
+        // GIVEN
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        JsonNode body = buildTransferRequest(19283748L, 19283749L, 100, CurrencyEnum.EUR);
+
+        // WHEN
+        Http.RequestBuilder request = new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE).bodyJson(body);
+        Result result = route(app, request);
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283748L));
+        Account receiver = jpaApi.withTransaction(em -> em.find(Account.class, 19283749L));
+
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(29900));
+        assertThat(receiver.getBalance()).isEqualByComparingTo(new BigDecimal("40108.70")); // 100 / 0.92 USD,EUR
     }
 
     @Test
@@ -259,6 +287,98 @@ public class TransferControllerTest extends WithApplication {
         assertThat(receiver.getBalance()).isEqualTo(BigDecimal.valueOf(116999.99)); // 67000 + 49999.99
     }
 
+    @Test
+    public void Given_SameIdempotencyKey_When_AccountTransferRetried_Then_TransferredOnce() {
+        // GIVEN
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        JsonNode body = buildTransferRequest(19283751L, 19283752L, 30000, CurrencyEnum.SGD);
+
+        // WHEN
+        Result first = route(app, new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE)
+                .header("Idempotency-Key", "retry-1").bodyJson(body));
+        Result retry = route(app, new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE)
+                .header("Idempotency-Key", "retry-1").bodyJson(body));
+
+        // THEN
+        assertThat(first.status()).isEqualTo(OK);
+        assertThat(retry.status()).isEqualTo(OK); // a second debit of 30000 would have been rejected
+        assertThat(contentAsString(retry)).contains("Transfer success");
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283751L));
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(20000));
+    }
+
+    @Test
+    public void Given_IdempotencyKeyUsedForAnotherTransfer_When_AccountTransfer_Then_Rejected() {
+        // GIVEN
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+
+        JsonNode body = buildTransferRequest(19283751L, 19283752L, 100, CurrencyEnum.SGD);
+        JsonNode otherBody = buildTransferRequest(19283751L, 19283752L, 200, CurrencyEnum.SGD);
+
+        // WHEN
+        Result first = route(app, new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE)
+                .header("Idempotency-Key", "reused-1").bodyJson(body));
+        Result reused = route(app, new Http.RequestBuilder().method(POST).uri(TRANSFER_ROUTE)
+                .header("Idempotency-Key", "reused-1").bodyJson(otherBody));
+
+        // THEN
+        assertThat(first.status()).isEqualTo(OK);
+        assertThat(reused.status()).isEqualTo(UNPROCESSABLE_ENTITY);
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283751L));
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(49900));
+    }
+
+    @Test
+    public void Given_IdempotencyKeyCompletedInDatabase_When_TransferRepeated_Then_TransferredOnce() {
+        // GIVEN - the service is called directly, past the in-memory outcomes of the controller
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        TransferService transferService = app.injector().instanceOf(TransferService.class);
+        TransferRequestBean request = TransferRequestBean.builder().fromAccountId(19283751L).toAccountId(19283752L)
+                .amount(BigDecimal.valueOf(30000)).currency(CurrencyEnum.SGD).build();
+
+        // WHEN
+        boolean first = jpaApi.withTransaction(() -> transferService.transfer(request, "db-key-1"));
+        boolean repeated = jpaApi.withTransaction(() -> transferService.transfer(request, "db-key-1"));
+
+        // THEN
+        assertThat(first).isTrue();
+        assertThat(repeated).isTrue(); // a second debit of 30000 would have been rejected
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283751L));
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(20000));
+
+        IdempotencyKey key = jpaApi.withTransaction(em -> em.find(IdempotencyKey.class, "db-key-1"));
+        assertThat(key.getStatus()).isEqualTo(TransferLog.Status.COMPLETED);
+    }
+
+    @Test
+    public void Given_ConditionalEngine_When_MultiLegTransfer_Then_AllLegsApplied() {
+        // GIVEN - multi-leg transfers do not depend on the locking engine
+        Helpers.stop(app);
+        app = new GuiceApplicationBuilder().configure("transfer.engine", "conditional").build();
+        Helpers.start(app);
+        app.injector().instanceOf(InMemoryDbInitialiser.class).init();
+
+        JPAApi jpaApi = app.injector().instanceOf(JPAApi.class);
+        ObjectNode body = mapper.createObjectNode();
+        body.putArray("legs")
+                .add(buildTransferRequest(19283751L, 19283752L, 60, CurrencyEnum.SGD))
+                .add(buildTransferRequest(19283751L, 19283750L, 40, CurrencyEnum.SGD));
+
+        // WHEN
+        Result result = route(app, new Http.RequestBuilder().method(POST).uri("/transfers/multi-leg").bodyJson(body));
+
+        // THEN
+        assertThat(result.status()).isEqualTo(OK);
+
+        Account sender = jpaApi.withTransaction(em -> em.find(Account.class, 19283751L));
+        Account receiver = jpaApi.withTransaction(em -> em.find(Account.class, 19283750L));
+        assertThat(sender.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(49900));
+        assertThat(receiver.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(22040));
+    }
+
     private JsonNode buildTransferRequest(Long from, Long to, double amount, CurrencyEnum currency) {
         TransferRequestBean transferRequestBean = TransferRequestBean.builder()
                 .amount(BigDecimal.valueOf(amount))
@@ -23,8 +23,12 @@ import services.impl.TransferServiceImpl;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Function;
@@ -91,6 +95,62 @@ public class AccountDaoTest {
         assertThat(result.get().getCurrency()).isEqualTo(CurrencyEnum.SGD);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetAccounts_whenAccountsFound() {
+        Account from = Account.builder().id(21321L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account to = Account.builder().id(21322L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(any(), any())).thenReturn(typedQuery);
+        when(typedQuery.setParameter(anyString(), anyObject())).thenReturn(typedQuery);
+        when(typedQuery.getResultList()).thenReturn(Arrays.asList(from, to));
+
+        List<Account> result = accountDao.getAccounts(Arrays.asList(21321L, 21322L));
+        assertThat(result).containsExactly(from, to);
+
+        verify(em).createQuery(eq("select a from Account a where a.id in (:accountIds)"), any());
+        verify(typedQuery).setParameter(eq("accountIds"), eq(Arrays.asList(21321L, 21322L)));
+    }
+
+    @Test
+    public void testGetAccounts_whenNoIds_thenNoQuery() {
+        List<Account> result = accountDao.getAccounts(Collections.emptyList());
+
+        assertThat(result).isEmpty();
+        verify(jpaApi, never()).em();
+    }
+
+    @Test
+    public void testDebitIfSufficient_whenBalanceCovers_thenRowUpdated() {
+        Query query = mock(Query.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+        when(query.executeUpdate()).thenReturn(1);
+
+        assertThat(accountDao.debitIfSufficient(21321L, BigDecimal.TEN)).isTrue();
+
+        verify(em).createQuery(eq("update Account a set a.balance = a.balance - :amount," +
+                " a.version = a.version + 1, a.updatedAt = current_timestamp" +
+                " where a.id = :accountId and a.balance >= :amount"));
+        verify(query).setParameter(eq("amount"), eq(BigDecimal.TEN));
+        verify(query).setParameter(eq("accountId"), eq(21321L));
+    }
+
+    @Test
+    public void testDebitIfSufficient_whenBalanceShort_thenNoMatch() {
+        Query query = mock(Query.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyString(), anyObject())).thenReturn(query);
+        when(query.executeUpdate()).thenReturn(0);
+
+        assertThat(accountDao.debitIfSufficient(21321L, BigDecimal.TEN)).isFalse();
+    }
+
     @Test
     public void testGetJPAApi() {
         JPAApi result = accountDao.jpaApi();
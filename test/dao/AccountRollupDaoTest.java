@@ -0,0 +1,116 @@
+package dao;
+
+import models.AccountDailyRollup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against H2, the closing balances are kept by the statements themselves.
+ */
+public class AccountRollupDaoTest {
+    private static final Long ACCOUNT_ID = 1234L;
+    private static final LocalDate DAY = LocalDate.of(2020, 1, 10);
+
+    private Application app;
+    private JPAApi jpaApi;
+    private AccountRollupDao underTest;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        underTest = app.injector().instanceOf(AccountRollupDao.class);
+    }
+
+    @After
+    public void teardown() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testAdd_whenNewDays_thenEachOpensWithTheClosingBalanceBefore() {
+        add(adjustment(DAY, 1000));
+        add(inflow(DAY.plusDays(2), 300), outflow(DAY.plusDays(2), 100));
+        add(outflow(DAY.plusDays(5), 50));
+
+        assertThat(closingBalances(DAY, DAY.plusDays(5))).usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(BigDecimal.valueOf(1000), BigDecimal.valueOf(1200), BigDecimal.valueOf(1150));
+    }
+
+    @Test
+    public void testAdd_whenLateDeltaOnEarlierDay_thenCarriedToTheDaysAfter() {
+        add(adjustment(DAY, 1000));
+        add(inflow(DAY.plusDays(5), 300));
+
+        // a day in between, and a late delta on a day already followed by others
+        add(outflow(DAY.plusDays(2), 100));
+        add(inflow(DAY, 10));
+
+        assertThat(closingBalances(DAY, DAY.plusDays(5))).usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(BigDecimal.valueOf(1010), BigDecimal.valueOf(910), BigDecimal.valueOf(1210));
+    }
+
+    @Test
+    public void testGetRollups_thenLastRollupBeforeRangeAndRollupsInRange() {
+        add(adjustment(DAY, 1000));
+        add(inflow(DAY.plusDays(1), 10));
+        add(inflow(DAY.plusDays(3), 20));
+        add(inflow(DAY.plusDays(4), 30));
+        add(inflow(DAY.plusDays(8), 40));
+
+        List<AccountDailyRollup> rollups = jpaApi.withTransaction(() ->
+                underTest.getRollups(ACCOUNT_ID, DAY.plusDays(3), DAY.plusDays(5)));
+
+        assertThat(rollups).extracting("date").containsExactly(DAY.plusDays(1), DAY.plusDays(3), DAY.plusDays(4));
+        assertThat(rollups.get(0).getClosingBalance()).isEqualByComparingTo(BigDecimal.valueOf(1010));
+    }
+
+    private void add(AccountDailyRollup... deltas) {
+        jpaApi.withTransaction(() -> underTest.add(Arrays.asList(deltas)));
+    }
+
+    private List<BigDecimal> closingBalances(LocalDate from, LocalDate to) {
+        return jpaApi.withTransaction(() -> jpaApi.em().createQuery("select r.closingBalance" +
+                " from AccountDailyRollup r where r.accountId = :accountId and r.date between :from and :to" +
+                " order by r.date", BigDecimal.class)
+                .setParameter("accountId", ACCOUNT_ID)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .getResultList());
+    }
+
+    private static AccountDailyRollup adjustment(LocalDate date, long amount) {
+        return delta(date, 0, 0, 0, amount);
+    }
+
+    private static AccountDailyRollup inflow(LocalDate date, long amount) {
+        return delta(date, amount, 0, 1, 0);
+    }
+
+    private static AccountDailyRollup outflow(LocalDate date, long amount) {
+        return delta(date, 0, amount, 1, 0);
+    }
+
+    private static AccountDailyRollup delta(LocalDate date, long inflow, long outflow, long transferCount,
+                                            long adjustment) {
+        return AccountDailyRollup.builder().accountId(ACCOUNT_ID).date(date)
+                .inflow(BigDecimal.valueOf(inflow))
+                .outflow(BigDecimal.valueOf(outflow))
+                .transferCount(transferCount)
+                .adjustment(BigDecimal.valueOf(adjustment)).build();
+    }
+}
@@ -0,0 +1,211 @@
+package dao;
+
+import dao.impl.CachingAccountDao;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingAccountDaoTest {
+    private JPAApi jpaApi;
+    private EntityManager em;
+    private TypedQuery<Account> typedQuery;
+    private CachingAccountDao underTest;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        jpaApi = mock(JPAApi.class);
+        em = mock(EntityManager.class);
+        typedQuery = mock(TypedQuery.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> invocation.getArgumentAt(2, Function.class).apply(em));
+        when(em.createQuery(anyString(), eq(Account.class))).thenReturn(typedQuery);
+        when(typedQuery.setParameter(anyString(), anyObject())).thenReturn(typedQuery);
+
+        underTest = new CachingAccountDao(jpaApi, 2);
+    }
+
+    @Test
+    public void testGetAccount_whenCached_thenNotLoadedAgain() {
+        when(typedQuery.getSingleResult()).thenReturn(buildAccount(21321L, 10));
+
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.TEN);
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.TEN);
+
+        verify(typedQuery, times(1)).getSingleResult();
+        assertThat(underTest.getStats().getHitCount()).isEqualTo(1);
+        assertThat(underTest.getStats().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetAccount_returnsCopies() {
+        when(typedQuery.getSingleResult()).thenReturn(buildAccount(21321L, 10));
+
+        underTest.getAccount(21321L).get().setBalance(BigDecimal.ZERO);
+
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void testGetAccount_whenMaxSizeExceeded_thenLeastRecentEvicted() {
+        when(typedQuery.getSingleResult())
+                .thenReturn(buildAccount(1L, 1), buildAccount(2L, 2), buildAccount(3L, 3), buildAccount(1L, 1));
+
+        underTest.getAccount(1L);
+        underTest.getAccount(2L);
+        underTest.getAccount(3L);
+        underTest.getAccount(1L);
+
+        verify(typedQuery, times(4)).getSingleResult();
+        assertThat(underTest.getStats().getEvictionCount()).isGreaterThanOrEqualTo(1);
+        assertThat(underTest.getStats().getSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void testGetAccount_concurrentMisses_loadedOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(typedQuery.getSingleResult()).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return buildAccount(21321L, 10);
+        });
+
+        CompletableFuture<Optional<Account>> first = CompletableFuture.supplyAsync(() -> underTest.getAccount(21321L));
+        loading.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Optional<Account>> second = CompletableFuture.supplyAsync(() -> underTest.getAccount(21321L));
+
+        Thread.sleep(50);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isPresent();
+        assertThat(second.get(5, TimeUnit.SECONDS)).isPresent();
+        verify(typedQuery, times(1)).getSingleResult();
+    }
+
+    @Test
+    public void testCommitted_thenCachedCopyReplaced() {
+        when(typedQuery.getSingleResult()).thenReturn(buildAccount(21321L, 10));
+        underTest.getAccount(21321L);
+
+        underTest.committed(Collections.singletonList(buildAccount(21321L, 3)));
+
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(3));
+        verify(typedQuery, times(1)).getSingleResult();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAdjustBalance_thenEvictedOnCompletion() {
+        Session session = mock(Session.class);
+        Transaction transaction = mock(Transaction.class);
+        Query update = mock(Query.class);
+        when(em.unwrap(Session.class)).thenReturn(session);
+        when(session.getTransaction()).thenReturn(transaction);
+        when(em.createQuery(anyString())).thenReturn(update);
+        when(update.setParameter(anyString(), anyObject())).thenReturn(update);
+        when(update.executeUpdate()).thenReturn(1);
+        when(typedQuery.getSingleResult()).thenReturn(buildAccount(21321L, 10), buildAccount(21321L, 7),
+                buildAccount(21321L, 12));
+
+        underTest.getAccount(21321L);
+        underTest.adjustBalance(21321L, BigDecimal.valueOf(2));
+
+        // read before the update is visible
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(7));
+
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transaction).registerSynchronization(synchronization.capture());
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(12));
+    }
+
+    @Test
+    public void testGetAccount_whenEvictedWhileLoading_thenLoadedStateNotKept() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(typedQuery.getSingleResult()).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return buildAccount(21321L, 10);
+        }).thenReturn(buildAccount(21321L, 4));
+
+        // the load reads the old balance, the change commits and evicts before the load stores it
+        CompletableFuture<Optional<Account>> stale = CompletableFuture.supplyAsync(() -> underTest.getAccount(21321L));
+        loading.await(5, TimeUnit.SECONDS);
+        underTest.evict(Collections.singletonList(21321L));
+        release.countDown();
+        stale.get(5, TimeUnit.SECONDS);
+
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(4));
+        assertThat(underTest.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(4));
+        verify(typedQuery, times(3)).getSingleResult();
+    }
+
+    @Test
+    public void testGetAccount_whenTtlPassed_thenLoadedAgain() throws Exception {
+        CachingAccountDao expiring = new CachingAccountDao(jpaApi, 2, 20);
+        when(typedQuery.getSingleResult()).thenReturn(buildAccount(21321L, 10), buildAccount(21321L, 6));
+
+        expiring.getAccount(21321L);
+        Thread.sleep(50);
+
+        assertThat(expiring.getAccount(21321L).get().getBalance()).isEqualTo(BigDecimal.valueOf(6));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLookupAccounts_whenCached_thenOnlyMissesRead() {
+        TypedQuery<Account> lookup = mock(TypedQuery.class);
+        when(em.createQuery(eq("select a from Account a where a.id in (:accountIds)"), eq(Account.class)))
+                .thenReturn(lookup);
+        when(lookup.setParameter(anyString(), anyObject())).thenReturn(lookup);
+        when(lookup.getResultList()).thenReturn(Collections.singletonList(buildAccount(2L, 20)));
+        underTest.committed(Collections.singletonList(buildAccount(1L, 10)));
+
+        List<Account> first = underTest.lookupAccounts(Arrays.asList(1L, 2L));
+        List<Account> second = underTest.lookupAccounts(Arrays.asList(1L, 2L));
+
+        assertThat(first).extracting(Account::getId).containsOnly(1L, 2L);
+        assertThat(second).extracting(Account::getId).containsOnly(1L, 2L);
+        verify(lookup).setParameter("accountIds", Collections.singletonList(2L));
+        verify(lookup, times(1)).getResultList();
+    }
+
+    private Account buildAccount(Long id, long balance) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.valueOf(balance)).build();
+    }
+}
@@ -0,0 +1,98 @@
+package dao;
+
+import models.Account;
+import models.Customer;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.libs.Json;
+import play.test.Helpers;
+import startup.InMemoryDbInitialiser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counts the statements behind loading and serialising a customer and behind onboarding a chunk of them, so a lazy
+ * load or an unbatched insert creeping back in fails here.
+ */
+public class CustomerDaoQueryCountTest {
+    private Application app;
+    private JPAApi jpaApi;
+    private CustomerDao customerDao;
+    private Statistics statistics;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+        app.injector().instanceOf(InMemoryDbInitialiser.class).init();
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        customerDao = app.injector().instanceOf(CustomerDao.class);
+
+        statistics = jpaApi.withTransaction(() ->
+                jpaApi.em().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics());
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @After
+    public void teardown() {
+        statistics.setStatisticsEnabled(false);
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testGetCustomerById_whenSeveralAccounts_thenOneStatement() {
+        statistics.clear();
+
+        String json = jpaApi.withTransaction(() -> customerDao.getCustomerById(5L)
+                .map(customer -> Json.stringify(Json.toJson(customer)))
+                .orElse(null));
+
+        assertThat(json).contains("\"firstName\":\"Matthew\"");
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(statistics.getCollectionFetchCount()).isZero();
+    }
+
+    @Test
+    public void testGetCustomerById_returnsEveryAccountOnce() {
+        Customer customer = jpaApi.withTransaction(() -> customerDao.getCustomerById(5L).orElse(null));
+
+        assertThat(customer.getAccounts()).hasSize(2);
+        assertThat(customer.getAccounts()).extracting("id").doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void testOnboardCustomers_whenChunk_thenInsertsAreBatched() {
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            customers.add(Customer.CustomerBuilder.builder().withFirstName("Bulk").withLastName("Customer " + i)
+                    .withAccounts(Account.builder().balance(BigDecimal.TEN).currency(Account.CurrencyEnum.SGD).build())
+                    .build());
+        }
+        statistics.clear();
+
+        jpaApi.withTransaction(() -> {
+            customerDao.onboardCustomers(customers);
+            return null;
+        });
+
+        // one statement per batch of 50 customers or accounts plus the pooled sequence calls, not one per row
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(240);
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(20);
+
+        List<Long> accountIds = customers.stream().map(customer -> customer.getAccounts().get(0).getId())
+                .collect(Collectors.toList());
+        assertThat(accountIds).doesNotHaveDuplicates().isSorted();
+    }
+}
@@ -3,28 +3,43 @@ package dao;
 import dao.impl.CustomerDaoImpl;
 import exception.NoAccountFoundException;
 import models.Account;
+import models.AccountDailyRollup;
 import models.Customer;
 import models.TransferLog;
+import org.hibernate.jpa.QueryHints;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.runners.MockitoJUnitRunner;
 import play.db.jpa.JPAApi;
+import utils.TransferLogCursor;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.Matchers.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -34,6 +49,7 @@ public class CustomerDaoTest {
     private JPAApi jpaApi;
     private EntityManager em;
     private TypedQuery typedQuery;
+    private AccountRollupDao rollupDao;
     private CustomerDao customerDao;
 
     @Before
@@ -42,7 +58,9 @@ public class CustomerDaoTest {
         em = mock(EntityManager.class);
         typedQuery = mock(TypedQuery.class);
 
-        customerDao = new CustomerDaoImpl(jpaApi);
+        rollupDao = mock(AccountRollupDao.class);
+
+        customerDao = new CustomerDaoImpl(jpaApi, rollupDao);
     }
 
     @Test
@@ -51,12 +69,14 @@ public class CustomerDaoTest {
         when(jpaApi.em()).thenReturn(em);
         when(em.createQuery(any(), any())).thenReturn(typedQuery);
         when(typedQuery.setParameter(anyString(), anyObject())).thenReturn(typedQuery);
+        when(typedQuery.setHint(anyString(), anyObject())).thenReturn(typedQuery);
         when(typedQuery.getSingleResult()).thenThrow(NoResultException.class);
 
         Optional<Customer> result = customerDao.getCustomerById(23234L);
         assertThat(result.isPresent()).isFalse();
 
-        verify(em).createQuery(eq("select c from Customer c join Account a on c.id = a.customerId where c.id = :customerId"), any());
+        verify(em).createQuery(eq("select distinct c from Customer c join fetch c.accounts where c.id = :customerId"), any());
+        verify(typedQuery).setHint(eq(QueryHints.HINT_PASS_DISTINCT_THROUGH), eq(false));
         verify(typedQuery).setParameter(eq("customerId"), eq(23234L));
     }
 
@@ -69,6 +89,7 @@ public class CustomerDaoTest {
         when(jpaApi.em()).thenReturn(em);
         when(em.createQuery(any(), any())).thenReturn(typedQuery);
         when(typedQuery.setParameter(anyString(), anyLong())).thenReturn(typedQuery);
+        when(typedQuery.setHint(anyString(), anyObject())).thenReturn(typedQuery);
         when(typedQuery.getSingleResult()).thenReturn(customer);
 
         Optional<Customer> result = customerDao.getCustomerById(23234L);
@@ -94,6 +115,7 @@ public class CustomerDaoTest {
     }
 
     @Test
+    @SuppressWarnings("unchecked")
     public void testCustomerOnboarding_whenValidCustomer() {
         Account account = Account.builder().id(21321L).currency(Account.CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
         Customer customer = Customer.CustomerBuilder.builder().withFirstName("Bryan").withLastName("Adams")
@@ -104,30 +126,121 @@ public class CustomerDaoTest {
         customerDao.onboardCustomer(customer);
 
         verify(em).persist(eq(customer));
+
+        ArgumentCaptor<Collection> deltas = ArgumentCaptor.forClass(Collection.class);
+        verify(rollupDao).add(deltas.capture());
+        assertThat((Collection<AccountDailyRollup>) deltas.getValue()).extracting("accountId", "adjustment")
+                .containsExactly(tuple(21321L, BigDecimal.TEN));
     }
 
     @Test
     @SuppressWarnings("unchecked")
-    public void testGetTransferLogs() {
-        TransferLog transferLog = TransferLog.builder().fromAccountId(93848984L).toAccountId(93848985L)
-                .amount(BigDecimal.TEN).status(TransferLog.Status.COMPLETED).build();
+    public void testCustomersOnboarding_whenChunk_thenOneRollupAddAndContextCleared() {
+        Customer bryan = Customer.CustomerBuilder.builder().withFirstName("Bryan").withLastName("Adams")
+                .withAccounts(Account.builder().id(21321L).balance(BigDecimal.TEN).build()).build();
+        Customer alice = Customer.CustomerBuilder.builder().withFirstName("Alice").withLastName("Cooper")
+                .withAccounts(Account.builder().id(21322L).balance(BigDecimal.ONE).build()).build();
 
         when(jpaApi.em()).thenReturn(em);
-        when(em.createQuery(any(), any())).thenReturn(typedQuery);
+
+        customerDao.onboardCustomers(Arrays.asList(bryan, alice));
+
+        InOrder inOrder = inOrder(em);
+        inOrder.verify(em).persist(eq(bryan));
+        inOrder.verify(em).persist(eq(alice));
+        inOrder.verify(em).flush();
+        inOrder.verify(em).clear();
+
+        ArgumentCaptor<Collection> deltas = ArgumentCaptor.forClass(Collection.class);
+        verify(rollupDao).add(deltas.capture());
+        assertThat((Collection<AccountDailyRollup>) deltas.getValue()).extracting("accountId", "adjustment")
+                .containsExactly(tuple(21321L, BigDecimal.TEN), tuple(21322L, BigDecimal.ONE));
+    }
+
+    @Test(expected = NoAccountFoundException.class)
+    public void testCustomersOnboarding_whenOneHasNoAccounts_thenNothingPersisted() {
+        Customer bryan = Customer.CustomerBuilder.builder().withFirstName("Bryan").withLastName("Adams")
+                .withAccounts(Account.builder().id(21321L).balance(BigDecimal.TEN).build()).build();
+        Customer alice = Customer.CustomerBuilder.builder().withFirstName("Alice").withLastName("Cooper").build();
+
+        when(jpaApi.em()).thenReturn(em);
+
+        try {
+            customerDao.onboardCustomers(Arrays.asList(bryan, alice));
+        } finally {
+            verify(em, never()).persist(any());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetTransferLogs_mergesBothSidesNewestFirst() {
+        TransferLog sentLate = buildLog(3L, 3000L);
+        TransferLog received = buildLog(2L, 2000L);
+        TransferLog sentEarly = buildLog(1L, 1000L);
+        TypedQuery<Long> countQuery = mock(TypedQuery.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+        when(countQuery.setParameter(anyString(), anyLong())).thenReturn(countQuery);
+        when(countQuery.getSingleResult()).thenReturn(1L);
+        when(em.createQuery(anyString(), eq(TransferLog.class))).thenReturn(typedQuery);
         when(typedQuery.setParameter(anyString(), anyLong())).thenReturn(typedQuery);
-        when(typedQuery.getResultList()).thenReturn(Collections.singletonList(transferLog));
-
-        List<TransferLog> result = customerDao.getTransferLogs(23123L, 93848984L);
-        assertThat(result.size()).isEqualTo(1);
-        assertThat(result.get(0).getAmount()).isEqualTo(BigDecimal.TEN);
-        assertThat(result.get(0).getFromAccountId()).isEqualTo(93848984L);
-        assertThat(result.get(0).getToAccountId()).isEqualTo(93848985L);
-        assertThat(result.get(0).getStatus()).isEqualByComparingTo(TransferLog.Status.COMPLETED);
-
-        verify(em).createQuery(eq("select tl from TransferLog tl join Account a on tl.fromAccountId = a.id or tl.toAccountId = a.id " +
-                "join Customer c on c.id = a.customerId where a.id = :accountId and c.id = :customerId"), any());
-        verify(typedQuery).setParameter(eq("accountId"), eq(93848984L));
-        verify(typedQuery).setParameter(eq("customerId"), eq(23123L));
+        when(typedQuery.setMaxResults(anyInt())).thenReturn(typedQuery);
+        when(typedQuery.getResultList()).thenReturn(Arrays.asList(sentLate, sentEarly), Collections.singletonList(received));
+
+        List<TransferLog> result = customerDao.getTransferLogs(23123L, 93848984L, null, 2);
+        assertThat(result).containsExactly(sentLate, received);
+
+        verify(em).createQuery(eq("select count(a) from Account a where a.id = :accountId and a.customerId = :customerId"), eq(Long.class));
+        verify(countQuery).setParameter(eq("accountId"), eq(93848984L));
+        verify(countQuery).setParameter(eq("customerId"), eq(23123L));
+        verify(em).createQuery(eq("select tl from TransferLog tl where tl.fromAccountId = :accountId" +
+                " order by tl.createdAt desc, tl.id desc"), eq(TransferLog.class));
+        verify(em).createQuery(eq("select tl from TransferLog tl where tl.toAccountId = :accountId" +
+                " and (tl.fromAccountId is null or tl.fromAccountId <> :accountId)" +
+                " order by tl.createdAt desc, tl.id desc"), eq(TransferLog.class));
+        verify(typedQuery, times(2)).setMaxResults(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetTransferLogs_whenAccountNotOwned_thenNoLogs() {
+        TypedQuery<Long> countQuery = mock(TypedQuery.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+        when(countQuery.setParameter(anyString(), anyLong())).thenReturn(countQuery);
+        when(countQuery.getSingleResult()).thenReturn(0L);
+
+        assertThat(customerDao.getTransferLogs(23123L, 93848984L, null, 10)).isEmpty();
+        verify(em, never()).createQuery(anyString(), eq(TransferLog.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetTransferLogs_whenCursorGiven_thenStartsPastIt() {
+        TransferLogCursor cursor = TransferLogCursor.decode(
+                Base64.getUrlEncoder().encodeToString("1500000000000:42".getBytes(StandardCharsets.US_ASCII)));
+        TypedQuery<Long> countQuery = mock(TypedQuery.class);
+
+        when(jpaApi.em()).thenReturn(em);
+        when(em.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+        when(countQuery.setParameter(anyString(), anyLong())).thenReturn(countQuery);
+        when(countQuery.getSingleResult()).thenReturn(1L);
+        when(em.createQuery(anyString(), eq(TransferLog.class))).thenReturn(typedQuery);
+        when(typedQuery.setParameter(anyString(), anyLong())).thenReturn(typedQuery);
+        when(typedQuery.setParameter(anyString(), any(Date.class), any(TemporalType.class))).thenReturn(typedQuery);
+        when(typedQuery.setMaxResults(anyInt())).thenReturn(typedQuery);
+        when(typedQuery.getResultList()).thenReturn(Collections.emptyList());
+
+        customerDao.getTransferLogs(23123L, 93848984L, cursor, 10);
+
+        verify(em).createQuery(eq("select tl from TransferLog tl where tl.fromAccountId = :accountId" +
+                " and (tl.createdAt < :createdAt or (tl.createdAt = :createdAt and tl.id < :id))" +
+                " order by tl.createdAt desc, tl.id desc"), eq(TransferLog.class));
+        verify(typedQuery, times(2)).setParameter(eq("createdAt"), eq(new Date(1500000000000L)), eq(TemporalType.TIMESTAMP));
+        verify(typedQuery, times(2)).setParameter(eq("id"), eq(42L));
     }
 
     @Test
@@ -135,4 +248,11 @@ public class CustomerDaoTest {
         JPAApi result = customerDao.jpaApi();
         assertThat(result).isEqualTo(jpaApi);
     }
+
+    private TransferLog buildLog(Long id, long createdAtMillis) {
+        TransferLog transferLog = mock(TransferLog.class);
+        when(transferLog.getId()).thenReturn(id);
+        when(transferLog.getCreatedAt()).thenReturn(new Date(createdAtMillis));
+        return transferLog;
+    }
 }
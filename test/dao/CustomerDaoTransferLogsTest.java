@@ -0,0 +1,84 @@
+package dao;
+
+import models.TransferLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+import startup.InMemoryDbInitialiser;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the per-side history reads against H2, where a log can turn up on both sides.
+ */
+public class CustomerDaoTransferLogsTest {
+    private static final long CUSTOMER_ID = 5L;
+    private static final long ACCOUNT_ID = 19283751L;
+    private static final long OTHER_ACCOUNT_ID = 19283752L;
+
+    private Application app;
+    private JPAApi jpaApi;
+    private CustomerDao customerDao;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+        app.injector().instanceOf(InMemoryDbInitialiser.class).init();
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        customerDao = app.injector().instanceOf(CustomerDao.class);
+    }
+
+    @After
+    public void teardown() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testGetTransferLogs_whenSelfTransferLogged_thenReturnedOnce() {
+        Long sent = log(ACCOUNT_ID, OTHER_ACCOUNT_ID, TransferLog.Status.COMPLETED);
+        Long self = log(ACCOUNT_ID, ACCOUNT_ID, TransferLog.Status.FAILED);
+        Long received = log(OTHER_ACCOUNT_ID, ACCOUNT_ID, TransferLog.Status.COMPLETED);
+
+        List<TransferLog> page = jpaApi.withTransaction(() ->
+                customerDao.getTransferLogs(CUSTOMER_ID, ACCOUNT_ID, null, 10));
+
+        assertThat(page).extracting("id").containsOnly(sent, self, received).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void testExportTransferLogs_whenSelfTransferLogged_thenWrittenOnce() {
+        Long sent = log(ACCOUNT_ID, OTHER_ACCOUNT_ID, TransferLog.Status.COMPLETED);
+        Long self = log(ACCOUNT_ID, ACCOUNT_ID, TransferLog.Status.FAILED);
+        Long received = log(OTHER_ACCOUNT_ID, ACCOUNT_ID, TransferLog.Status.COMPLETED);
+        List<Long> exported = new ArrayList<>();
+
+        long count = jpaApi.withTransaction(() ->
+                customerDao.exportTransferLogs(ACCOUNT_ID, log -> exported.add(log.getId())));
+
+        assertThat(count).isEqualTo(3);
+        assertThat(exported).containsOnly(sent, self, received).doesNotHaveDuplicates();
+    }
+
+    private Long log(Long fromAccountId, Long toAccountId, TransferLog.Status status) {
+        TransferLog log = TransferLog.builder()
+                .fromAccountId(fromAccountId)
+                .toAccountId(toAccountId)
+                .amount(BigDecimal.TEN)
+                .requestedCurrency("SGD")
+                .status(status)
+                .build();
+
+        jpaApi.withTransaction(() -> jpaApi.em().persist(log));
+        return log.getId();
+    }
+}
@@ -0,0 +1,119 @@
+package dao;
+
+import dao.impl.TransferLogDaoImpl;
+import models.IdempotencyKey;
+import models.TransferLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the idempotency key claims against H2, where a claim left PENDING by a dead attempt is really committed.
+ */
+public class TransferLogDaoTest {
+    private static final long CLAIM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String KEY = "6f1c2a9e-retry-safe";
+    private static final String HASH = "request-hash";
+
+    private Application app;
+    private JPAApi jpaApi;
+    private TransferLogDao underTest;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        underTest = new TransferLogDaoImpl(jpaApi, CLAIM_TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void teardown() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testClaimIdempotencyKey_whenPendingWithinTimeout_thenHeldByTheRunningAttempt() {
+        assertThat(underTest.claimIdempotencyKey(KEY, HASH)).isEmpty();
+
+        Optional<IdempotencyKey> holder = underTest.claimIdempotencyKey(KEY, HASH);
+
+        assertThat(holder).isPresent();
+        assertThat(holder.get().getStatus()).isEqualTo(TransferLog.Status.PENDING);
+    }
+
+    @Test
+    public void testClaimIdempotencyKey_whenPendingPastTimeoutWithoutCompletedLog_thenTakenOverOnce() {
+        assertThat(underTest.claimIdempotencyKey(KEY, HASH)).isEmpty();
+        // the attempt died before settling, its transfer was logged failed
+        log(TransferLog.Status.FAILED);
+        backdateClaim(CLAIM_TIMEOUT_MILLIS + 1000);
+
+        assertThat(underTest.claimIdempotencyKey(KEY, HASH)).isEmpty();
+
+        // the retry holds a fresh claim, the next one waits for it again
+        Optional<IdempotencyKey> holder = underTest.claimIdempotencyKey(KEY, HASH);
+        assertThat(holder).isPresent();
+        assertThat(holder.get().getStatus()).isEqualTo(TransferLog.Status.PENDING);
+    }
+
+    @Test
+    public void testClaimIdempotencyKey_whenPendingPastTimeoutWithCompletedLog_thenSettledCompleted() {
+        assertThat(underTest.claimIdempotencyKey(KEY, HASH)).isEmpty();
+        // the transfer committed, the settle of the key did not
+        log(TransferLog.Status.COMPLETED);
+        backdateClaim(CLAIM_TIMEOUT_MILLIS + 1000);
+
+        Optional<IdempotencyKey> holder = underTest.claimIdempotencyKey(KEY, HASH);
+
+        assertThat(holder).isPresent();
+        assertThat(holder.get().getStatus()).isEqualTo(TransferLog.Status.COMPLETED);
+        assertThat(jpaApi.withTransaction(() -> jpaApi.em().find(IdempotencyKey.class, KEY).getStatus()))
+                .isEqualTo(TransferLog.Status.COMPLETED);
+    }
+
+    @Test
+    public void testClaimIdempotencyKey_whenPendingPastTimeoutForAnotherRequest_thenNotTakenOver() {
+        assertThat(underTest.claimIdempotencyKey(KEY, HASH)).isEmpty();
+        backdateClaim(CLAIM_TIMEOUT_MILLIS + 1000);
+
+        Optional<IdempotencyKey> holder = underTest.claimIdempotencyKey(KEY, "another-request-hash");
+
+        assertThat(holder).isPresent();
+        assertThat(holder.get().getRequestHash()).isEqualTo(HASH);
+        assertThat(holder.get().getStatus()).isEqualTo(TransferLog.Status.PENDING);
+    }
+
+    private void backdateClaim(long millis) {
+        jpaApi.withTransaction(() -> jpaApi.em()
+                .createQuery("update IdempotencyKey k set k.claimedAt = :claimedAt where k.idempotencyKey = :key")
+                .setParameter("claimedAt", new Date(System.currentTimeMillis() - millis))
+                .setParameter("key", KEY)
+                .executeUpdate());
+    }
+
+    private void log(TransferLog.Status status) {
+        TransferLog log = TransferLog.builder()
+                .fromAccountId(19283746L)
+                .toAccountId(19283750L)
+                .amount(BigDecimal.TEN)
+                .requestedCurrency("SGD")
+                .idempotencyKey(KEY)
+                .status(status)
+                .build();
+
+        jpaApi.withTransaction(() -> jpaApi.em().persist(log));
+    }
+}
@@ -0,0 +1,171 @@
+package dao;
+
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+import startup.InMemoryDbInitialiser;
+import utils.TransferLogCursor;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that H2 plans the history page seeks exactly as the dao sends them, cursor predicate included, on the
+ * per-side indexes.
+ *
+ * The timing run grows transfer_logs in steps and logs a first and a deep page of one account's history at each
+ * size. It is too heavy for the regular suite, run it with -Dtransfer-logs.benchmark.rows=20000000.
+ */
+public class TransferLogHistoryBenchmarkTest {
+    private static final String ROWS_PROPERTY = "transfer-logs.benchmark.rows";
+    private static final long CUSTOMER_ID = 5L;
+    private static final long ACCOUNT_ID = 19283751L;
+    // clear of the ids handed out by the application
+    private static final long FIRST_ID = 1_000_000_000L;
+    private static final long PLAN_ROWS = 10_000L;
+    private static final int STEPS = 3;
+    private static final int PAGE_SIZE = 50;
+    private static final int RUNS = 20;
+    private static final long START_MILLIS = 1577836800000L;
+
+    // the account is on one side of every hundredth log, the rest are spread over other accounts
+    private static final String GROW = "insert into transfer_logs" +
+            " (id, from_account_id, to_account_id, amount, requested_currency, status, created_at)" +
+            " select x," +
+            " case when mod(x, 100) = 0 then " + ACCOUNT_ID + " else 1000000 + mod(x, 5000) end," +
+            " case when mod(x, 100) = 50 then " + ACCOUNT_ID + " else 2000000 + mod(x, 5000) end," +
+            " 10, 'SGD', 'COMPLETED', dateadd('MILLISECOND', x - " + FIRST_ID + ", ?)" +
+            " from system_range(?, ?)";
+
+    private Application app;
+    private JPAApi jpaApi;
+    private CustomerDao customerDao;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+        app.injector().instanceOf(InMemoryDbInitialiser.class).init();
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        customerDao = app.injector().instanceOf(CustomerDao.class);
+    }
+
+    @After
+    public void teardown() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testHistoryPages_seekPerSideIndexes() {
+        grow(FIRST_ID, FIRST_ID + PLAN_ROWS - 1);
+        long middleId = FIRST_ID + PLAN_ROWS / 2;
+        TransferLogCursor middle = TransferLogCursor.of(new Date(START_MILLIS + middleId - FIRST_ID), middleId);
+
+        // H2 records the statements as the dao prepared them
+        jpaApi.withTransaction(() -> jpaApi.em().createNativeQuery("set query_statistics true").executeUpdate());
+        jpaApi.withTransaction(() -> customerDao.getTransferLogs(CUSTOMER_ID, ACCOUNT_ID, middle, PAGE_SIZE));
+
+        jpaApi.withTransaction(() -> {
+            List<String> seeks = seekStatements();
+            assertThat(seeks).hasSize(2);
+
+            for (String seek : seeks) {
+                String plan = explain(seek, middle);
+                // the received side also filters on from_account_id, it is told apart by its equality
+                String index = !seek.replaceAll("\\s", "").contains("to_account_id=?") ?
+                        "IDX_TRANSFER_LOGS_FROM_ACCOUNT" : "IDX_TRANSFER_LOGS_TO_ACCOUNT";
+
+                assertThat(plan).contains(index).doesNotContain("tableScan");
+            }
+        });
+    }
+
+    @Test
+    public void testHistoryPages_latencyAsTableGrows() {
+        Assume.assumeTrue("Set -D" + ROWS_PROPERTY + " to run the benchmark",
+                System.getProperty(ROWS_PROPERTY) != null);
+        long rows = Long.getLong(ROWS_PROPERTY);
+        long step = rows / STEPS;
+
+        for (int i = 1; i <= STEPS; i++) {
+            grow(FIRST_ID + (i - 1) * step, FIRST_ID + i * step - 1);
+
+            // a page about half way down the account's history
+            long middleId = FIRST_ID + i * step / 2;
+            TransferLogCursor middle = TransferLogCursor.of(new Date(START_MILLIS + middleId - FIRST_ID), middleId);
+
+            Logger.info("transfer_logs={} first page {} us, middle page {} us", i * step,
+                    medianMicros(null), medianMicros(middle));
+        }
+    }
+
+    private void grow(long fromId, long toId) {
+        jpaApi.withTransaction(() -> jpaApi.em().createNativeQuery(GROW)
+                .setParameter(1, new Timestamp(START_MILLIS)).setParameter(2, fromId).setParameter(3, toId)
+                .executeUpdate());
+    }
+
+    private long medianMicros(TransferLogCursor after) {
+        long[] runs = new long[RUNS];
+
+        for (int i = 0; i < RUNS; i++) {
+            long startedAt = System.nanoTime();
+            jpaApi.withTransaction(() -> customerDao.getTransferLogs(CUSTOMER_ID, ACCOUNT_ID, after, PAGE_SIZE));
+            runs[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt);
+        }
+
+        Arrays.sort(runs);
+        return runs[RUNS / 2];
+    }
+
+    /**
+     * The keyset seeks sent with a cursor, one per side of the transfer.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> seekStatements() {
+        List<Object> statements = jpaApi.em().createNativeQuery(
+                "select sql_statement from information_schema.query_statistics").getResultList();
+
+        return statements.stream().map(String::valueOf)
+                .filter(sql -> sql.toLowerCase().startsWith("select") && sql.contains("transfer_logs")
+                        && sql.replaceAll("\\s", "").contains("created_at<?"))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Explains the statement with the values the dao bound: the account, the cursor's created_at twice and id, then
+     * the page size.
+     */
+    private String explain(String sql, TransferLogCursor after) {
+        Object[] values = {ACCOUNT_ID, new Timestamp(after.getCreatedAt().getTime()),
+                new Timestamp(after.getCreatedAt().getTime()), after.getId(), PAGE_SIZE};
+
+        return jpaApi.em().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+                for (int i = 0; i < values.length; i++)
+                    statement.setObject(i + 1, values[i]);
+
+                try (ResultSet plan = statement.executeQuery()) {
+                    plan.next();
+                    return plan.getString(1);
+                }
+            }
+        });
+    }
+}
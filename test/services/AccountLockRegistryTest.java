@@ -0,0 +1,51 @@
+package services;
+
+import org.junit.Test;
+import services.impl.StripedAccountLockRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountLockRegistryTest {
+
+    @Test
+    public void testGetLock_whenSameAccount_thenSameLock() {
+        AccountLockRegistry underTest = new StripedAccountLockRegistry(64);
+
+        assertThat(underTest.getLock(19283746L)).isSameAs(underTest.getLock(19283746L));
+    }
+
+    @Test
+    public void testStripeCount_isRoundedUpToPowerOfTwo() {
+        assertThat(new StripedAccountLockRegistry(1000).getStripeCount()).isEqualTo(1024);
+        assertThat(new StripedAccountLockRegistry(1).getStripeCount()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripeCount_whenNotPositive_thenThrowsException() {
+        new StripedAccountLockRegistry(0);
+    }
+
+    @Test
+    public void testGetOrderedLocks_whenOppositeDirections_thenSameOrder() {
+        AccountLockRegistry underTest = new StripedAccountLockRegistry(64);
+
+        List<Lock> forward = underTest.getOrderedLocks(Arrays.asList(19283746L, 19283747L));
+        List<Lock> backward = underTest.getOrderedLocks(Arrays.asList(19283747L, 19283746L));
+
+        assertThat(forward).containsExactlyElementsOf(backward);
+    }
+
+    @Test
+    public void testGetOrderedLocks_whenAccountsShareStripe_thenSingleLock() {
+        AccountLockRegistry underTest = new StripedAccountLockRegistry(1);
+
+        List<Lock> locks = underTest.getOrderedLocks(Arrays.asList(19283746L, 19283747L));
+
+        assertThat(locks).hasSize(1);
+        assertThat(locks.get(0)).isSameAs(underTest.getLock(19283746L));
+    }
+}
@@ -0,0 +1,168 @@
+package services;
+
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import models.TransferLog;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.db.jpa.JPAApi;
+import services.impl.AsyncTransferLogAppender;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncTransferLogAppenderTest {
+
+    private JPAApi jpaApi;
+    private AccountRollupDao rollupDao;
+    private PreparedStatement statement;
+    private AsyncTransferLogAppender underTest;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        jpaApi = mock(JPAApi.class);
+        rollupDao = mock(AccountRollupDao.class);
+        EntityManager em = mock(EntityManager.class);
+        Session session = mock(Session.class);
+        Connection connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(em);
+                });
+        when(em.unwrap(Session.class)).thenReturn(session);
+        doAnswer(invocation -> {
+            invocation.getArgumentAt(0, Work.class).execute(connection);
+            return null;
+        }).when(session).doWork(any(Work.class));
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+    }
+
+    @After
+    public void teardown() {
+        underTest.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testComplete_thenNothingWrittenOnTheCallerThread() {
+        // an interval long enough that only flush writes
+        underTest = new AsyncTransferLogAppender(jpaApi, rollupDao, 16, 100, 60_000);
+
+        underTest.begin(buildLog(TransferLog.Status.PENDING));
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+
+        verify(jpaApi, never()).withTransaction(any(String.class), any(Boolean.class), any(Function.class));
+    }
+
+    @Test
+    public void testFlush_thenQueuedLogsInsertedInOneBatch() throws Exception {
+        underTest = new AsyncTransferLogAppender(jpaApi, rollupDao, 16, 100, 60_000);
+
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+        underTest.complete(buildLog(TransferLog.Status.FAILED));
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+        underTest.flush();
+
+        verify(statement, times(3)).addBatch();
+        verify(statement).executeBatch();
+        verify(statement, times(2)).setString(eq(5), eq("COMPLETED"));
+        verify(statement).setString(eq(5), eq("FAILED"));
+        assertThat(underTest.getPendingCount()).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlush_thenRollupsOfCompletedLogsAddedWithTheBatch() {
+        underTest = new AsyncTransferLogAppender(jpaApi, rollupDao, 16, 100, 60_000);
+
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+        underTest.complete(buildLog(TransferLog.Status.FAILED));
+        underTest.flush();
+
+        ArgumentCaptor<Collection> deltas = ArgumentCaptor.forClass(Collection.class);
+        verify(rollupDao).add(deltas.capture());
+
+        Collection<AccountDailyRollup> rollups = deltas.getValue();
+        assertThat(rollups).extracting("accountId").containsExactly(82371683L, 82371684L);
+        assertThat(rollups).extracting("outflow").containsExactly(BigDecimal.TEN, BigDecimal.ZERO);
+        assertThat(rollups).extracting("inflow").containsExactly(BigDecimal.ZERO, BigDecimal.TEN);
+    }
+
+    @Test
+    public void testComplete_whenBufferFull_thenCallerWaitsForRoom() throws Exception {
+        underTest = new AsyncTransferLogAppender(jpaApi, rollupDao, 2, 2, 60_000);
+
+        // more logs than the buffer holds, the writer has to drain in between
+        for (int i = 0; i < 10; i++)
+            underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+        underTest.flush();
+
+        verify(statement, times(10)).addBatch();
+        verify(statement, atLeastOnce()).executeBatch();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlush_whenBatchFailsPastMaxRetries_thenLogsWrittenOneByOneAndBadOnesDropped() {
+        underTest = new AsyncTransferLogAppender(jpaApi, rollupDao, 16, 100, 60_000, 2);
+        doAnswer(invocation -> {
+            Collection<AccountDailyRollup> rollups = invocation.getArgumentAt(0, Collection.class);
+            if (rollups.stream().anyMatch(rollup -> rollup.getAccountId() == 666L))
+                throw new IllegalStateException("bad log");
+            return null;
+        }).when(rollupDao).add(any());
+
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+        underTest.complete(buildLog(666L, TransferLog.Status.COMPLETED));
+        underTest.complete(buildLog(TransferLog.Status.COMPLETED));
+
+        // the first failure keeps the batch for a retry
+        assertThatThrownBy(underTest::flush).isInstanceOf(IllegalStateException.class);
+        assertThat(underTest.getDroppedCount()).isZero();
+
+        underTest.flush();
+
+        assertThat(underTest.getDroppedCount()).isEqualTo(1);
+        verify(rollupDao, times(5)).add(any()); // two batch attempts, then one per log
+        verify(statement, times(5)).executeBatch();
+    }
+
+    private TransferLog buildLog(TransferLog.Status status) {
+        return buildLog(82371683L, status);
+    }
+
+    private TransferLog buildLog(Long fromAccountId, TransferLog.Status status) {
+        return TransferLog.builder()
+                .fromAccountId(fromAccountId)
+                .toAccountId(82371684L)
+                .amount(BigDecimal.TEN)
+                .requestedCurrency("SGD")
+                .status(status)
+                .build();
+    }
+}
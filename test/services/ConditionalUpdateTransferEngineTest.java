@@ -0,0 +1,119 @@
+package services;
+
+import dao.AccountDao;
+import exception.InsufficientBalance;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import play.db.jpa.JPAApi;
+import services.impl.ConditionalUpdateTransferEngine;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConditionalUpdateTransferEngineTest {
+
+    private AccountDao accountDao;
+    private JPAApi jpaApi;
+    private ConditionalUpdateTransferEngine underTest;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        accountDao = mock(AccountDao.class);
+        jpaApi = mock(JPAApi.class);
+        EntityManager em = mock(EntityManager.class);
+
+        when(accountDao.jpaApi()).thenReturn(jpaApi);
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(em);
+                });
+
+        underTest = new ConditionalUpdateTransferEngine(accountDao);
+    }
+
+    @Test
+    public void testTransfer_whenDebitMatches_thenReceiverCredited() {
+        when(accountDao.debitIfSufficient(82371683L, BigDecimal.valueOf(7))).thenReturn(true);
+
+        assertThat(underTest.transfer(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.valueOf(7))).isTrue();
+
+        InOrder inOrder = inOrder(accountDao);
+        inOrder.verify(accountDao).debitIfSufficient(82371683L, BigDecimal.valueOf(7));
+        inOrder.verify(accountDao).adjustBalance(eq(82371684L), eq(BigDecimal.valueOf(7)));
+    }
+
+    @Test
+    public void testTransfer_whenSenderHasHigherId_thenReceiverRowUpdatedFirst() {
+        when(accountDao.debitIfSufficient(82371684L, BigDecimal.valueOf(7))).thenReturn(true);
+
+        underTest.transfer(buildAccount(82371684L), buildAccount(82371683L), BigDecimal.valueOf(7));
+
+        InOrder inOrder = inOrder(accountDao);
+        inOrder.verify(accountDao).adjustBalance(eq(82371683L), eq(BigDecimal.valueOf(7)));
+        inOrder.verify(accountDao).debitIfSufficient(82371684L, BigDecimal.valueOf(7));
+    }
+
+    @Test
+    public void testTransfer_whenDebitDoesNotMatch_thenThrowsWithoutCredit() {
+        when(accountDao.debitIfSufficient(82371683L, BigDecimal.valueOf(11))).thenReturn(false);
+
+        try {
+            underTest.transfer(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.valueOf(11));
+        } catch (InsufficientBalance e) {
+            verify(accountDao, never()).adjustBalance(any(), any());
+            return;
+        }
+
+        throw new AssertionError("expected InsufficientBalance");
+    }
+
+    @Test
+    public void testTransferAll_whenAtomic_thenLegsAppliedInOrderInOneTransaction() {
+        when(accountDao.debitIfSufficient(any(), any())).thenReturn(true);
+
+        Map<Integer, RuntimeException> rejected = underTest.transferAll(Arrays.asList(
+                new TransferLeg(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.valueOf(7)),
+                new TransferLeg(buildAccount(82371684L), buildAccount(82371685L), BigDecimal.valueOf(12))), true);
+
+        assertThat(rejected).isEmpty();
+        verify(jpaApi, times(1)).withTransaction(any(String.class), any(Boolean.class), any(Function.class));
+        InOrder inOrder = inOrder(accountDao);
+        inOrder.verify(accountDao).debitIfSufficient(82371683L, BigDecimal.valueOf(7));
+        inOrder.verify(accountDao).adjustBalance(eq(82371684L), eq(BigDecimal.valueOf(7)));
+        inOrder.verify(accountDao).debitIfSufficient(82371684L, BigDecimal.valueOf(12));
+        inOrder.verify(accountDao).adjustBalance(eq(82371685L), eq(BigDecimal.valueOf(12)));
+    }
+
+    @Test(expected = InsufficientBalance.class)
+    public void testTransferAll_whenAtomicAndLaterDebitDoesNotMatch_thenThrown() {
+        when(accountDao.debitIfSufficient(82371683L, BigDecimal.valueOf(7))).thenReturn(true);
+        when(accountDao.debitIfSufficient(82371684L, BigDecimal.valueOf(30))).thenReturn(false);
+
+        // thrown out of the transaction, which rolls back the first leg
+        underTest.transferAll(Arrays.asList(
+                new TransferLeg(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.valueOf(7)),
+                new TransferLeg(buildAccount(82371684L), buildAccount(82371685L), BigDecimal.valueOf(30))), true);
+    }
+
+    private Account buildAccount(Long id) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+    }
+}
@@ -0,0 +1,114 @@
+package services;
+
+import dao.impl.CachingAccountDao;
+import models.Account;
+import models.Account.CurrencyEnum;
+import models.Customer;
+import org.junit.Before;
+import org.junit.Test;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import services.impl.CustomerAccountsCache;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CustomerAccountsCacheTest {
+    private CachingAccountDao accountDao;
+    private CustomerAccountsCache underTest;
+
+    @Before
+    public void setup() {
+        JPAApi jpaApi = mock(JPAApi.class);
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getLong(anyString(), anyLong())).thenReturn(10L);
+
+        accountDao = new CachingAccountDao(jpaApi, 10);
+        underTest = new CustomerAccountsCache(accountDao, jpaApi, configuration);
+    }
+
+    @Test
+    public void testLoad_thenCachedWithEtag() {
+        CustomerAccountsCache.Entry loaded = underTest.load(5L, () -> Optional.of(buildCustomer(5L, 1L))).get();
+
+        assertThat(underTest.get(5L)).contains(loaded);
+        assertThat(new String(loaded.getJson())).contains("\"firstName\":\"John\"");
+        assertThat(loaded.matches(loaded.getEtag())).isTrue();
+        assertThat(loaded.matches("\"other\", W/" + loaded.getEtag())).isTrue();
+        assertThat(loaded.matches("\"other\"")).isFalse();
+        assertThat(loaded.matches(null)).isFalse();
+    }
+
+    @Test
+    public void testLoad_whenCustomerUnknown_thenNothingCached() {
+        assertThat(underTest.load(5L, Optional::empty)).isEmpty();
+        assertThat(underTest.get(5L)).isEmpty();
+    }
+
+    @Test
+    public void testEtag_changesWithAccountVersion() {
+        String before = underTest.load(5L, () -> Optional.of(buildCustomer(5L, 1L))).get().getEtag();
+        String after = underTest.load(5L, () -> Optional.of(buildCustomer(5L, 2L))).get().getEtag();
+
+        assertThat(after).isNotEqualTo(before);
+    }
+
+    @Test
+    public void testAccountChanged_thenCustomerInvalidated() {
+        underTest.load(5L, () -> Optional.of(buildCustomer(5L, 1L)));
+        underTest.load(6L, () -> Optional.of(buildCustomer(6L, 1L)));
+
+        accountDao.evict(Collections.singletonList(51L));
+
+        assertThat(underTest.get(5L)).isEmpty();
+        assertThat(underTest.get(6L)).isPresent();
+    }
+
+    @Test
+    public void testAccountChangedDuringLoad_thenNotCached() {
+        underTest.load(5L, () -> Optional.of(buildCustomer(5L, 1L)));
+        underTest.invalidateCustomer(5L);
+
+        Optional<CustomerAccountsCache.Entry> loaded = underTest.load(5L, () -> {
+            Customer customer = buildCustomer(5L, 1L);
+            accountDao.evict(Collections.singletonList(52L));
+            return Optional.of(customer);
+        });
+
+        assertThat(loaded).isPresent();
+        assertThat(underTest.get(5L)).isEmpty();
+    }
+
+    @Test
+    public void testUnknownAccountChangedDuringFirstLoad_thenNotCached() {
+        underTest.load(5L, () -> {
+            Customer customer = buildCustomer(5L, 1L);
+            accountDao.evict(Collections.singletonList(51L));
+            return Optional.of(customer);
+        });
+
+        assertThat(underTest.get(5L)).isEmpty();
+    }
+
+    private Customer buildCustomer(Long id, Long version) {
+        Customer customer = new Customer();
+        customer.setId(id);
+        customer.setFirstName("John");
+        customer.setLastName("Doe");
+        customer.setAccounts(Arrays.asList(buildAccount(id * 10 + 1, version), buildAccount(id * 10 + 2, version)));
+        return customer;
+    }
+
+    private Account buildAccount(Long id, Long version) {
+        return Account.builder().id(id).balance(BigDecimal.TEN).currency(CurrencyEnum.SGD).customerId(id / 10)
+                .version(version).build();
+    }
+}
@@ -0,0 +1,128 @@
+package services;
+
+import beans.response.BulkOnboardResult;
+import dao.CustomerDao;
+import models.Customer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+import services.impl.CustomerOnboardingServiceImpl;
+import utils.DatabaseExecutionContext;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CustomerOnboardingServiceTest {
+    private CustomerDao customerDao;
+    private DatabaseExecutionContext databaseContext;
+    private List<List<String>> committed;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        customerDao = mock(CustomerDao.class);
+        databaseContext = mock(DatabaseExecutionContext.class);
+
+        when(databaseContext.withTransaction(any(Supplier.class))).thenAnswer(invocation -> {
+            CompletableFuture<Object> done = new CompletableFuture<>();
+            try {
+                done.complete(invocation.getArgumentAt(0, Supplier.class).get());
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+            return done;
+        });
+
+        // records the chunks that made it, a last name of "Fail" fails the chunk it is in
+        committed = new ArrayList<>();
+        doAnswer(invocation -> {
+            List<Customer> customers = (List<Customer>) invocation.getArguments()[0];
+            if (customers.stream().anyMatch(customer -> "Fail".equals(customer.getLastName())))
+                throw new IllegalStateException("insert failed");
+
+            committed.add(customers.stream().map(Customer::getFirstName).collect(Collectors.toList()));
+            return null;
+        }).when(customerDao).onboardCustomers(any());
+    }
+
+    @Test
+    public void testOnboardAll_persistsInChunks() {
+        BulkOnboardResult result = new CustomerOnboardingServiceImpl(customerDao, databaseContext, 2, 10)
+                .onboardAll(ndjson(record("A", "One"), record("B", "Two"), record("C", "Three")));
+
+        assertThat(result.getOnboarded()).isEqualTo(3);
+        assertThat(result.getFailed()).isZero();
+        assertThat(committed).containsExactly(Arrays.asList("A", "B"), Collections.singletonList("C"));
+    }
+
+    @Test
+    public void testOnboardAll_whenChunkFails_thenRetriesOneByOneAndReportsTheLine() {
+        BulkOnboardResult result = new CustomerOnboardingServiceImpl(customerDao, databaseContext, 3, 10)
+                .onboardAll(ndjson(record("A", "One"), record("B", "Fail"), record("C", "Three")));
+
+        assertThat(result.getOnboarded()).isEqualTo(2);
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(result.getErrors()).extracting("line").containsExactly(2L);
+        assertThat(result.getErrors().get(0).getMessage()).contains("insert failed");
+        assertThat(committed).containsExactly(Collections.singletonList("A"), Collections.singletonList("C"));
+    }
+
+    @Test
+    public void testOnboardAll_whenRecordsInvalid_thenSkipsThemAndCapsTheListedErrors() {
+        BulkOnboardResult result = new CustomerOnboardingServiceImpl(customerDao, databaseContext, 10, 1)
+                .onboardAll(ndjson("not json", record("A", "One"), "",
+                        "{\"firstName\": \"B\", \"lastName\": \"Two\"}"));
+
+        assertThat(result.getOnboarded()).isEqualTo(1);
+        assertThat(result.getFailed()).isEqualTo(2);
+        assertThat(result.getErrors()).extracting("line").containsExactly(1L);
+        assertThat(committed).containsExactly(Collections.singletonList("A"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOnboardAll_whenDatabasePoolFull_thenWaitsAndCommitsTheChunk() {
+        AtomicInteger submitted = new AtomicInteger();
+        when(databaseContext.withTransaction(any(Supplier.class))).thenAnswer(invocation -> {
+            CompletableFuture<Object> done = new CompletableFuture<>();
+            if (submitted.incrementAndGet() == 1)
+                done.completeExceptionally(new RejectedExecutionException("queue full"));
+            else
+                done.complete(invocation.getArgumentAt(0, Supplier.class).get());
+            return done;
+        });
+
+        BulkOnboardResult result = new CustomerOnboardingServiceImpl(customerDao, databaseContext, 2, 10)
+                .onboardAll(ndjson(record("A", "One"), record("B", "Two")));
+
+        assertThat(result.getOnboarded()).isEqualTo(2);
+        assertThat(result.getFailed()).isZero();
+        assertThat(committed).containsExactly(Arrays.asList("A", "B"));
+    }
+
+    private static String record(String firstName, String lastName) {
+        return "{\"firstName\": \"" + firstName + "\", \"lastName\": \"" + lastName + "\"," +
+                " \"accounts\": [{\"balance\": 100, \"currency\": \"SGD\"}]}";
+    }
+
+    private static ByteArrayInputStream ndjson(String... lines) {
+        return new ByteArrayInputStream(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+}
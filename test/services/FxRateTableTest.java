@@ -0,0 +1,99 @@
+package services;
+
+import exception.InvalidCurrencyTransfer;
+import models.Account.CurrencyEnum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.impl.FileFxRateTable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FxRateTableTest {
+
+    private Path ratesFile;
+
+    @Before
+    public void setup() throws IOException {
+        ratesFile = Files.createTempFile("fx-rates", ".csv");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        Files.deleteIfExists(ratesFile);
+    }
+
+    @Test
+    public void testConvert_roundedAsConfiguredForTargetCurrency() throws IOException {
+        writeRates(1000, "# from,to,rate", "USD,SGD,1.3571");
+        FileFxRateTable underTest = new FileFxRateTable(ratesFile, Collections.singletonMap(CurrencyEnum.SGD, 1),
+                Collections.singletonMap(CurrencyEnum.SGD, RoundingMode.DOWN));
+        underTest.refresh();
+
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.USD, CurrencyEnum.SGD)).isEqualTo(new BigDecimal("13.5"));
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.USD, CurrencyEnum.USD)).isEqualTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void testConvert_whenOnlyOppositeRateGiven_thenInverseUsed() throws IOException {
+        writeRates(1000, "USD,EUR,0.8", "EUR,SGD,1.5", "SGD,EUR,0.7");
+        FileFxRateTable underTest = table();
+        underTest.refresh();
+
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.EUR, CurrencyEnum.USD)).isEqualTo(new BigDecimal("12.50"));
+        // an explicit rate wins over the inverse of the opposite one
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.SGD, CurrencyEnum.EUR)).isEqualTo(new BigDecimal("7.00"));
+    }
+
+    @Test
+    public void testConvert_whenNoRate_thenRejected() {
+        assertThatThrownBy(() -> FileFxRateTable.empty().convert(BigDecimal.TEN, CurrencyEnum.USD, CurrencyEnum.SGD))
+                .isInstanceOf(InvalidCurrencyTransfer.class)
+                .hasMessageContaining("No FX rate from USD to SGD");
+    }
+
+    @Test
+    public void testRefresh_whenFileChanged_thenNewRatesSwappedIn() throws IOException {
+        writeRates(1000, "USD,SGD,1.35");
+        FileFxRateTable underTest = table();
+
+        assertThat(underTest.refresh()).isTrue();
+        assertThat(underTest.refresh()).isFalse();
+
+        writeRates(2000, "USD,SGD,1.40");
+        assertThat(underTest.refresh()).isTrue();
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.USD, CurrencyEnum.SGD)).isEqualTo(new BigDecimal("14.00"));
+    }
+
+    @Test
+    public void testRefresh_whenFileInvalid_thenCurrentRatesKept() throws IOException {
+        writeRates(1000, "USD,SGD,1.35");
+        FileFxRateTable underTest = table();
+        underTest.refresh();
+
+        writeRates(2000, "USD,SGD,-1");
+        assertThatThrownBy(underTest::refresh).isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(underTest.convert(BigDecimal.TEN, CurrencyEnum.USD, CurrencyEnum.SGD)).isEqualTo(new BigDecimal("13.50"));
+    }
+
+    private FileFxRateTable table() {
+        return new FileFxRateTable(ratesFile, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    private void writeRates(long modifiedMillis, String... lines) throws IOException {
+        Files.write(ratesFile, Arrays.asList(lines));
+        // set explicitly, two writes within the file system's timestamp granularity would look unchanged
+        Files.setLastModifiedTime(ratesFile, FileTime.fromMillis(modifiedMillis));
+    }
+}
@@ -0,0 +1,114 @@
+package services;
+
+import dao.AccountDao;
+import dao.AccountSubBalanceDao;
+import exception.InsufficientBalance;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import services.impl.DetectingHotAccountRegistry;
+import services.impl.LockAcquisitionPolicy;
+import services.impl.LockingTransferEngine;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotAccountRegistryTest {
+
+    private AccountDao accountDao;
+    private AccountSubBalanceDao subBalanceDao;
+    private AccountLockRegistry lockRegistry;
+    private EntityManager em;
+    private DetectingHotAccountRegistry hotAccounts;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        accountDao = mock(AccountDao.class);
+        subBalanceDao = mock(AccountSubBalanceDao.class);
+        lockRegistry = mock(AccountLockRegistry.class);
+        em = mock(EntityManager.class);
+        JPAApi jpaApi = mock(JPAApi.class);
+
+        when(accountDao.jpaApi()).thenReturn(jpaApi);
+        when(subBalanceDao.jpaApi()).thenReturn(jpaApi);
+        when(jpaApi.withTransaction(any(Supplier.class)))
+                .thenAnswer(invocation -> invocation.getArgumentAt(0, Supplier.class).get());
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> invocation.getArgumentAt(2, Function.class).apply(em));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Collections.singletonList(new ReentrantLock()));
+
+        hotAccounts = new DetectingHotAccountRegistry(subBalanceDao, 4, 3);
+    }
+
+    @Test
+    public void testDetect_whenThresholdReached_thenSubBalancesCreatedAndHot() {
+        for (int i = 0; i < 3; i++)
+            hotAccounts.recordCredit(82371684L);
+        hotAccounts.recordCredit(82371685L);
+
+        hotAccounts.detect();
+
+        assertThat(hotAccounts.isHot(82371684L)).isTrue();
+        assertThat(hotAccounts.isHot(82371685L)).isFalse();
+        verify(subBalanceDao).createSubBalances(82371684L, 4);
+    }
+
+    @Test
+    public void testTransfer_whenReceiverHot_thenCreditedToSubBalanceWithSenderLockOnly() {
+        hotAccounts.load(Collections.singletonList(82371684L));
+        when(em.find(Account.class, 82371683L)).thenReturn(buildAccount(82371683L, 10));
+
+        assertThat(engine().transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 0), BigDecimal.ONE)).isTrue();
+
+        verify(lockRegistry).getOrderedLocks(Collections.singletonList(82371683L));
+        verify(subBalanceDao).credit(eq(82371684L), anyInt(), eq(BigDecimal.ONE));
+        verify(em, never()).find(Account.class, 82371684L);
+    }
+
+    @Test
+    public void testTransfer_whenHotSenderRowShort_thenSubBalancesDrained() {
+        hotAccounts.load(Collections.singletonList(82371683L));
+        Account sender = buildAccount(82371683L, 2);
+        when(em.find(Account.class, 82371683L)).thenReturn(sender);
+        when(em.find(Account.class, 82371684L)).thenReturn(buildAccount(82371684L, 0));
+        when(subBalanceDao.drain(82371683L)).thenReturn(BigDecimal.valueOf(8));
+
+        engine().transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 0), BigDecimal.valueOf(5));
+
+        assertThat(sender.getBalance()).isEqualTo(BigDecimal.valueOf(5));
+    }
+
+    @Test(expected = InsufficientBalance.class)
+    public void testTransfer_whenHotSenderShortAfterDrain_thenInsufficientBalance() {
+        hotAccounts.load(Collections.singletonList(82371683L));
+        when(em.find(Account.class, 82371683L)).thenReturn(buildAccount(82371683L, 2));
+        when(subBalanceDao.drain(82371683L)).thenReturn(BigDecimal.ONE);
+
+        engine().transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 0), BigDecimal.valueOf(5));
+    }
+
+    private LockingTransferEngine engine() {
+        return new LockingTransferEngine(accountDao, lockRegistry, new LockAcquisitionPolicy(10, 0, 1, 1),
+                hotAccounts, subBalanceDao);
+    }
+
+    private Account buildAccount(Long id, long balance) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.valueOf(balance)).build();
+    }
+}
@@ -0,0 +1,88 @@
+package services;
+
+import exception.IdempotencyKeyMismatch;
+import org.junit.Test;
+import services.impl.InMemoryIdempotencyStore;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class IdempotencyStoreTest {
+
+    @Test
+    public void testExecute_whenKeyRepeated_thenActionRunsOnce() throws Exception {
+        InMemoryIdempotencyStore underTest = new InMemoryIdempotencyStore(10, TimeUnit.MINUTES.toMillis(1));
+        AtomicInteger runs = new AtomicInteger();
+
+        String first = underTest.execute("key", "hash", () -> CompletableFuture.completedFuture("run-" + runs.incrementAndGet()), r -> true)
+                .toCompletableFuture().get();
+        String second = underTest.execute("key", "hash", () -> CompletableFuture.completedFuture("run-" + runs.incrementAndGet()), r -> true)
+                .toCompletableFuture().get();
+
+        assertThat(first).isEqualTo("run-1");
+        assertThat(second).isEqualTo("run-1");
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExecute_whenFirstAttemptInFlight_thenDuplicateWaitsForIt() throws Exception {
+        InMemoryIdempotencyStore underTest = new InMemoryIdempotencyStore(10, TimeUnit.MINUTES.toMillis(1));
+        CompletableFuture<String> inFlight = new CompletableFuture<>();
+
+        CompletionStage<String> first = underTest.execute("key", "hash", () -> inFlight, r -> true);
+        CompletionStage<String> duplicate = underTest.execute("key", "hash", () -> CompletableFuture.completedFuture("again"), r -> true);
+
+        assertThat(duplicate.toCompletableFuture().isDone()).isFalse();
+
+        inFlight.complete("done");
+
+        assertThat(first.toCompletableFuture().get()).isEqualTo("done");
+        assertThat(duplicate.toCompletableFuture().get()).isEqualTo("done");
+    }
+
+    @Test
+    public void testExecute_whenOutcomeNotRetained_thenNextCallRunsAgain() throws Exception {
+        InMemoryIdempotencyStore underTest = new InMemoryIdempotencyStore(10, TimeUnit.MINUTES.toMillis(1));
+        AtomicInteger runs = new AtomicInteger();
+
+        underTest.execute("key", "hash", () -> CompletableFuture.completedFuture(runs.incrementAndGet()), r -> false)
+                .toCompletableFuture().get();
+        int second = underTest.execute("key", "hash", () -> CompletableFuture.completedFuture(runs.incrementAndGet()), r -> false)
+                .toCompletableFuture().get();
+
+        assertThat(second).isEqualTo(2);
+        assertThat(underTest.size()).isZero();
+    }
+
+    @Test
+    public void testExecute_whenKeyRepeatedWithAnotherRequest_thenThrowsMismatch() throws Exception {
+        InMemoryIdempotencyStore underTest = new InMemoryIdempotencyStore(10, TimeUnit.MINUTES.toMillis(1));
+        AtomicInteger runs = new AtomicInteger();
+
+        underTest.execute("key", "hash", () -> CompletableFuture.completedFuture(runs.incrementAndGet()), r -> true)
+                .toCompletableFuture().get();
+
+        assertThatThrownBy(() -> underTest.execute("key", "other-hash",
+                () -> CompletableFuture.completedFuture(runs.incrementAndGet()), r -> true))
+                .isInstanceOf(IdempotencyKeyMismatch.class);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExecute_whenActionFails_thenNextCallRunsAgain() throws Exception {
+        InMemoryIdempotencyStore underTest = new InMemoryIdempotencyStore(10, TimeUnit.MINUTES.toMillis(1));
+
+        CompletableFuture<String> failed = underTest.<String>execute("key", "hash", () -> {
+            throw new IllegalStateException("boom");
+        }, r -> true).toCompletableFuture();
+
+        assertThat(failed.isCompletedExceptionally()).isTrue();
+        assertThat(underTest.execute("key", "hash", () -> CompletableFuture.completedFuture("ok"), r -> true)
+                .toCompletableFuture().get()).isEqualTo("ok");
+    }
+}
@@ -0,0 +1,106 @@
+package services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.impl.LedgerSnapshotStore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LedgerSnapshotStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("snapshots");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testLoadLatest_whenWritten_thenBalancesAndSequenceRestored() {
+        LedgerSnapshotStore underTest = new LedgerSnapshotStore(directory, 2);
+        underTest.write(10, Arrays.asList(1L, 2L), id -> new BigDecimal("1.00"));
+        underTest.write(20, Arrays.asList(1L, 2L, 3L), id -> new BigDecimal(id + ".25"));
+
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        OptionalLong seq = underTest.loadLatest(balances::put);
+
+        assertThat(seq).hasValue(20);
+        assertThat(balances).hasSize(3).containsEntry(3L, new BigDecimal("3.25"));
+    }
+
+    @Test
+    public void testLoadLatest_whenNewestDamaged_thenOlderOneUsed() throws IOException {
+        LedgerSnapshotStore underTest = new LedgerSnapshotStore(directory, 2);
+        underTest.write(10, Arrays.asList(1L, 2L), id -> new BigDecimal("1.00"));
+        underTest.write(20, Arrays.asList(1L, 2L), id -> new BigDecimal("2.00"));
+
+        try (RandomAccessFile file = new RandomAccessFile(snapshots().get(1).toFile(), "rw")) {
+            file.seek(20);
+            file.write(0x7f);
+        }
+
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        OptionalLong seq = underTest.loadLatest(balances::put);
+
+        assertThat(seq).hasValue(10);
+        assertThat(balances).containsEntry(1L, new BigDecimal("1.00"));
+    }
+
+    @Test
+    public void testPrune_thenOnlyRetainedSnapshotsKept() {
+        LedgerSnapshotStore underTest = new LedgerSnapshotStore(directory, 2);
+        for (long seq = 10; seq <= 40; seq += 10)
+            underTest.write(seq, Arrays.asList(1L), id -> BigDecimal.ONE);
+
+        OptionalLong oldestRetained = underTest.prune();
+
+        assertThat(oldestRetained).hasValue(30);
+        assertThat(snapshots()).hasSize(2);
+    }
+
+    @Test
+    public void testWrite_whenBeforePublishFails_thenSnapshotNotPublished() {
+        LedgerSnapshotStore underTest = new LedgerSnapshotStore(directory, 2);
+        underTest.write(10, Arrays.asList(1L), id -> BigDecimal.ONE);
+
+        assertThatThrownBy(() -> underTest.write(20, Arrays.asList(1L), id -> BigDecimal.TEN, () -> {
+            throw new IllegalStateException("Transfer journal is closed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        Map<Long, BigDecimal> balances = new HashMap<>();
+        assertThat(underTest.loadLatest(balances::put)).hasValue(10);
+        assertThat(balances).containsEntry(1L, BigDecimal.ONE);
+        assertThat(directory.toFile().list()).hasSize(1);
+    }
+
+    private List<Path> snapshots() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".snap")).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
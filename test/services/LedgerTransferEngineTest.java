@@ -0,0 +1,106 @@
+package services;
+
+import dao.AccountDao;
+import exception.InsufficientBalance;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import services.impl.InMemoryLedger;
+import services.impl.LedgerTransferEngine;
+import services.impl.LockAcquisitionPolicy;
+import services.impl.StripedAccountLockRegistry;
+import services.impl.TransferJournal;
+import services.impl.WriteBehindWriter;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LedgerTransferEngineTest {
+
+    private AccountDao accountDao;
+    private WriteBehindWriter writeBehindWriter;
+    private InMemoryLedger ledger;
+    private LedgerTransferEngine underTest;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        accountDao = mock(AccountDao.class);
+        JPAApi jpaApi = mock(JPAApi.class);
+        writeBehindWriter = mock(WriteBehindWriter.class);
+
+        when(accountDao.jpaApi()).thenReturn(jpaApi);
+        when(jpaApi.withTransaction(any(Supplier.class))).thenAnswer(invocation ->
+                invocation.getArgumentAt(0, Supplier.class).get());
+        when(accountDao.getAllAccounts()).thenReturn(Arrays.asList(
+                buildAccount(82371683L, 10), buildAccount(82371684L, 1)));
+
+        ledger = new InMemoryLedger(accountDao);
+        underTest = new LedgerTransferEngine(ledger, new StripedAccountLockRegistry(16),
+                new LockAcquisitionPolicy(10, 0, 1, 1), writeBehindWriter, TransferJournal.disabled());
+    }
+
+    @Test
+    public void testGetAccounts_whenLoaded_thenServedFromLedger() {
+        List<Account> accounts = underTest.getAccounts(Arrays.asList(82371683L, 82371684L));
+
+        assertThat(accounts).extracting("id").containsOnly(82371683L, 82371684L);
+        verify(accountDao, never()).getAccounts(any());
+    }
+
+    @Test
+    public void testGetAccounts_whenNotLoaded_thenReadThroughOnce() {
+        when(accountDao.getAccounts(eq(Collections.singletonList(82371685L))))
+                .thenReturn(Collections.singletonList(buildAccount(82371685L, 5)));
+
+        assertThat(underTest.getAccounts(Collections.singletonList(82371685L))).hasSize(1);
+        assertThat(underTest.getAccounts(Collections.singletonList(82371685L))).hasSize(1);
+
+        verify(accountDao).getAccounts(any());
+        assertThat(ledger.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void testTransfer_whenSufficientBalance_thenLedgerMovedAndMarkedDirty() {
+        List<Account> accounts = underTest.getAccounts(Arrays.asList(82371683L, 82371684L));
+
+        assertThat(underTest.transfer(accounts.get(0), accounts.get(1), BigDecimal.valueOf(7))).isTrue();
+
+        assertThat(ledger.getEntry(82371683L).getBalance()).isEqualTo(BigDecimal.valueOf(3));
+        assertThat(ledger.getEntry(82371684L).getBalance()).isEqualTo(BigDecimal.valueOf(8));
+        verify(writeBehindWriter).markDirty(82371683L);
+        verify(writeBehindWriter).markDirty(82371684L);
+    }
+
+    @Test
+    public void testTransfer_whenInsufficientBalance_thenLedgerUnchanged() {
+        List<Account> accounts = underTest.getAccounts(Arrays.asList(82371683L, 82371684L));
+
+        try {
+            underTest.transfer(accounts.get(0), accounts.get(1), BigDecimal.valueOf(11));
+        } catch (InsufficientBalance e) {
+            assertThat(ledger.getEntry(82371683L).getBalance()).isEqualTo(BigDecimal.TEN);
+            verify(writeBehindWriter, never()).markDirty(any());
+            return;
+        }
+
+        throw new AssertionError("transfer should have been rejected");
+    }
+
+    private Account buildAccount(Long id, long balance) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.valueOf(balance)).build();
+    }
+}
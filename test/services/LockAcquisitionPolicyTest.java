@@ -0,0 +1,80 @@
+package services;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+import services.impl.LockAcquisitionPolicy;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LockAcquisitionPolicyTest {
+
+    @Test
+    public void testAcquireAll_whenLocksFree_thenAcquiredWithoutRetry() throws Exception {
+        Lock lock1 = mock(Lock.class);
+        Lock lock2 = mock(Lock.class);
+        when(lock1.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(lock2.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        LockAcquisitionPolicy underTest = new LockAcquisitionPolicy(10, 1000, 1, 1);
+
+        assertThat(underTest.acquireAll(Arrays.asList(lock1, lock2))).isTrue();
+        assertThat(underTest.getRetryCount()).isZero();
+        assertThat(underTest.getTimeoutCount()).isZero();
+        verify(lock1, never()).unlock();
+    }
+
+    @Test
+    public void testAcquireAll_whenSecondLockBusy_thenReleasesFirstAndRetries() throws Exception {
+        Lock lock1 = mock(Lock.class);
+        Lock lock2 = mock(Lock.class);
+        when(lock1.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(lock2.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false, false, true);
+
+        LockAcquisitionPolicy underTest = new LockAcquisitionPolicy(10, 1000, 1, 1);
+
+        assertThat(underTest.acquireAll(Arrays.asList(lock1, lock2))).isTrue();
+        assertThat(underTest.getRetryCount()).isEqualTo(2);
+        assertThat(underTest.getTimeoutCount()).isZero();
+
+        // lock1 is given back after each failed attempt
+        verify(lock1, times(2)).unlock();
+        verify(lock2, never()).unlock();
+    }
+
+    @Test
+    public void testAcquireAll_whenLockNeverFree_thenTimesOut() throws Exception {
+        Lock lock1 = mock(Lock.class);
+        when(lock1.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+        LockAcquisitionPolicy underTest = new LockAcquisitionPolicy(1, 20, 1, 5);
+
+        assertThat(underTest.acquireAll(Arrays.asList(lock1))).isFalse();
+        assertThat(underTest.getRetryCount()).isPositive();
+        assertThat(underTest.getTimeoutCount()).isEqualTo(1);
+        verify(lock1, never()).unlock();
+    }
+
+    @Test
+    public void testReleaseAll_releasesInReverseOrder() {
+        Lock lock1 = mock(Lock.class);
+        Lock lock2 = mock(Lock.class);
+
+        new LockAcquisitionPolicy(10, 0, 1, 1).releaseAll(Arrays.asList(lock1, lock2));
+
+        InOrder inOrder = inOrder(lock1, lock2);
+        inOrder.verify(lock2).unlock();
+        inOrder.verify(lock1).unlock();
+    }
+}
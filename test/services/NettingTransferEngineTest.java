@@ -0,0 +1,81 @@
+package services;
+
+import exception.InsufficientBalance;
+import exception.LockTimeoutException;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.junit.Before;
+import org.junit.Test;
+import services.impl.NettingTransferEngine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NettingTransferEngineTest {
+
+    private TransferEngine delegate;
+
+    @Before
+    public void setup() {
+        delegate = mock(TransferEngine.class);
+    }
+
+    @Test
+    public void testTransfer_whenSamePairWithinWindow_thenAppliedAsOneGroup() throws Exception {
+        // a long window, the group closes once the third transfer joins
+        NettingTransferEngine underTest = new NettingTransferEngine(delegate, 10000, 3);
+        when(delegate.transferAll(anyListOf(TransferLeg.class), eq(false)))
+                .thenReturn(Collections.singletonMap(1, new InsufficientBalance("Not sufficient")));
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            results.add(executor.submit(
+                    () -> underTest.transfer(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.ONE)));
+
+        int completed = 0;
+        int rejected = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (result.get(5, TimeUnit.SECONDS))
+                    completed++;
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(InsufficientBalance.class);
+                rejected++;
+            }
+        }
+        executor.shutdown();
+
+        assertThat(completed).isEqualTo(2);
+        assertThat(rejected).isEqualTo(1);
+        verify(delegate, times(1)).transferAll(anyListOf(TransferLeg.class), eq(false));
+    }
+
+    @Test
+    public void testTransfer_whenAccountsBusy_thenFalse() {
+        NettingTransferEngine underTest = new NettingTransferEngine(delegate, 1, 64);
+        when(delegate.transferAll(anyListOf(TransferLeg.class), eq(false)))
+                .thenThrow(new LockTimeoutException("Accounts are busy, transfers not attempted"));
+
+        assertThat(underTest.transfer(buildAccount(82371683L), buildAccount(82371684L), BigDecimal.ONE)).isFalse();
+    }
+
+    private Account buildAccount(Long id) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+    }
+}
@@ -0,0 +1,281 @@
+package services;
+
+import dao.AccountDao;
+import exception.InsufficientBalance;
+import models.Account;
+import models.Account.CurrencyEnum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import services.impl.PartitionedTransferEngine;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PartitionedTransferEngineTest {
+
+    private AccountDao accountDao;
+    private JPAApi jpaApi;
+    // stands in for the accounts table, moved by the deltas the engine writes
+    private Map<Long, Account> rows;
+    private PartitionedTransferEngine underTest;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        accountDao = mock(AccountDao.class);
+        jpaApi = mock(JPAApi.class);
+        EntityManager em = mock(EntityManager.class);
+
+        when(accountDao.jpaApi()).thenReturn(jpaApi);
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(em);
+                });
+
+        rows = new ConcurrentHashMap<>();
+        store(82371683L, 10);
+        store(82371684L, 1);
+        when(accountDao.readAccount(any())).thenAnswer(invocation ->
+                Optional.ofNullable(rows.get(invocation.getArgumentAt(0, Long.class))).map(Account::copy));
+        doAnswer(invocation -> {
+            adjustStored(invocation.getArgumentAt(0, Long.class), invocation.getArgumentAt(1, BigDecimal.class));
+            return null;
+        }).when(accountDao).adjustBalance(any(), any());
+
+        underTest = new PartitionedTransferEngine(accountDao, 2, 16);
+    }
+
+    @After
+    public void teardown() {
+        underTest.shutdown();
+    }
+
+    @Test
+    public void testTransfer_whenSufficientBalance_thenRowsMovedByDelta() {
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(82371684L, 1);
+
+        assertThat(underTest.transfer(from, to, BigDecimal.valueOf(7))).isTrue();
+
+        verify(accountDao).adjustBalance(eq(82371683L), eq(BigDecimal.valueOf(-7)));
+        verify(accountDao).adjustBalance(eq(82371684L), eq(BigDecimal.valueOf(7)));
+    }
+
+    @Test(expected = InsufficientBalance.class)
+    public void testTransfer_whenInsufficientBalance_thenThrowsException() {
+        underTest.transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 1), BigDecimal.valueOf(11));
+    }
+
+    @Test
+    public void testTransfer_whenEntityStale_thenShardBalanceIsUsed() {
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(82371684L, 1);
+
+        underTest.transfer(from, to, BigDecimal.valueOf(7));
+
+        // the entity still says 10, but the shard already moved 7 out
+        try {
+            underTest.transfer(from, to, BigDecimal.valueOf(7));
+        } catch (InsufficientBalance e) {
+            verify(accountDao).adjustBalance(eq(82371683L), eq(BigDecimal.valueOf(-7)));
+            return;
+        }
+
+        throw new AssertionError("second transfer should have been rejected");
+    }
+
+    @Test
+    public void testTransfer_whenPersistFails_thenReservedFundsReturned() {
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(82371684L, 1);
+
+        doThrow(IllegalStateException.class).when(accountDao).adjustBalance(eq(82371683L), eq(BigDecimal.valueOf(-10)));
+
+        try {
+            underTest.transfer(from, to, BigDecimal.TEN);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        verify(accountDao, never()).adjustBalance(eq(82371684L), any());
+
+        // the full balance is available again
+        assertThat(underTest.transfer(from, to, BigDecimal.valueOf(9))).isTrue();
+    }
+
+    @Test
+    public void testTransfer_whenDebitCommittedOutsideTheShardAfterTheEntityWasRead_thenStoredBalanceIsUsed() {
+        // the request read the sender at 10, then a transfer elsewhere took 6 off the row before the shard saw it
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(82371684L, 1);
+        adjustStored(82371683L, BigDecimal.valueOf(-6));
+
+        try {
+            underTest.transfer(from, to, BigDecimal.valueOf(7));
+            throw new AssertionError("the stored balance of 4 cannot cover 7");
+        } catch (InsufficientBalance e) {
+            verify(accountDao, never()).adjustBalance(any(), any());
+        }
+
+        assertThat(underTest.transfer(from, to, BigDecimal.valueOf(4))).isTrue();
+        assertThat(rows.get(82371683L).getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTransfer_whenCreditCommittedBeforeTheShardReadTheRow_thenNotCountedTwice() throws Exception {
+        Long receiver = 82371684L;
+        store(receiver, 0);
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(receiver, 0);
+
+        // once the credit of 5 is committed, the receiver's own first debit is let in ahead of the credit command
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch debitDone = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            adjustStored(receiver, BigDecimal.valueOf(5));
+            return null;
+        }).when(accountDao).adjustBalance(eq(receiver), eq(BigDecimal.valueOf(5)));
+        when(jpaApi.withTransaction(eq("default"), eq(false), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Object version = invocation.getArgumentAt(2, Function.class).apply(null);
+                    committed.countDown();
+                    debitDone.await(5, TimeUnit.SECONDS);
+                    return version;
+                });
+
+        CompletableFuture<Boolean> credit = CompletableFuture.supplyAsync(() ->
+                underTest.transfer(from, to, BigDecimal.valueOf(5)));
+        committed.await(5, TimeUnit.SECONDS);
+        // the receiver's shard reads 5 from the row, the credit already included
+        try {
+            underTest.transfer(to, from, BigDecimal.valueOf(6));
+            throw new AssertionError("the receiver only holds 5");
+        } catch (InsufficientBalance e) {
+            // expected
+        } finally {
+            debitDone.countDown();
+        }
+        assertThat(credit.get(5, TimeUnit.SECONDS)).isTrue();
+
+        // the credit command finds the balance already read with it, 5 stays 5
+        try {
+            underTest.transfer(to, from, BigDecimal.valueOf(6));
+            throw new AssertionError("the credit was counted twice");
+        } catch (InsufficientBalance e) {
+            // expected
+        }
+        assertThat(rows.get(receiver).getBalance()).isEqualByComparingTo("5");
+    }
+
+    @Test
+    public void testTransfer_whenRowChangedOutsideTheShardAfterItWasRead_thenBalanceReloaded() {
+        Account from = buildAccount(82371683L, 10);
+        Account to = buildAccount(82371684L, 1);
+        underTest.transfer(from, to, BigDecimal.valueOf(4));
+
+        // the shard holds 6, then the row is credited 5 elsewhere
+        adjustStored(82371683L, BigDecimal.valueOf(5));
+        assertThat(underTest.transfer(from, to, BigDecimal.valueOf(11))).isTrue();
+        assertThat(rows.get(82371683L).getBalance()).isEqualByComparingTo("0");
+
+        // and debited elsewhere, the shard does not spend what the row no longer holds
+        adjustStored(82371684L, BigDecimal.valueOf(-16));
+        try {
+            underTest.transfer(to, from, BigDecimal.ONE);
+            throw new AssertionError("the row of the receiver is empty");
+        } catch (InsufficientBalance e) {
+            verify(accountDao, never()).adjustBalance(eq(82371684L), eq(BigDecimal.valueOf(-1)));
+        }
+    }
+
+    @Test
+    public void testTransfer_whenMoreAccountsThanAShardKeeps_thenDroppedBalancesReadAgain() {
+        underTest.shutdown();
+        underTest = new PartitionedTransferEngine(accountDao, 1, 16, 1);
+        store(82371685L, 0);
+
+        underTest.transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 1), BigDecimal.valueOf(3));
+        underTest.transfer(buildAccount(82371684L, 4), buildAccount(82371685L, 0), BigDecimal.valueOf(4));
+
+        // every account was dropped and read again along the way, the rows are where the transfers left them
+        assertThat(underTest.transfer(buildAccount(82371683L, 7), buildAccount(82371685L, 4), BigDecimal.valueOf(7)))
+                .isTrue();
+        assertThat(rows.get(82371683L).getBalance()).isEqualByComparingTo("0");
+        assertThat(rows.get(82371684L).getBalance()).isEqualByComparingTo("0");
+        assertThat(rows.get(82371685L).getBalance()).isEqualByComparingTo("11");
+    }
+
+    @Test
+    public void testTransferAll_whenAtomic_thenLaterLegSpendsEarlierCredit() {
+        store(82371685L, 0);
+
+        // the second sender only holds 1 of its own, the rest comes from the first leg
+        Map<Integer, RuntimeException> rejected = underTest.transferAll(Arrays.asList(
+                new TransferLeg(buildAccount(82371683L, 10), buildAccount(82371684L, 1), BigDecimal.TEN),
+                new TransferLeg(buildAccount(82371684L, 1), buildAccount(82371685L, 0), BigDecimal.valueOf(11))),
+                true);
+
+        assertThat(rejected).isEmpty();
+        assertThat(rows.get(82371683L).getBalance()).isEqualByComparingTo("0");
+        assertThat(rows.get(82371684L).getBalance()).isEqualByComparingTo("0");
+        assertThat(rows.get(82371685L).getBalance()).isEqualByComparingTo("11");
+
+        // the shards agree with the rows
+        assertThat(underTest.transfer(buildAccount(82371685L, 0), buildAccount(82371683L, 0), BigDecimal.valueOf(11)))
+                .isTrue();
+    }
+
+    @Test
+    public void testTransferAll_whenAtomicAndOneLegShort_thenNothingAppliedAndReservesGivenBack() {
+        store(82371685L, 0);
+
+        try {
+            underTest.transferAll(Arrays.asList(
+                    new TransferLeg(buildAccount(82371683L, 10), buildAccount(82371684L, 1), BigDecimal.valueOf(5)),
+                    new TransferLeg(buildAccount(82371684L, 1), buildAccount(82371685L, 0), BigDecimal.valueOf(20))),
+                    true);
+            throw new AssertionError("the second sender cannot cover 20");
+        } catch (InsufficientBalance e) {
+            verify(accountDao, never()).adjustBalance(any(), any());
+        }
+
+        assertThat(underTest.transfer(buildAccount(82371683L, 10), buildAccount(82371684L, 1), BigDecimal.TEN))
+                .isTrue();
+    }
+
+    private void store(Long id, long balance) {
+        rows.put(id, Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.valueOf(balance))
+                .version(0L).build());
+    }
+
+    private synchronized void adjustStored(Long id, BigDecimal delta) {
+        Account row = rows.get(id);
+        row.setBalance(row.getBalance().add(delta));
+        row.setVersion(row.getVersion() + 1);
+    }
+
+    private Account buildAccount(Long id, long balance) {
+        return Account.builder().id(id).currency(CurrencyEnum.SGD).balance(BigDecimal.valueOf(balance)).build();
+    }
+}
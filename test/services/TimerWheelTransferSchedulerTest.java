@@ -0,0 +1,184 @@
+package services;
+
+import beans.request.BatchTransferRequest;
+import beans.response.TransferResult;
+import dao.ScheduledTransferDao;
+import models.Account.CurrencyEnum;
+import models.ScheduledTransfer;
+import models.TransferLog;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import services.impl.TimerWheelTransferScheduler;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TimerWheelTransferSchedulerTest {
+
+    private static final long TICK_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private ScheduledTransferDao scheduledTransferDao;
+    private TransferService transferService;
+    private TimerWheelTransferScheduler underTest;
+
+    // the schedules table, answered by the mocked dao
+    private final List<ScheduledTransfer> schedules = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        scheduledTransferDao = mock(ScheduledTransferDao.class);
+        transferService = mock(TransferService.class);
+        JPAApi jpaApi = mock(JPAApi.class);
+        EntityManager em = mock(EntityManager.class);
+
+        when(scheduledTransferDao.jpaApi()).thenReturn(jpaApi);
+        when(jpaApi.withTransaction(any(Supplier.class))).thenAnswer(invocation ->
+                invocation.getArgumentAt(0, Supplier.class).get());
+        when(jpaApi.withTransaction(anyString(), anyBoolean(), any(Function.class))).thenAnswer(invocation ->
+                invocation.getArgumentAt(2, Function.class).apply(em));
+
+        when(scheduledTransferDao.getActiveSchedules(anyLong(), anyInt())).thenAnswer(invocation -> {
+            Long afterId = invocation.getArgumentAt(0, Long.class);
+            return schedules.stream()
+                    .filter(s -> s.getStatus() == ScheduledTransfer.Status.ACTIVE && s.getId() > afterId)
+                    .limit(invocation.getArgumentAt(1, Integer.class))
+                    .collect(Collectors.toList());
+        });
+        when(scheduledTransferDao.getDueSchedules(any(), any())).thenAnswer(invocation -> {
+            Collection<?> ids = invocation.getArgumentAt(0, Collection.class);
+            Date now = invocation.getArgumentAt(1, Date.class);
+            return schedules.stream()
+                    .filter(s -> ids.contains(s.getId()) && s.getStatus() == ScheduledTransfer.Status.ACTIVE
+                            && !s.getNextRunAt().after(now))
+                    .collect(Collectors.toList());
+        });
+
+        underTest = new TimerWheelTransferScheduler(scheduledTransferDao, transferService, TICK_MILLIS, 256, 4, 500);
+    }
+
+    @Test
+    public void testAdvanceTo_whenTransferFails_thenScheduleClaimedBeforeAndRunOnlyOnce() {
+        Date dueAt = hoursFromNow(3);
+        ScheduledTransfer schedule = addSchedule(1L, ScheduledTransfer.Recurrence.DAILY, dueAt);
+
+        when(transferService.transferBatch(any())).thenAnswer(invocation -> {
+            // the claim has moved the schedule on before any money moves
+            assertThat(schedule.getNextRunAt()).isEqualTo(plusDays(dueAt, 1));
+            throw new IllegalStateException("engine down");
+        });
+
+        underTest.advanceTo(dueAt.getTime());
+        underTest.advanceTo(dueAt.getTime() + TICK_MILLIS);
+
+        verify(transferService, times(1)).transferBatch(any(BatchTransferRequest.class));
+        verify(scheduledTransferDao).recordResult(1L, TransferLog.Status.FAILED);
+        assertThat(schedule.getLastRunAt()).isEqualTo(dueAt);
+        assertThat(schedule.getNextRunAt()).isEqualTo(plusDays(dueAt, 1));
+    }
+
+    @Test
+    public void testAdvanceTo_whenScheduleClaimedElsewhere_thenNotRun() {
+        Date dueAt = hoursFromNow(3);
+        ScheduledTransfer schedule = addSchedule(1L, ScheduledTransfer.Recurrence.DAILY, dueAt);
+
+        // another node claimed the run after this one armed it
+        underTest.advanceTo(dueAt.getTime() - TICK_MILLIS);
+        schedule.setNextRunAt(plusDays(dueAt, 1));
+
+        underTest.advanceTo(dueAt.getTime());
+
+        verify(transferService, never()).transferBatch(any());
+        verify(scheduledTransferDao, never()).recordResult(anyLong(), any());
+    }
+
+    @Test
+    public void testAdvanceTo_whenMonthlyOnThe31st_thenRunsOnMonthEndsWithoutDrift() {
+        when(transferService.transferBatch(any())).thenReturn(Collections.singletonList(TransferResult.completed(0)));
+
+        ZonedDateTime anchor = ZonedDateTime.now(ZoneOffset.UTC).withDayOfMonth(1).plusYears(1)
+                .withMonth(1).withDayOfMonth(31).withHour(9).withMinute(0).withSecond(0).withNano(0);
+        ScheduledTransfer schedule =
+                addSchedule(1L, ScheduledTransfer.Recurrence.MONTHLY, Date.from(anchor.toInstant()));
+
+        List<Date> runs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Date dueAt = schedule.getNextRunAt();
+            underTest.advanceTo(dueAt.getTime());
+            runs.add(schedule.getLastRunAt());
+        }
+
+        // Jan 31, then the last day of February, then back on the 31st and 30th
+        assertThat(runs).containsExactly(
+                Date.from(anchor.toInstant()),
+                Date.from(anchor.plusMonths(1).toInstant()),
+                Date.from(anchor.withMonth(3).withDayOfMonth(31).toInstant()),
+                Date.from(anchor.withMonth(4).withDayOfMonth(30).toInstant()));
+        assertThat(schedule.getNextRunAt()).isEqualTo(Date.from(anchor.withMonth(5).withDayOfMonth(31).toInstant()));
+        verify(transferService, times(4)).transferBatch(any());
+        verify(scheduledTransferDao, times(4)).recordResult(eq(1L), eq(TransferLog.Status.COMPLETED));
+    }
+
+    @Test
+    public void testAdvanceTo_whenOneOff_thenCompletedAndNotRearmed() {
+        when(transferService.transferBatch(any())).thenReturn(Collections.singletonList(TransferResult.completed(0)));
+        Date dueAt = hoursFromNow(3);
+        ScheduledTransfer schedule = addSchedule(1L, ScheduledTransfer.Recurrence.ONCE, dueAt);
+
+        underTest.advanceTo(dueAt.getTime());
+        underTest.advanceTo(plusDays(dueAt, 2).getTime());
+
+        assertThat(schedule.getStatus()).isEqualTo(ScheduledTransfer.Status.COMPLETED);
+        verify(transferService, times(1)).transferBatch(any());
+        verify(scheduledTransferDao).recordResult(1L, TransferLog.Status.COMPLETED);
+    }
+
+    private ScheduledTransfer addSchedule(Long id, ScheduledTransfer.Recurrence recurrence, Date startAt) {
+        ScheduledTransfer schedule = ScheduledTransfer.builder()
+                .id(id)
+                .fromAccountId(19283746L)
+                .toAccountId(19283750L)
+                .amount(BigDecimal.TEN)
+                .currency(CurrencyEnum.SGD)
+                .recurrence(recurrence)
+                .anchorAt(startAt)
+                .nextRunAt(startAt)
+                .status(ScheduledTransfer.Status.ACTIVE).build();
+        schedules.add(schedule);
+        return schedule;
+    }
+
+    private static Date hoursFromNow(int hours) {
+        long now = System.currentTimeMillis();
+        return new Date((now / TICK_MILLIS + hours) * TICK_MILLIS);
+    }
+
+    private static Date plusDays(Date date, int days) {
+        return new Date(date.getTime() + TimeUnit.DAYS.toMillis(days));
+    }
+}
@@ -0,0 +1,183 @@
+package services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import services.impl.TransferJournal;
+import services.impl.TransferJournal.Record;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransferJournalTest {
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRecover_whenReopened_thenRecordsReplayedInOrder() {
+        TransferJournal journal = open();
+        journal.recover(record -> { });
+
+        long first = journal.append(record(1, 2, "7.00", "3.00", "8.00"));
+        long second = journal.append(record(2, 1, "0.50", "7.50", "3.50"));
+        journal.awaitDurable(second);
+        journal.close();
+
+        List<Record> replayed = recoverAll(open());
+
+        assertThat(first).isEqualTo(1);
+        assertThat(second).isEqualTo(2);
+        assertThat(replayed).extracting(Record::getSeq).containsExactly(1L, 2L);
+        assertThat(replayed.get(1).getFromBalance()).isEqualTo(new BigDecimal("7.50"));
+        assertThat(replayed.get(1).getToBalance()).isEqualTo(new BigDecimal("3.50"));
+    }
+
+    @Test
+    public void testAwaitForced_whenSyncCommitOff_thenWaitsForTheFlusher() {
+        TransferJournal journal = new TransferJournal(true, directory, 64 * 1024, 50, false);
+        journal.recover(record -> { });
+
+        long seq = journal.append(record(1, 2, "7.00", "3.00", "8.00"));
+        journal.awaitDurable(seq); // sync-commit off, returns straight away
+        journal.awaitForced(seq);
+
+        assertThat(journal.getDurableSeq()).isGreaterThanOrEqualTo(seq);
+        journal.close();
+    }
+
+    @Test
+    public void testRecover_whenSegmentsRoll_thenSequenceContinues() {
+        // two records per segment
+        TransferJournal journal = new TransferJournal(true, directory, 128, 1, true);
+        journal.recover(record -> { });
+        for (int i = 0; i < 5; i++)
+            journal.append(record(1, 2, "1", "10", "10"));
+        journal.close();
+
+        TransferJournal reopened = new TransferJournal(true, directory, 128, 1, true);
+        assertThat(recoverAll(reopened)).extracting(Record::getSeq).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(reopened.append(record(1, 2, "1", "10", "10"))).isEqualTo(6);
+        reopened.close();
+    }
+
+    @Test
+    public void testRecover_whenRecordTorn_thenReplayStopsBeforeIt() throws IOException {
+        TransferJournal journal = open();
+        journal.recover(record -> { });
+        journal.append(record(1, 2, "1", "9", "11"));
+        journal.append(record(1, 2, "1", "8", "12"));
+        journal.close();
+
+        // flip a byte in the second record
+        try (RandomAccessFile file = new RandomAccessFile(segments().get(segments().size() - 1).toFile(), "rw")) {
+            file.seek(64 + 20);
+            file.write(0x7f);
+        }
+
+        TransferJournal reopened = open();
+        assertThat(recoverAll(reopened)).extracting(Record::getSeq).containsExactly(1L);
+        assertThat(reopened.append(record(1, 2, "1", "8", "12"))).isEqualTo(2);
+        reopened.close();
+    }
+
+    @Test
+    public void testRecover_whenGroupNotCommitted_thenGroupDropped() {
+        TransferJournal journal = open();
+        journal.recover(record -> { });
+        journal.appendAll(Arrays.asList(record(1, 2, "1", "9", "11"), record(3, 4, "1", "9", "11")));
+        journal.close();
+
+        // cut the commit record off, as if the process died before it reached the disk
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(64);
+            file.write(new byte[64]);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        TransferJournal reopened = open();
+        assertThat(recoverAll(reopened)).isEmpty();
+        reopened.append(record(5, 6, "1", "9", "11"));
+        reopened.close();
+
+        // the abort written at recovery keeps the dropped leg out of later replays too
+        assertThat(recoverAll(open())).extracting(Record::getFromAccountId).containsExactly(5L);
+    }
+
+    @Test
+    public void testCompact_whenCoveredBySnapshot_thenReplayStartsAfterIt() {
+        // two records per segment
+        TransferJournal journal = new TransferJournal(true, directory, 128, 1, true);
+        journal.recover(record -> { });
+        for (int i = 0; i < 5; i++)
+            journal.append(record(1, 2, "1", "10", "10"));
+
+        assertThat(journal.compact(4, null)).isEqualTo(2);
+        journal.close();
+
+        List<Record> replayed = new ArrayList<>();
+        TransferJournal reopened = new TransferJournal(true, directory, 128, 1, true);
+        reopened.recover(5, replayed::add);
+        reopened.close();
+
+        assertThat(replayed).extracting(Record::getSeq).containsExactly(5L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRecover_whenNeededSegmentsCompacted_thenFails() {
+        TransferJournal journal = new TransferJournal(true, directory, 128, 1, true);
+        journal.recover(record -> { });
+        for (int i = 0; i < 5; i++)
+            journal.append(record(1, 2, "1", "10", "10"));
+        journal.compact(4, null);
+        journal.close();
+
+        new TransferJournal(true, directory, 128, 1, true).recover(record -> { });
+    }
+
+    private TransferJournal open() {
+        return new TransferJournal(true, directory, 64 * 1024, 1, true);
+    }
+
+    private List<Record> recoverAll(TransferJournal journal) {
+        List<Record> replayed = new ArrayList<>();
+        journal.recover(replayed::add);
+        return replayed;
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".dat")).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Record record(long from, long to, String amount, String fromBalance, String toBalance) {
+        return new Record(from, to, new BigDecimal(amount), new BigDecimal(fromBalance), new BigDecimal(toBalance));
+    }
+}
@@ -1,12 +1,22 @@
 package services;
 
+import beans.request.BatchTransferRequest;
+import beans.request.MultiLegTransferRequest;
 import beans.request.TransferRequestBean;
+import beans.response.TransferResult;
 import dao.AccountDao;
+import dao.AccountRollupDao;
+import dao.TransferLogDao;
+import exception.IdempotencyKeyInProgress;
+import exception.IdempotencyKeyMismatch;
+import exception.InsufficientBalance;
 import exception.InvalidCurrencyTransfer;
 import exception.InvalidTransferRequest;
 import exception.NoAccountFoundException;
 import models.Account;
 import models.Account.CurrencyEnum;
+import models.IdempotencyKey;
+import models.TransferLog;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,16 +24,26 @@ import org.junit.runner.RunWith;
 import org.mockito.InOrder;
 import org.mockito.runners.MockitoJUnitRunner;
 import play.db.jpa.JPAApi;
+import services.impl.JpaTransferLogWriter;
+import services.impl.LockAcquisitionPolicy;
+import services.impl.LockingTransferEngine;
 import services.impl.TransferServiceImpl;
+import utils.RequestHash;
 
 import javax.persistence.EntityManager;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
@@ -36,6 +56,8 @@ import static org.mockito.Mockito.when;
 public class TransferServiceTest {
 
     private AccountDao accountDao;
+    private AccountLockRegistry lockRegistry;
+    private TransferLogDao transferLogDao;
     private TransferService underTest;
     private EntityManager em;
     private JPAApi jpaApi;
@@ -43,13 +65,22 @@ public class TransferServiceTest {
     @Before
     public void setup() {
         accountDao = mock(AccountDao.class);
-        underTest = new TransferServiceImpl(accountDao);
-
+        lockRegistry = mock(AccountLockRegistry.class);
+        transferLogDao = mock(TransferLogDao.class);
         em = mock(EntityManager.class);
         jpaApi = mock(JPAApi.class);
 
+        // a single lock attempt per transfer, so lock failures surface straight away
+        underTest = new TransferServiceImpl(
+                new LockingTransferEngine(accountDao, lockRegistry, new LockAcquisitionPolicy(10, 0, 1, 1)),
+                new JpaTransferLogWriter(jpaApi, mock(AccountRollupDao.class)),
+                transferLogDao);
+
         when(accountDao.jpaApi()).thenReturn(jpaApi);
         when(jpaApi.em()).thenReturn(em);
+        // the validation lookup is answered like the stubbed getAccounts
+        when(accountDao.lookupAccounts(any())).thenAnswer(invocation ->
+                accountDao.getAccounts(invocation.getArgumentAt(0, Collection.class)));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -85,15 +116,14 @@ public class TransferServiceTest {
 
     @Test(expected = NoAccountFoundException.class)
     public void testTransfer_whenSenderAccountNotFound_andTransferThrowsException() {
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.empty());
+        when(accountDao.getAccounts(any())).thenReturn(Collections.emptyList());
 
         underTest.transfer(buildTransferRequest(82371683L, 413124L, 10, CurrencyEnum.USD));
     }
 
     @Test(expected = NoAccountFoundException.class)
     public void testTransfer_whenReceiverAccountNotFound_andTransferThrowsException() {
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(new Account()));
-        when(accountDao.getAccount(eq(413124L))).thenReturn(Optional.empty());
+        when(accountDao.getAccounts(any())).thenReturn(Collections.singletonList(Account.builder().id(82371683L).build()));
 
         underTest.transfer(buildTransferRequest(82371683L, 413124L, 10, CurrencyEnum.USD));
     }
@@ -102,9 +132,7 @@ public class TransferServiceTest {
     public void testTransfer_whenSelfTransfer_andTransferThrowsException() {
         Account account = Account.builder().id(82371683L).build();
 
-        when(accountDao.getAccount(eq(82371683L)))
-                .thenReturn(Optional.of(account))
-                .thenReturn(Optional.of(account));
+        when(accountDao.getAccounts(any())).thenReturn(Collections.singletonList(account));
 
         underTest.transfer(buildTransferRequest(82371683L, 82371683L, 10, CurrencyEnum.USD));
     }
@@ -114,8 +142,7 @@ public class TransferServiceTest {
         Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).build();
         Account toAccount = Account.builder().id(413124L).currency(CurrencyEnum.USD).build();
 
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(413124L))).thenReturn(Optional.of(toAccount));
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
 
         underTest.transfer(buildTransferRequest(82371683L, 413124L, 10, CurrencyEnum.USD));
     }
@@ -125,24 +152,24 @@ public class TransferServiceTest {
         Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).build();
         Account toAccount = Account.builder().id(413124L).currency(CurrencyEnum.SGD).build();
 
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(413124L))).thenReturn(Optional.of(toAccount));
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
 
         underTest.transfer(buildTransferRequest(82371683L, 413124L, 10, CurrencyEnum.USD));
     }
 
     @Test
-    public void testTransfer_whenInsufficientBalance_andTransferThrowsException() {
+    public void testTransfer_whenInsufficientBalance_andTransferThrowsException() throws Exception {
         Lock fromLock = mock(Lock.class);
         Lock toLock = mock(Lock.class);
 
-        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).lock(fromLock).build();
-        Account toAccount = Account.builder().id(413124L).currency(CurrencyEnum.SGD).lock(toLock).build();
+        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account toAccount = Account.builder().id(413124L).currency(CurrencyEnum.SGD).build();
 
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(413124L))).thenReturn(Optional.of(toAccount));
-        when(fromLock.tryLock()).thenReturn(true);
-        when(toLock.tryLock()).thenReturn(true);
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Arrays.asList(toLock, fromLock));
+        when(fromLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(toLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubTransaction(fromAccount, toAccount);
 
         try {
             underTest.transfer(buildTransferRequest(82371683L, 413124L, 11, CurrencyEnum.SGD));
@@ -153,8 +180,8 @@ public class TransferServiceTest {
         // verify if lower account ID lock is taken first and released later
         InOrder inOrder = inOrder(toLock, fromLock);
 
-        inOrder.verify(toLock).tryLock();
-        inOrder.verify(fromLock).tryLock();
+        inOrder.verify(toLock).tryLock(anyLong(), any(TimeUnit.class));
+        inOrder.verify(fromLock).tryLock(anyLong(), any(TimeUnit.class));
 
         inOrder.verify(fromLock).unlock();
         inOrder.verify(toLock).unlock();
@@ -162,31 +189,25 @@ public class TransferServiceTest {
 
     @Test
     @SuppressWarnings("unchecked")
-    public void testTransfer_whenSufficientBalance_andTransferSuccess() {
+    public void testTransfer_whenSufficientBalance_andTransferSuccess() throws Exception {
         Lock fromLock = mock(Lock.class);
         Lock toLock = mock(Lock.class);
 
-        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).lock(fromLock).build();
-        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).lock(toLock).build();
-
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(82371684L))).thenReturn(Optional.of(toAccount));
-        when(fromLock.tryLock()).thenReturn(true);
-        when(toLock.tryLock()).thenReturn(true);
+        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
 
-        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
-                .thenAnswer(invocation -> {
-                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
-                    block.apply(em);
-                    return null;
-                });
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Arrays.asList(fromLock, toLock));
+        when(fromLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(toLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubTransaction(fromAccount, toAccount);
 
         boolean result = underTest.transfer(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD));
 
         InOrder inOrder = inOrder(toLock, fromLock);
 
-        inOrder.verify(fromLock).tryLock();
-        inOrder.verify(toLock).tryLock();
+        inOrder.verify(fromLock).tryLock(anyLong(), any(TimeUnit.class));
+        inOrder.verify(toLock).tryLock(anyLong(), any(TimeUnit.class));
 
         inOrder.verify(toLock).unlock();
         inOrder.verify(fromLock).unlock();
@@ -197,23 +218,23 @@ public class TransferServiceTest {
     }
 
     @Test
-    public void testTransfer_whenLock1FailedToAcquire_andTransferFail() {
+    public void testTransfer_whenLock1FailedToAcquire_andTransferFail() throws Exception {
         Lock fromLock = mock(Lock.class);
         Lock toLock = mock(Lock.class);
 
-        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).lock(fromLock).build();
-        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).lock(toLock).build();
+        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
 
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(82371684L))).thenReturn(Optional.of(toAccount));
-        when(fromLock.tryLock()).thenReturn(false);
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Arrays.asList(fromLock, toLock));
+        when(fromLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false);
 
         boolean result = underTest.transfer(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD));
 
-        verify(fromLock).tryLock();
+        verify(fromLock).tryLock(anyLong(), any(TimeUnit.class));
         verify(fromLock, never()).unlock();
 
-        verify(toLock, never()).tryLock();
+        verify(toLock, never()).tryLock(anyLong(), any(TimeUnit.class));
         verify(toLock, never()).unlock();
 
         assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.TEN); // no change in balance
@@ -222,24 +243,24 @@ public class TransferServiceTest {
     }
 
     @Test
-    public void testTransfer_whenLock2FailedToAcquire_andTransferFail() {
+    public void testTransfer_whenLock2FailedToAcquire_andTransferFail() throws Exception {
         Lock fromLock = mock(Lock.class);
         Lock toLock = mock(Lock.class);
 
-        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).lock(fromLock).build();
-        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).lock(toLock).build();
+        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
 
-        when(accountDao.getAccount(eq(82371683L))).thenReturn(Optional.of(fromAccount));
-        when(accountDao.getAccount(eq(82371684L))).thenReturn(Optional.of(toAccount));
-        when(fromLock.tryLock()).thenReturn(true);
-        when(toLock.tryLock()).thenReturn(false);
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Arrays.asList(fromLock, toLock));
+        when(fromLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        when(toLock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(false);
 
         boolean result = underTest.transfer(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD));
 
-        verify(fromLock).tryLock();
+        verify(fromLock).tryLock(anyLong(), any(TimeUnit.class));
         verify(fromLock).unlock();
 
-        verify(toLock).tryLock();
+        verify(toLock).tryLock(anyLong(), any(TimeUnit.class));
         verify(toLock, never()).unlock();
 
         assertThat(fromAccount.getBalance()).isEqualTo(BigDecimal.TEN); // no change in balance
@@ -247,6 +268,199 @@ public class TransferServiceTest {
         assertThat(result).isFalse();
     }
 
+    @Test
+    public void testTransfer_whenIdempotencyKeyAlreadyCompleted_thenNotExecutedAgain() {
+        TransferRequestBean request = buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD);
+        when(transferLogDao.claimIdempotencyKey("key-1", RequestHash.of(request)))
+                .thenReturn(Optional.of(heldKey(request, TransferLog.Status.COMPLETED)));
+
+        boolean result = underTest.transfer(request, "key-1");
+
+        assertThat(result).isTrue();
+        verify(em, never()).persist(any());
+        verify(accountDao, never()).getAccounts(any());
+        verify(transferLogDao, never()).settleIdempotencyKey(any(), any());
+    }
+
+    @Test
+    public void testTransfer_whenIdempotencyKeyUsedForAnotherRequest_thenThrowsMismatch() {
+        TransferRequestBean first = buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD);
+        when(transferLogDao.claimIdempotencyKey(eq("key-1"), any()))
+                .thenReturn(Optional.of(heldKey(first, TransferLog.Status.COMPLETED)));
+
+        Assertions.assertThatThrownBy(() ->
+                underTest.transfer(buildTransferRequest(82371683L, 82371684L, 8, CurrencyEnum.SGD), "key-1"))
+                .isInstanceOf(IdempotencyKeyMismatch.class);
+        verify(accountDao, never()).getAccounts(any());
+    }
+
+    @Test
+    public void testTransfer_whenIdempotencyKeyHeldByRunningTransfer_thenThrowsInProgress() {
+        TransferRequestBean request = buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD);
+        when(transferLogDao.claimIdempotencyKey(eq("key-1"), any()))
+                .thenReturn(Optional.of(heldKey(request, TransferLog.Status.PENDING)));
+
+        Assertions.assertThatThrownBy(() -> underTest.transfer(request, "key-1"))
+                .isInstanceOf(IdempotencyKeyInProgress.class);
+        verify(accountDao, never()).getAccounts(any());
+    }
+
+    @Test
+    public void testTransfer_whenIdempotencyKeyClaimed_thenOutcomeSettledOnTheKey() throws Exception {
+        Lock lock = mock(Lock.class);
+
+        Account fromAccount = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account toAccount = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(transferLogDao.claimIdempotencyKey(eq("key-1"), any())).thenReturn(Optional.empty());
+        when(transferLogDao.claimIdempotencyKey(eq("key-2"), any())).thenReturn(Optional.empty());
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(fromAccount, toAccount));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Collections.singletonList(lock));
+        when(lock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubTransaction(fromAccount, toAccount);
+
+        underTest.transfer(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD), "key-1");
+        Assertions.assertThatThrownBy(() ->
+                underTest.transfer(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD), "key-2"))
+                .isInstanceOf(InsufficientBalance.class);
+
+        verify(transferLogDao).settleIdempotencyKey("key-1", TransferLog.Status.COMPLETED);
+        verify(transferLogDao).settleIdempotencyKey("key-2", TransferLog.Status.FAILED);
+    }
+
+    @Test
+    public void testTransferBatch_whenBestEffort_thenOnlyFailedTransfersRejected() throws Exception {
+        Lock lock = mock(Lock.class);
+
+        Account account1 = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account account2 = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(account1, account2));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Collections.singletonList(lock));
+        when(lock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubBatchTransaction();
+
+        List<TransferResult> results = underTest.transferBatch(BatchTransferRequest.builder()
+                .mode(BatchTransferRequest.Mode.BEST_EFFORT)
+                .transfers(Arrays.asList(
+                        buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD),
+                        buildTransferRequest(82371684L, 82371683L, 50, CurrencyEnum.SGD),
+                        buildTransferRequest(82371683L, 82371699L, 1, CurrencyEnum.SGD)))
+                .build());
+
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferLog.Status.COMPLETED, TransferLog.Status.FAILED, TransferLog.Status.FAILED);
+        assertThat(results.get(1).getMessage()).contains("InsufficientBalance");
+        assertThat(results.get(2).getMessage()).contains("NoAccountFoundException");
+
+        // both valid transfers went through one lock acquisition
+        verify(lock).tryLock(anyLong(), any(TimeUnit.class));
+        verify(lock).unlock();
+
+        assertThat(account1.getBalance()).isEqualTo(BigDecimal.valueOf(3.0));
+        assertThat(account2.getBalance()).isEqualTo(BigDecimal.valueOf(8.0));
+    }
+
+    @Test
+    public void testTransferBatch_whenAllOrNothingAndOneTransferFails_thenAllFailed() throws Exception {
+        Lock lock = mock(Lock.class);
+
+        Account account1 = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account account2 = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(account1, account2));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Collections.singletonList(lock));
+        when(lock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubBatchTransaction();
+
+        List<TransferResult> results = underTest.transferBatch(BatchTransferRequest.builder()
+                .mode(BatchTransferRequest.Mode.ALL_OR_NOTHING)
+                .transfers(Arrays.asList(
+                        buildTransferRequest(82371684L, 82371683L, 50, CurrencyEnum.SGD),
+                        buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD)))
+                .build());
+
+        assertThat(results).extracting(TransferResult::getStatus)
+                .containsExactly(TransferLog.Status.FAILED, TransferLog.Status.FAILED);
+        verify(lock).unlock();
+
+        assertThat(account1.getBalance()).isEqualTo(BigDecimal.TEN); // no change in balance
+        assertThat(account2.getBalance()).isEqualTo(BigDecimal.ONE);
+    }
+
+    @Test(expected = InvalidTransferRequest.class)
+    public void testTransferBatch_whenModeMissing_thenThrowsException() {
+        underTest.transferBatch(BatchTransferRequest.builder()
+                .transfers(Collections.singletonList(buildTransferRequest(82371683L, 82371684L, 7, CurrencyEnum.SGD)))
+                .build());
+    }
+
+    @Test
+    public void testTransferMultiLeg_whenSplitPayment_thenAllLegsApplied() throws Exception {
+        Lock lock = mock(Lock.class);
+
+        Account payer = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account payee1 = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+        Account payee2 = Account.builder().id(82371685L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(payer, payee1, payee2));
+        when(lockRegistry.getOrderedLocks(any())).thenReturn(Collections.singletonList(lock));
+        when(lock.tryLock(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        stubBatchTransaction();
+
+        boolean result = underTest.transferMultiLeg(MultiLegTransferRequest.builder()
+                .legs(Arrays.asList(
+                        buildTransferRequest(82371683L, 82371684L, 6, CurrencyEnum.SGD),
+                        buildTransferRequest(82371683L, 82371685L, 4, CurrencyEnum.SGD)))
+                .build());
+
+        assertThat(result).isTrue();
+        verify(lock).unlock();
+        assertThat(payer.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(payee1.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(7));
+        assertThat(payee2.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(5));
+    }
+
+    @Test(expected = InvalidCurrencyTransfer.class)
+    public void testTransferMultiLeg_whenOneLegHasOtherCurrency_thenNothingLocked() {
+        Account payer = Account.builder().id(82371683L).currency(CurrencyEnum.SGD).balance(BigDecimal.TEN).build();
+        Account payee = Account.builder().id(82371684L).currency(CurrencyEnum.SGD).balance(BigDecimal.ONE).build();
+
+        when(accountDao.getAccounts(any())).thenReturn(Arrays.asList(payer, payee));
+
+        try {
+            underTest.transferMultiLeg(MultiLegTransferRequest.builder()
+                    .legs(Arrays.asList(
+                            buildTransferRequest(82371683L, 82371684L, 6, CurrencyEnum.SGD),
+                            buildTransferRequest(82371683L, 82371684L, 4, CurrencyEnum.USD)))
+                    .build());
+        } finally {
+            verify(lockRegistry, never()).getOrderedLocks(any());
+        }
+    }
+
+    private void stubTransaction(Account fromAccount, Account toAccount) {
+        when(em.find(eq(Account.class), eq(fromAccount.getId()))).thenReturn(fromAccount);
+        when(em.find(eq(Account.class), eq(toAccount.getId()))).thenReturn(toAccount);
+        stubBatchTransaction();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubBatchTransaction() {
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(em);
+                });
+    }
+
+    private IdempotencyKey heldKey(TransferRequestBean request, TransferLog.Status status) {
+        return IdempotencyKey.builder()
+                .idempotencyKey("key-1")
+                .requestHash(RequestHash.of(request))
+                .status(status).build();
+    }
+
     private TransferRequestBean buildTransferRequest(Long from, Long to, double amount, CurrencyEnum currency) {
         return TransferRequestBean.builder()
                 .amount(BigDecimal.valueOf(amount))
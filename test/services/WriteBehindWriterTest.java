@@ -0,0 +1,126 @@
+package services;
+
+import dao.AccountDao;
+import dao.AccountRollupDao;
+import models.AccountDailyRollup;
+import models.TransferLog;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+import services.impl.InMemoryLedger;
+import services.impl.WriteBehindWriter;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteBehindWriterTest {
+
+    private JPAApi jpaApi;
+    private EntityManager em;
+    private AccountRollupDao rollupDao;
+    private PreparedStatement statement;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        jpaApi = mock(JPAApi.class);
+        em = mock(EntityManager.class);
+        rollupDao = mock(AccountRollupDao.class);
+        Session session = mock(Session.class);
+        Connection connection = mock(Connection.class);
+        statement = mock(PreparedStatement.class);
+
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(em);
+                });
+        when(em.unwrap(Session.class)).thenReturn(session);
+        doAnswer(invocation -> {
+            invocation.getArgumentAt(0, Work.class).execute(connection);
+            return null;
+        }).when(session).doWork(any(Work.class));
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+    }
+
+    @Test
+    public void testFlush_whenOneFlushFails_thenNextFlushInsertsTheSameLogs() throws Exception {
+        WriteBehindWriter underTest = writer(5);
+        doThrow(new IllegalStateException("connection reset")).doNothing().when(rollupDao).add(any());
+
+        underTest.complete(buildLog(82371683L));
+        underTest.complete(buildLog(82371683L));
+
+        assertThatThrownBy(underTest::flush).isInstanceOf(IllegalStateException.class);
+        assertThat(underTest.getPendingCount()).isEqualTo(2);
+
+        underTest.flush();
+
+        // the logs never became entities, nothing stops them going in again
+        verify(em, never()).persist(any());
+        verify(statement, times(4)).addBatch();
+        verify(statement, times(2)).executeBatch();
+        verify(rollupDao, times(2)).add(any());
+        assertThat(underTest.getPendingCount()).isZero();
+        assertThat(underTest.getDroppedCount()).isZero();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlush_whenFlushFailsPastMaxRetries_thenLogsWrittenOneByOneAndBadOnesDropped() throws Exception {
+        WriteBehindWriter underTest = writer(2);
+        doAnswer(invocation -> {
+            Collection<AccountDailyRollup> rollups = invocation.getArgumentAt(0, Collection.class);
+            if (rollups.stream().anyMatch(rollup -> rollup.getAccountId() == 666L))
+                throw new IllegalStateException("bad log");
+            return null;
+        }).when(rollupDao).add(any());
+
+        underTest.complete(buildLog(82371683L));
+        underTest.complete(buildLog(666L));
+        underTest.complete(buildLog(82371683L));
+
+        assertThatThrownBy(underTest::flush).isInstanceOf(IllegalStateException.class);
+        assertThat(underTest.getDroppedCount()).isZero();
+
+        underTest.flush();
+
+        assertThat(underTest.getDroppedCount()).isEqualTo(1);
+        assertThat(underTest.getPendingCount()).isZero();
+        verify(rollupDao, times(6)).add(any()); // two flush attempts, the balances alone, then one per log
+    }
+
+    private WriteBehindWriter writer(int maxRetries) {
+        // an interval long enough that only flush writes
+        return new WriteBehindWriter(jpaApi, mock(InMemoryLedger.class), mock(AccountDao.class), rollupDao,
+                100, 60_000, maxRetries);
+    }
+
+    private static TransferLog buildLog(Long fromAccountId) {
+        return TransferLog.builder()
+                .fromAccountId(fromAccountId)
+                .toAccountId(82371684L)
+                .amount(BigDecimal.TEN)
+                .requestedCurrency("SGD")
+                .status(TransferLog.Status.COMPLETED)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package startup;
+
+import dao.AccountSubBalanceDao;
+import models.Account;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.db.jpa.JPAApi;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubBalanceFolderTest {
+    private static final long ACCOUNT_ID = 19283746L;
+
+    private Application app;
+    private JPAApi jpaApi;
+    private AccountSubBalanceDao subBalanceDao;
+
+    @Before
+    public void setup() {
+        app = new GuiceApplicationBuilder().build();
+        Helpers.start(app);
+
+        jpaApi = app.injector().instanceOf(JPAApi.class);
+        subBalanceDao = app.injector().instanceOf(AccountSubBalanceDao.class);
+    }
+
+    @After
+    public void teardown() {
+        Helpers.stop(app);
+    }
+
+    @Test
+    public void testFold_whenSubBalancesHoldCredits_thenAddedToTheAccountBalance() {
+        BigDecimal before = jpaApi.withTransaction(() -> jpaApi.em().find(Account.class, ACCOUNT_ID).getBalance());
+        jpaApi.withTransaction(() -> {
+            subBalanceDao.createSubBalances(ACCOUNT_ID, 2);
+            subBalanceDao.credit(ACCOUNT_ID, 0, BigDecimal.valueOf(5));
+            subBalanceDao.credit(ACCOUNT_ID, 1, BigDecimal.valueOf(7));
+        });
+
+        new SubBalanceFolder(subBalanceDao);
+
+        assertThat(jpaApi.withTransaction(() -> jpaApi.em().find(Account.class, ACCOUNT_ID).getBalance()))
+                .isEqualByComparingTo(before.add(BigDecimal.valueOf(12)));
+        assertThat(jpaApi.withTransaction(() -> subBalanceDao.drain(ACCOUNT_ID))).isEqualByComparingTo("0");
+    }
+}
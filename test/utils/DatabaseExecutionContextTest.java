@@ -0,0 +1,87 @@
+package utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DatabaseExecutionContextTest {
+
+    private JPAApi jpaApi;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        jpaApi = mock(JPAApi.class);
+
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(mock(EntityManager.class));
+                });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWithTransaction_runsOnDatabasePool() throws Exception {
+        DatabaseExecutionContext underTest = new DatabaseExecutionContext(jpaApi, 2, 10);
+
+        String threadName = underTest.withTransaction(true, () -> Thread.currentThread().getName())
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertThat(threadName).startsWith("database-context-");
+        verify(jpaApi).withTransaction(eq("default"), eq(true), any(Function.class));
+    }
+
+    @Test
+    public void testWithTransaction_whenQueueFull_thenRejected() throws Exception {
+        DatabaseExecutionContext underTest = new DatabaseExecutionContext(jpaApi, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        // one running, one queued
+        CompletableFuture<Object> running = underTest.withTransaction(() -> {
+            started.countDown();
+            awaitQuietly(release);
+            return null;
+        }).toCompletableFuture();
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Object> queued = underTest.withTransaction(() -> null).toCompletableFuture();
+
+        CompletableFuture<Object> rejected = underTest.withTransaction(() -> null).toCompletableFuture();
+
+        try {
+            rejected.get(5, TimeUnit.SECONDS);
+            fail("expected the third transaction to be rejected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+        }
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import play.db.jpa.JPAApi;
+
+import javax.persistence.EntityManager;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExportExecutionContextTest {
+
+    private JPAApi jpaApi;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        jpaApi = mock(JPAApi.class);
+
+        when(jpaApi.withTransaction(any(String.class), any(Boolean.class), any(Function.class)))
+                .thenAnswer(invocation -> {
+                    Function<EntityManager, Object> block = invocation.getArgumentAt(2, Function.class);
+                    return block.apply(mock(EntityManager.class));
+                });
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWithTransaction_runsReadOnlyOnExportPool() throws Exception {
+        ExportExecutionContext underTest = new ExportExecutionContext(jpaApi, 1);
+
+        String threadName = underTest.reserve().get().withTransaction(() -> Thread.currentThread().getName())
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertThat(threadName).startsWith("export-context-");
+        verify(jpaApi).withTransaction(eq("default"), eq(true), any(Function.class));
+    }
+
+    @Test
+    public void testReserve_whenEveryThreadTaken_thenEmptyUntilOneIsDone() throws Exception {
+        ExportExecutionContext underTest = new ExportExecutionContext(jpaApi, 1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Optional<ExportExecutionContext.Reservation> reservation = underTest.reserve();
+        assertThat(reservation).isPresent();
+        // reserved but not yet running still counts
+        assertThat(underTest.reserve()).isEmpty();
+
+        CompletableFuture<Object> running = reservation.get().withTransaction(() -> {
+            awaitQuietly(release);
+            return null;
+        }).toCompletableFuture();
+        assertThat(underTest.reserve()).isEmpty();
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        assertThat(underTest.reserve()).isPresent();
+    }
+
+    @Test
+    public void testWithTransaction_whenReservationUsedTwice_thenThrows() {
+        ExportExecutionContext.Reservation reservation = new ExportExecutionContext(jpaApi, 1).reserve().get();
+        reservation.withTransaction(() -> null);
+
+        assertThatThrownBy(() -> reservation.withTransaction(() -> null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testOfferAndPoll_inFifoOrder() {
+        MpscRingBuffer<Integer> underTest = new MpscRingBuffer<>(4);
+
+        assertThat(underTest.offer(1)).isTrue();
+        assertThat(underTest.offer(2)).isTrue();
+
+        assertThat(underTest.poll()).isEqualTo(1);
+        assertThat(underTest.poll()).isEqualTo(2);
+        assertThat(underTest.poll()).isNull();
+        assertThat(underTest.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testOffer_whenFull_thenRejected() {
+        MpscRingBuffer<Integer> underTest = new MpscRingBuffer<>(3);
+        assertThat(underTest.capacity()).isEqualTo(4);
+
+        for (int i = 0; i < 4; i++)
+            assertThat(underTest.offer(i)).isTrue();
+
+        assertThat(underTest.offer(4)).isFalse();
+
+        underTest.poll();
+        assertThat(underTest.offer(4)).isTrue();
+    }
+
+    @Test
+    public void testConcurrentProducers_allElementsDrainedOnce() throws Exception {
+        final int producers = 4;
+        final int perProducer = 10000;
+        MpscRingBuffer<Integer> underTest = new MpscRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++)
+                    while (!underTest.offer(base + i))
+                        Thread.yield();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+
+        boolean[] seen = new boolean[producers * perProducer];
+        int received = 0;
+        while (received < seen.length) {
+            Integer element = underTest.poll();
+            if (element == null)
+                continue;
+
+            assertThat(seen[element]).isFalse();
+            seen[element] = true;
+            received++;
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assertThat(underTest.isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,84 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimerWheelTest {
+
+    @Test
+    public void testAdvanceTo_nearDeadline_expiresOnItsTick() {
+        TimerWheel<String> underTest = new TimerWheel<>(10, 4, 2, 0);
+        List<String> expired = new ArrayList<>();
+
+        underTest.schedule("a", 25);
+        assertThat(underTest.size()).isEqualTo(1);
+
+        // never before the deadline, even when it falls between ticks
+        underTest.advanceTo(20, expired::add);
+        assertThat(expired).isEmpty();
+
+        underTest.advanceTo(30, expired::add);
+        assertThat(expired).containsExactly("a");
+        assertThat(underTest.size()).isZero();
+    }
+
+    @Test
+    public void testAdvanceTo_farDeadline_cascadesDownAndExpiresOnItsTick() {
+        TimerWheel<String> underTest = new TimerWheel<>(10, 4, 2, 0);
+        List<String> expired = new ArrayList<>();
+
+        // one level up, and past the top level
+        underTest.schedule("b", 130);
+        underTest.schedule("c", 400);
+
+        underTest.advanceTo(120, expired::add);
+        assertThat(expired).isEmpty();
+
+        underTest.advanceTo(130, expired::add);
+        assertThat(expired).containsExactly("b");
+
+        underTest.advanceTo(390, expired::add);
+        assertThat(expired).containsExactly("b");
+
+        underTest.advanceTo(400, expired::add);
+        assertThat(expired).containsExactly("b", "c");
+        assertThat(underTest.size()).isZero();
+    }
+
+    @Test
+    public void testAdvanceTo_whenDeadlineAlreadyPassed_thenExpiresStraightAway() {
+        TimerWheel<String> underTest = new TimerWheel<>(10, 4, 2, 0);
+        List<String> expired = new ArrayList<>();
+
+        underTest.advanceTo(100, expired::add);
+        underTest.schedule("d", 5);
+        underTest.schedule("e", 100);
+
+        underTest.advanceTo(100, expired::add);
+        assertThat(expired).containsExactlyInAnyOrder("d", "e");
+    }
+
+    @Test
+    public void testAdvanceTo_manyTimeouts_eachExpiredOnce() {
+        TimerWheel<Integer> underTest = new TimerWheel<>(1, 8, 3, 0);
+        List<Integer> expired = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++)
+            underTest.schedule(i, i * 7);
+
+        for (long now = 0; now <= 7000; now += 13) {
+            int before = expired.size();
+            underTest.advanceTo(now, expired::add);
+
+            for (int j = before; j < expired.size(); j++)
+                assertThat(expired.get(j) * 7L).isLessThanOrEqualTo(now).isGreaterThan(now - 13);
+        }
+
+        assertThat(expired).hasSize(1000).doesNotHaveDuplicates();
+        assertThat(underTest.size()).isZero();
+    }
+}